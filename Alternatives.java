@@ -0,0 +1,539 @@
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * <b>Alternatives</b> finds the K earliest arriving itineraries between
+ * two airports that pass through different sequences of airports, for
+ * rebooking when the best one is not available. It follows Yen's
+ * algorithm: every itinerary found is the root of new candidates that
+ * leave it at one of its airports (the spur) and reach the destination
+ * some other way. A candidate may not go back through its root and may
+ * not continue along the next leg of an itinerary already found with
+ * the same root; those airports and edges are masked for the length of
+ * one spur search instead of being removed from the graph, so the
+ * graph is only ever read and any number of threads may query at once.
+ * <p>
+ * The spur searches share work in the style of Eppstein's algorithm.
+ * Each query first grows one reverse tree from the destination over
+ * the shortest flight along every edge, which bounds from below how
+ * long any airport is from the destination. Every spur search is an A*
+ * search on those bounds: it never leaves the airports that can reach
+ * the destination and it heads straight for it. A spur search also
+ * gives up as soon as it could only find itineraries arriving after
+ * enough candidates are already known.
+ * <p>
+ * The bounds are weak where a night on the ground dominates, so each
+ * query also grows a second reverse tree: the latest time the traveler
+ * may be at every airport and still arrive within SLACK of the best
+ * itinerary. Spur searches leave out every airport reached later than
+ * that. If that deadline leaves the query short of k itineraries, the
+ * query is searched once more without one.
+ * <p>
+ * The arrival along a given sequence of airports is the earliest one,
+ * so itineraries are told apart by their airports alone.
+ */
+public class Alternatives {
+
+	/** How many minutes past the best arrival the first deadline is set */
+	private static final int SLACK = 12 * 60;
+
+	private CompactGraph graph;
+
+	/** The latest arrival of any flight */
+	private int lastArrival;
+
+	/** The edges arriving at v are reverseEdges[reverseOffsets[v]..reverseOffsets[v+1]) */
+	private int[] reverseOffsets;
+	private int[] reverseEdges;
+
+	/** The airport every edge leaves */
+	private int[] sources;
+
+	/** The minutes of the shortest flight along every edge */
+	private int[] shortest;
+
+	// Abstraction Function:
+	// AF(this) = the K alternatives between any two airports of graph
+	// Representation Invariant = reverseEdges holds every edge once, under
+	//			  its target; sources[e] is the airport whose range holds e;
+	//			  shortest[e] >= 0 for every edge e
+
+	/**
+	 * Constructs a new Alternatives over graph
+	 *
+	 * @param graph The graph to search through
+	 * @effects constructs a new Alternatives, indexing the edges of
+	 * 			graph by the airport they arrive at
+	 */
+	public Alternatives(CompactGraph graph) {
+		this.graph = graph;
+		int n = graph.nodeCount();
+		int edges = graph.edgeCount();
+		this.reverseOffsets = new int[n + 1];
+		this.reverseEdges = new int[edges];
+		this.sources = new int[edges];
+		this.shortest = new int[edges];
+
+		for (int u = 0; u < n; u++) {
+			for (int e = graph.edgesStart(u); e < graph.edgesEnd(u); e++) {
+				sources[e] = u;
+				reverseOffsets[graph.target(e) + 1]++;
+				shortest[e] = Integer.MAX_VALUE;
+				for (int f = graph.flightsStart(e); f < graph.flightsEnd(e); f++) {
+					int minutes = Timetable.minutes(graph.arrival(f)) - Timetable.minutes(graph.departure(f));
+					shortest[e] = Math.min(shortest[e], minutes);
+					lastArrival = Math.max(lastArrival, graph.arrival(f));
+				}
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			reverseOffsets[v + 1] += reverseOffsets[v];
+		}
+		int[] next = Arrays.copyOf(reverseOffsets, n);
+		for (int e = 0; e < edges; e++) {
+			reverseEdges[next[graph.target(e)]++] = e;
+		}
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds
+	 */
+	private void checkRep() {
+		assert reverseOffsets[graph.nodeCount()] == graph.edgeCount() : "every edge indexed once";
+		for (int e = 0; e < graph.edgeCount(); e++) {
+			assert shortest[e] >= 0 : "flights cannot arrive before they leave";
+			assert e >= graph.edgesStart(sources[e]) && e < graph.edgesEnd(sources[e]) : "source of edge";
+		}
+	}
+
+	/**
+	 * Finds up to k itineraries from from to to that leave no earlier
+	 * than departure, each through a different sequence of airports and
+	 * none through an airport twice, earliest arrival first
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itineraries may leave
+	 * @param k The most itineraries to return
+	 * @param state The labels to reuse for the searches
+	 * @modifies state
+	 * @return the itineraries, ordered by arrival, then by number of
+	 * 		   legs; empty if there is none or an airport is unknown
+	 */
+	public List<Path<String>> find(String from, String to, int departure, int k, SearchState state) {
+		List<Path<String>> paths = new ArrayList<>();
+		int source = graph.id(from);
+		int target = graph.id(to);
+		if (source < 0 || target < 0 || k <= 0) return paths;
+		if (source == target) {
+			paths.add(new Path<>(from, to));
+			return paths;
+		}
+
+		Query query = new Query(target, departure);
+		Itinerary first = query.spur(null, 0, source, departure, state, Integer.MAX_VALUE);
+		List<Itinerary> found = new ArrayList<>();
+		if (first != null) found.add(first);
+		for (int slack = SLACK; first != null && k > 1; slack = Integer.MAX_VALUE) {
+			// a search left short by the deadline is run once more without one
+			boolean last = (long) Timetable.minutes(first.arrival()) + slack >= Timetable.minutes(lastArrival);
+			query.deadline(last ? Integer.MAX_VALUE : Timetable.fromMinutes(Timetable.minutes(first.arrival()) + slack));
+			found = yen(query, first, k, state);
+			if (found.size() == k || !query.cut || last) break;
+		}
+
+		Node<String, Integer>[] nodes = nodes(found);
+		for (Itinerary itinerary : found) {
+			List<Edge<String, Integer>> edges = new ArrayList<>();
+			for (int i = 0; i < itinerary.legs(); i++) {
+				edges.add(new Edge<>(itinerary.arrivals[i + 1], nodes[itinerary.airports[i]],
+						nodes[itinerary.airports[i + 1]]));
+			}
+			paths.add(new Path<>(from, to, edges));
+		}
+		return paths;
+	}
+
+	/**
+	 * Finds up to k itineraries starting with first, Yen's way
+	 *
+	 * @param query The bounds, masks and deadline of the query
+	 * @param first The earliest arriving itinerary
+	 * @param k The most itineraries to return
+	 * @param state The labels to reuse for the searches
+	 * @modifies query, state
+	 * @return the itineraries in order
+	 */
+	private List<Itinerary> yen(Query query, Itinerary first, int k, SearchState state) {
+		List<Itinerary> found = new ArrayList<>();
+		found.add(first);
+
+		// candidates in order, never more than could still be returned
+		List<Itinerary> candidates = new ArrayList<>();
+		Set<Itinerary> seen = new HashSet<>();
+		seen.add(first);
+
+		while (found.size() < k) {
+			Itinerary last = found.get(found.size() - 1);
+			int wanted = k - found.size();
+			// spurs before the one last left its parent at were searched
+			// for the parent already, with the same masks (Lawler)
+			for (int i = last.deviation; i < last.legs(); i++) {
+				query.stamp++;
+				for (Itinerary other : found) {
+					if (other.legs() > i && other.sharesRoot(last, i))
+						query.bannedEdges[graph.edge(other.airports[i], other.airports[i + 1])] = query.stamp;
+				}
+				for (int j = 0; j < i; j++) {
+					query.bannedNodes[last.airports[j]] = query.stamp;
+				}
+
+				int limit = candidates.size() >= wanted
+						? Timetable.minutes(candidates.get(wanted - 1).arrival()) : Integer.MAX_VALUE;
+				Itinerary candidate = query.spur(last, i, last.airports[i], last.arrivals[i], state, limit);
+				if (candidate == null || !seen.add(candidate)) continue;
+
+				int at = 0;
+				while (at < candidates.size() && candidates.get(at).compareTo(candidate) <= 0) at++;
+				candidates.add(at, candidate);
+				if (candidates.size() > wanted) candidates.remove(candidates.size() - 1);
+			}
+			if (candidates.isEmpty()) break;
+			found.add(candidates.remove(0));
+		}
+		return found;
+	}
+
+	/**
+	 * Returns a path node for every airport the given itineraries pass
+	 * through, shared between the itineraries
+	 *
+	 * @param itineraries The itineraries
+	 * @return the nodes indexed by airport id, null for other airports
+	 */
+	@SuppressWarnings("unchecked")
+	private Node<String, Integer>[] nodes(List<Itinerary> itineraries) {
+		Node<String, Integer>[] nodes = (Node<String, Integer>[]) new Node<?, ?>[graph.nodeCount()];
+		for (Itinerary itinerary : itineraries) {
+			for (int airport : itinerary.airports) {
+				if (nodes[airport] == null) nodes[airport] = new Node<>(graph.label(airport));
+			}
+		}
+		return nodes;
+	}
+
+	/**
+	 * Prints how long finding 1, 3 and 10 alternatives takes next to a
+	 * single earliest-arrival search
+	 *
+	 * @param args Optional snapshot to load, results.snap by default,
+	 * 		  and number of queries, 5000 by default
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		CompactGraph graph = Snapshot.load(args.length > 0 ? args[0] : "results.snap").graph();
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		CompactDijkstra search = new CompactDijkstra(graph);
+		Alternatives alternatives = new Alternatives(graph);
+		SearchState state = new SearchState(graph.nodeCount());
+
+		for (int round = 0; round < 2; round++) {
+			// the first round only warms up
+			Random random = new Random(20010911);
+			long single = 0;
+			long[] times = new long[3];
+			int[] ks = { 1, 3, 10 };
+			long returned = 0;
+			for (int q = 0; q < queries; q++) {
+				String from = graph.label(random.nextInt(graph.nodeCount()));
+				String to = graph.label(random.nextInt(graph.nodeCount()));
+				int departure = Timetable.timestamp(12 + random.nextInt(6), random.nextInt(24) * 100);
+				long start = System.nanoTime();
+				search.findPath(from, to, departure, state);
+				single += System.nanoTime() - start;
+				for (int i = 0; i < ks.length; i++) {
+					start = System.nanoTime();
+					int size = alternatives.find(from, to, departure, ks[i], state).size();
+					times[i] += System.nanoTime() - start;
+					if (ks[i] == 10) returned += size;
+				}
+			}
+			if (round == 0) continue;
+			System.out.printf("search %.1f us; k=1 %.1f us, k=3 %.1f us, k=10 %.1f us (%.1fx, %.1f itineraries)%n",
+					single / 1000.0 / queries, times[0] / 1000.0 / queries, times[1] / 1000.0 / queries,
+					times[2] / 1000.0 / queries, (double) times[2] / single, (double) returned / queries);
+		}
+	}
+
+	/**
+	 * <b>Query</b> holds what the spur searches of one query share: the
+	 * lower bounds to the destination, the latest times and the masks.
+	 */
+	private class Query {
+
+		private int target;
+
+		/** The encoded time the query leaves */
+		private int departure;
+
+		/** The least minutes from every airport to target, MAX_VALUE if it cannot reach it */
+		private int[] bounds;
+
+		/**
+		 * The latest time the traveler may be at every airport and still
+		 * reach target by the deadline, MIN_VALUE if there is none
+		 */
+		private int[] latest;
+
+		/** True if an airport has been left out for missing the deadline */
+		private boolean cut;
+
+		/** An airport or edge is masked while its entry equals stamp, which starts past 0 */
+		private int[] bannedNodes;
+		private int[] bannedEdges;
+		private int stamp;
+
+		/**
+		 * Constructs a new Query, growing the reverse tree of bounds
+		 * from target
+		 *
+		 * @param target The id of the destination airport
+		 * @param departure The encoded time the query leaves
+		 * @effects constructs a new Query with nothing masked
+		 */
+		private Query(int target, int departure) {
+			int n = graph.nodeCount();
+			this.target = target;
+			this.departure = departure;
+			this.bounds = new int[n];
+			this.bannedNodes = new int[n];
+			this.bannedEdges = new int[graph.edgeCount()];
+			this.stamp = 1;
+			this.latest = new int[n];
+			Arrays.fill(latest, Integer.MAX_VALUE);
+
+			Arrays.fill(bounds, Integer.MAX_VALUE);
+			bounds[target] = 0;
+			IndexedHeap heap = new IndexedHeap(n);
+			heap.push(target, 0);
+			int v;
+			while ((v = heap.poll()) >= 0) {
+				for (int r = reverseOffsets[v]; r < reverseOffsets[v + 1]; r++) {
+					int e = reverseEdges[r];
+					int u = sources[e];
+					if (bounds[v] + shortest[e] < bounds[u]) {
+						bounds[u] = bounds[v] + shortest[e];
+						heap.push(u, bounds[u]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Grows the reverse tree of latest departures from target for
+		 * the given deadline. Every itinerary arriving by the deadline
+		 * passes through airports no later than their latest time, so
+		 * spur searches leave out every airport reached later.
+		 *
+		 * @param deadline The encoded arrival to meet
+		 * @modifies this
+		 * @effects sets latest for deadline and clears cut
+		 */
+		private void deadline(int deadline) {
+			int n = graph.nodeCount();
+			Arrays.fill(latest, Integer.MIN_VALUE);
+			latest[target] = deadline;
+			cut = false;
+			IndexedHeap heap = new IndexedHeap(n);
+			heap.push(target, -deadline);
+			int v;
+			while ((v = heap.poll()) >= 0) {
+				// nothing leaves before the query does, so the rest is of no use
+				if (latest[v] < departure) break;
+				for (int r = reverseOffsets[v]; r < reverseOffsets[v + 1]; r++) {
+					int e = reverseEdges[r];
+					int u = sources[e];
+					int leaves = latestDeparture(e, latest[v]);
+					if (leaves > latest[u]) {
+						latest[u] = leaves;
+						heap.push(u, -leaves);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the latest departure along the given edge of a flight
+		 * that lands by the given time
+		 *
+		 * @param edge The index of the edge
+		 * @param time The encoded time to land by
+		 * @return the encoded departure, MIN_VALUE if no flight lands by time
+		 */
+		private int latestDeparture(int edge, int time) {
+			// flights leave in order but may overtake each other, so the
+			// search walks back from the last one leaving by time
+			int low = graph.flightsStart(edge);
+			int high = graph.flightsEnd(edge);
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (graph.departure(mid) <= time) low = mid + 1;
+				else high = mid;
+			}
+			for (int f = low - 1; f >= graph.flightsStart(edge); f--) {
+				if (graph.arrival(f) <= time) return graph.departure(f);
+			}
+			return Integer.MIN_VALUE;
+		}
+
+		/**
+		 * Finds the earliest arriving way from spur to target that
+		 * avoids the masked airports and edges, and joins it to the
+		 * first legs of root
+		 *
+		 * @param root The itinerary the candidate leaves, null for none
+		 * @param legs The number of legs of root to keep
+		 * @param spur The id of the airport the candidate leaves root at
+		 * @param time The encoded time the traveler is at spur
+		 * @param state The labels to fill
+		 * @param limit The latest arrival in minutes worth finding
+		 * @modifies state
+		 * @return the candidate, null if target cannot be reached by limit
+		 */
+		private Itinerary spur(Itinerary root, int legs, int spur, int time, SearchState state, int limit) {
+			if (bounds[spur] == Integer.MAX_VALUE) return null;
+			state.reset(graph.nodeCount());
+			state.reach(spur, time, -1, -1);
+			state.push(spur, Timetable.minutes(time) + bounds[spur]);
+
+			int node;
+			while ((node = state.poll()) >= 0) {
+				int arrival = state.arrival(node);
+				// the bounds are consistent, so no later airport does better
+				if (Timetable.minutes(arrival) + bounds[node] > limit) return null;
+				if (node == target) return new Itinerary(root, legs, spur, target, state);
+
+				int minutes = Timetable.minutes(arrival);
+				for (int e = graph.edgesStart(node); e < graph.edgesEnd(node); e++) {
+					int next = graph.target(e);
+					if (bannedEdges[e] == stamp || bannedNodes[next] == stamp) continue;
+					// no flight along e can beat the limit or the deadline,
+					// which is known without looking any flight up
+					if (minutes + shortest[e] + (long) bounds[next] > limit || arrival > latest[next]) {
+						cut |= arrival > latest[next];
+						continue;
+					}
+					state.relaxed();
+					int flight = graph.earliest(e, arrival);
+					if (flight < 0 || graph.arrival(flight) >= state.arrival(next)) continue;
+
+					if (graph.arrival(flight) > latest[next]) {
+						cut = true;
+						continue;
+					}
+
+					state.reach(next, graph.arrival(flight), node, flight);
+					state.push(next, Timetable.minutes(graph.arrival(flight)) + bounds[next]);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * <b>Itinerary</b> is a sequence of airports with the earliest
+	 * arrival at each. Itineraries are equal if their airports are.
+	 */
+	private static class Itinerary implements Comparable<Itinerary> {
+
+		private int[] airports;
+
+		/** arrivals[i] is the time the traveler is at airports[i] */
+		private int[] arrivals;
+
+		/** The index of the airport this itinerary left its root at */
+		private int deviation;
+
+		/**
+		 * Constructs a new Itinerary from the first legs of root followed
+		 * by the path from spur to target in state
+		 *
+		 * @param root The itinerary to keep the start of, null for none
+		 * @param legs The number of legs of root to keep
+		 * @param spur The id of the airport the search started at
+		 * @param target The id of the destination airport
+		 * @param state The labels of a search that reached target
+		 * @effects constructs a new Itinerary
+		 */
+		private Itinerary(Itinerary root, int legs, int spur, int target, SearchState state) {
+			int tail = 0;
+			for (int node = target; node != spur; node = state.parent(node)) tail++;
+			this.airports = new int[legs + tail + 1];
+			this.arrivals = new int[legs + tail + 1];
+			this.deviation = legs;
+			if (root != null) {
+				System.arraycopy(root.airports, 0, airports, 0, legs + 1);
+				System.arraycopy(root.arrivals, 0, arrivals, 0, legs + 1);
+			}
+			int i = airports.length - 1;
+			for (int node = target; i >= legs; node = state.parent(node), i--) {
+				airports[i] = node;
+				arrivals[i] = state.arrival(node);
+			}
+		}
+
+		/**
+		 * Returns the number of legs
+		 *
+		 * @return the number of flights taken
+		 */
+		private int legs() {
+			return airports.length - 1;
+		}
+
+		/**
+		 * Returns the arrival at the destination
+		 *
+		 * @return the encoded arrival
+		 */
+		private int arrival() {
+			return arrivals[arrivals.length - 1];
+		}
+
+		/**
+		 * Returns true if this itinerary starts with the same legs
+		 * airports as other
+		 *
+		 * @param other The other itinerary
+		 * @param legs The number of legs to compare
+		 * @return true if the first legs + 1 airports are the same
+		 */
+		private boolean sharesRoot(Itinerary other, int legs) {
+			return Arrays.equals(airports, 0, legs + 1, other.airports, 0, legs + 1);
+		}
+
+		@Override
+		public int compareTo(Itinerary other) {
+			if (arrival() != other.arrival()) return Integer.compare(arrival(), other.arrival());
+			if (legs() != other.legs()) return Integer.compare(legs(), other.legs());
+			return Arrays.compare(airports, other.airports);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Itinerary && Arrays.equals(airports, ((Itinerary) other).airports);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(airports);
+		}
+	}
+}
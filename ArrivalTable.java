@@ -0,0 +1,325 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <b>ArrivalTable</b> holds the answer to every query between two
+ * airports for a fixed set of departure times, the slots. For each
+ * slot it stores a dense airport x airport table of the earliest
+ * arrival and of the airport the last leg leaves from, so a query at
+ * a slot is a lookup plus a walk back along the predecessors.
+ * Queries at any other time are passed on to a CompactDijkstra over
+ * the same graph.
+ * <p>
+ * The table is filled by one single-source search per origin and
+ * slot, spread over a fork/join pool. It can be saved to disk and
+ * mapped back in place, like a Snapshot.
+ * <p>
+ * Layout, all ints little-endian:
+ * <pre>
+ *   MAGIC, VERSION, airports, connections, slots
+ *   slot departure times (slots)
+ *   arrivals (slots * airports * airports)
+ *   predecessors (slots * airports * airports)
+ * </pre>
+ */
+public class ArrivalTable implements Router {
+
+	/** "FSAT" */
+	private static final int MAGIC = 0x46534154;
+
+	/** Bumped whenever the layout changes */
+	private static final int VERSION = 1;
+
+	private static final int HEADER_INTS = 5;
+
+	/** The number of rows a worker fills without splitting further */
+	private static final int GRAIN = 8;
+
+	/** The most cells a column may hold: the largest int[] a JVM allocates */
+	private static final long MAX_CELLS = Integer.MAX_VALUE - 8;
+
+	private CompactGraph graph;
+	private CompactDijkstra fallback;
+	private int[] slots;
+	private IntBuffer arrivals;
+	private IntBuffer predecessors;
+	private Node<String, Integer>[] nodes;
+
+	// Abstraction Function:
+	// AF(this) = for every slot s, origin o and destination d,
+	//			  arrivals[(s * n + o) * n + d] is the earliest arrival at d
+	//			  leaving o no earlier than slots[s], Integer.MAX_VALUE if d
+	//			  cannot be reached, and predecessors at the same index is
+	//			  the airport the last leg to d leaves from, -1 if none;
+	//			  where n = graph.nodeCount()
+	// Representation Invariant = slots is sorted without duplicates and
+	//			  arrivals and predecessors both hold slots.length * n * n ints
+
+	/**
+	 * Constructs a new ArrivalTable
+	 *
+	 * @param graph The graph the table was computed over
+	 * @param slots The departure times of the table, sorted
+	 * @param arrivals The earliest arrival columns
+	 * @param predecessors The predecessor columns
+	 * @effects constructs a new ArrivalTable
+	 */
+	@SuppressWarnings("unchecked")
+	private ArrivalTable(CompactGraph graph, int[] slots, IntBuffer arrivals, IntBuffer predecessors) {
+		this.graph = graph;
+		this.fallback = new CompactDijkstra(graph);
+		this.slots = slots;
+		this.arrivals = arrivals;
+		this.predecessors = predecessors;
+		this.nodes = (Node<String, Integer>[]) new Node<?, ?>[graph.nodeCount()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new Node<>(graph.label(i));
+		}
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds
+	 */
+	private void checkRep() {
+		for (int i = 1; i < slots.length; i++) {
+			assert slots[i - 1] < slots[i] : "slots must be sorted";
+		}
+		long cells = (long) slots.length * graph.nodeCount() * graph.nodeCount();
+		assert arrivals.limit() == cells && predecessors.limit() == cells;
+	}
+
+	/**
+	 * Computes the table for the given departure times
+	 *
+	 * @param graph The graph to search through
+	 * @param slots The departure times to answer by lookup
+	 * @param threads The number of threads to search with
+	 * @return the filled table
+	 * @throws IllegalArgumentException if the table for so many slots and
+	 * 		   airports has more cells than an array can hold
+	 */
+	public static ArrivalTable build(CompactGraph graph, int[] slots, int threads) {
+		int[] sorted = Arrays.stream(slots).sorted().distinct().toArray();
+		int n = graph.nodeCount();
+		long cells = (long) sorted.length * n * n;
+		if (cells > MAX_CELLS)
+			throw new IllegalArgumentException(sorted.length + " slots of " + n + " x " + n + " airports need " + cells
+					+ " cells, more than the " + MAX_CELLS + " an array holds; use fewer slots");
+		// every index below is less than cells, so int arithmetic is exact
+		int[] arrivals = new int[(int) cells];
+		int[] predecessors = new int[arrivals.length];
+
+		CompactDijkstra search = new CompactDijkstra(graph);
+		ThreadLocal<SearchState> states = ThreadLocal.withInitial(() -> new SearchState(n));
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new RangeTask(0, sorted.length * n, GRAIN, row -> {
+				int origin = row % n;
+				SearchState state = states.get();
+				search.searchAll(origin, sorted[row / n], state);
+				for (int to = 0; to < n; to++) {
+					arrivals[row * n + to] = state.arrival(to);
+					predecessors[row * n + to] = state.arrival(to) == Integer.MAX_VALUE ? -1 : state.parent(to);
+				}
+			}));
+		} finally {
+			pool.shutdown();
+		}
+		return new ArrivalTable(graph, sorted, IntBuffer.wrap(arrivals), IntBuffer.wrap(predecessors));
+	}
+
+	/**
+	 * Returns midnight of every day the given timetable has flights
+	 * on, preceded by 0, the departure used when a query names no time
+	 *
+	 * @param timetable The timetable to take the days from
+	 * @return the default slots for timetable
+	 */
+	public static int[] midnights(Timetable timetable) {
+		if (timetable.size() == 0) return new int[] { 0 };
+		int first = timetable.departure(0) / 10000;
+		int last = timetable.departure(timetable.size() - 1) / 10000;
+		int[] slots = new int[last - first + 2];
+		for (int day = first; day <= last; day++) {
+			slots[day - first + 1] = Timetable.timestamp(day, 0);
+		}
+		return slots;
+	}
+
+	/**
+	 * Returns the departure times answered by lookup
+	 *
+	 * @return a copy of the slots of this table, sorted
+	 */
+	public int[] slots() {
+		return slots.clone();
+	}
+
+	/**
+	 * Returns the earliest arrival from from to to leaving at the
+	 * given slot
+	 *
+	 * @param slot The index of the departure time in slots()
+	 * @param from The id of the starting airport
+	 * @param to The id of the destination airport
+	 * @return the earliest arrival, Integer.MAX_VALUE if to cannot be
+	 * 		   reached
+	 */
+	public int arrival(int slot, int from, int to) {
+		return arrivals.get(cell(slot, from, to));
+	}
+
+	/**
+	 * Finds the itinerary from from to to that leaves no earlier than
+	 * departure and arrives as early as possible, by lookup if
+	 * departure is one of the slots of this table. Returns null if no
+	 * itinerary exists
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state The labels to reuse when departure is not a slot
+	 * @modifies state
+	 * @return the earliest arriving path, null if no path exists
+	 */
+	@Override
+	public Path<String> findPath(String from, String to, int departure, SearchState state) {
+		int slot = Arrays.binarySearch(slots, departure);
+		if (slot < 0) return fallback.findPath(from, to, departure, state);
+
+		int source = graph.id(from);
+		int target = graph.id(to);
+		if (source < 0 || target < 0) return null;
+		if (arrival(slot, source, target) == Integer.MAX_VALUE) return null;
+
+		List<Edge<String, Integer>> edges = new ArrayList<>();
+		for (int node = target; node != source; ) {
+			int parent = predecessors.get(cell(slot, source, node));
+			edges.add(new Edge<>(arrival(slot, source, node), nodes[parent], nodes[node]));
+			node = parent;
+		}
+		Collections.reverse(edges);
+		return new Path<>(from, to, edges);
+	}
+
+	/**
+	 * Returns the index of the given cell in the columns
+	 *
+	 * @param slot The index of the departure time
+	 * @param from The id of the starting airport
+	 * @param to The id of the destination airport
+	 * @return the index of the cell
+	 */
+	private int cell(int slot, int from, int to) {
+		int n = nodes.length;
+		return (slot * n + from) * n + to;
+	}
+
+	/**
+	 * Writes this table to file
+	 *
+	 * @param filename The file to write, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(String filename) throws IOException {
+		try (FileChannel out = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(graph.nodeCount()).putInt(graph.flightCount())
+					.putInt(slots.length);
+			buffer = write(out, buffer, IntBuffer.wrap(slots));
+			buffer = write(out, buffer, arrivals);
+			buffer = write(out, buffer, predecessors);
+			buffer.flip();
+			while (buffer.hasRemaining()) out.write(buffer);
+		}
+	}
+
+	/**
+	 * Appends every int of column to the file through buffer
+	 *
+	 * @param out The file being written
+	 * @param buffer The write buffer
+	 * @param column The ints to append
+	 * @return the write buffer
+	 * @throws IOException if the file cannot be written
+	 */
+	private static ByteBuffer write(FileChannel out, ByteBuffer buffer, IntBuffer column) throws IOException {
+		for (int i = 0; i < column.limit(); i++) {
+			if (buffer.remaining() < 4) {
+				buffer.flip();
+				while (buffer.hasRemaining()) out.write(buffer);
+				buffer.clear();
+			}
+			buffer.putInt(column.get(i));
+		}
+		return buffer;
+	}
+
+	/**
+	 * Maps a table written by save back into memory
+	 *
+	 * @param filename The table to load
+	 * @param graph The graph the table was computed over
+	 * @return the mapped table
+	 * @throws IOException if the file cannot be read, was written by
+	 * 		   another version or for another timetable
+	 */
+	public static ArrivalTable load(String filename, CompactGraph graph) throws IOException {
+		MappedByteBuffer map;
+		try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			if (in.size() > Integer.MAX_VALUE)
+				throw new IOException("table larger than 2 GB: " + filename);
+			map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer ints = map.asIntBuffer();
+		if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC)
+			throw new IOException("not an arrival table: " + filename);
+		if (ints.get(1) != VERSION)
+			throw new IOException("table version " + ints.get(1) + " but expected " + VERSION + ": " + filename);
+		if (ints.get(2) != graph.nodeCount() || ints.get(3) != graph.flightCount())
+			throw new IOException("table was computed for another timetable: " + filename);
+
+		int n = graph.nodeCount();
+		int[] slots = new int[ints.get(4)];
+		ints.get(HEADER_INTS, slots);
+		long cells = (long) slots.length * n * n;
+		if (HEADER_INTS + slots.length + 2 * cells != ints.limit())
+			throw new IOException("truncated or corrupt table: " + filename);
+		int position = HEADER_INTS + slots.length;
+		return new ArrivalTable(graph, slots, ints.slice(position, (int) cells),
+				ints.slice(position + (int) cells, (int) cells));
+	}
+
+	/**
+	 * Computes the table for the midnights of a snapshot and saves it
+	 *
+	 * @param args The snapshot to read, results.snap by default, and the
+	 * 		  table to write, results.table by default
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		Snapshot snapshot = Snapshot.load(args.length > 0 ? args[0] : "results.snap");
+		String filename = args.length > 1 ? args[1] : "results.table";
+		long start = System.nanoTime();
+		int[] slots = midnights(snapshot.timetable());
+		ArrivalTable table = build(snapshot.graph(), slots, Runtime.getRuntime().availableProcessors());
+		table.save(filename);
+		System.out.println("wrote " + slots.length + " slots for " + snapshot.graph().nodeCount() + " airports to "
+				+ filename + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+}
@@ -0,0 +1,171 @@
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <b>Batch</b> answers a stream of queries on a work-stealing pool.
+ * Every worker shares the same router, which is only ever read, and
+ * keeps one SearchState of its own that it reuses for every query it
+ * answers. Queries are read in blocks; each block is split among the
+ * workers and its answers are written in input order once the whole
+ * block is done, so the output does not depend on the number of
+ * threads.
+ * <p>
+ * Queries use the same syntax as the interactive prompt, one per
+ * line: "FROM TO [DAY:HHMM]". Each answer repeats the query line and
+ * is followed by one line per leg, or by "no path found".
+ */
+public class Batch {
+
+	/** The number of queries read before the pool is put to work */
+	private static final int BLOCK = 4096;
+
+	/** The number of queries a worker answers without splitting further */
+	private static final int GRAIN = 64;
+
+	private Router router;
+	private Timetable timetable;
+	private ForkJoinPool pool;
+	private ThreadLocal<SearchState> states;
+
+	/**
+	 * Constructs a new Batch
+	 *
+	 * @param router The engine every query is answered by; it must be
+	 * 		  safe to use from several threads with separate states
+	 * @param timetable The timetable queries are checked against
+	 * @param threads The number of workers
+	 * @effects constructs a new Batch with its own pool of threads workers
+	 */
+	public Batch(Router router, Timetable timetable, int threads) {
+		this.router = router;
+		this.timetable = timetable;
+		this.pool = new ForkJoinPool(Math.max(1, threads));
+		this.states = ThreadLocal.withInitial(() -> new SearchState(timetable.airportCount()));
+	}
+
+	/**
+	 * Answers every query read from in and writes the answers to out
+	 * in the order the queries were read. Blank lines are skipped.
+	 *
+	 * @param in The queries, one per line
+	 * @param out Where the answers are written; it is flushed but not closed
+	 * @return the number of queries answered
+	 * @throws IOException if in cannot be read or out cannot be written
+	 */
+	public int run(BufferedReader in, Writer out) throws IOException {
+		String[] lines = new String[BLOCK];
+		String[] answers = new String[BLOCK];
+		int total = 0;
+		int count;
+		do {
+			count = 0;
+			String line;
+			while (count < BLOCK && (line = in.readLine()) != null) {
+				if (!line.isBlank()) lines[count++] = line.trim();
+			}
+			pool.invoke(new Queries(lines, answers, 0, count));
+			for (int i = 0; i < count; i++) {
+				out.write(answers[i]);
+			}
+			total += count;
+		} while (count == BLOCK);
+		out.flush();
+		return total;
+	}
+
+	/**
+	 * Stops the workers of this batch
+	 *
+	 * @modifies this
+	 * @effects no further queries can be answered
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Answers a single query line
+	 *
+	 * @param line The query, "FROM TO [DAY:HHMM]"
+	 * @param state The labels to search with
+	 * @modifies state
+	 * @return the query line followed by its answer, each line ending
+	 * 		   with a line feed
+	 */
+	private String answer(String line, SearchState state) {
+		StringBuilder answer = new StringBuilder(line).append('\n');
+		String[] tokens = line.split("\\s+");
+		int departure;
+		try {
+			if (tokens.length < 2) throw new IllegalArgumentException();
+			departure = tokens.length > 2 ? Timetable.parseTime(tokens[2]) : 0;
+		} catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+			return answer.append("malformed query\n").toString();
+		}
+		for (int i = 0; i < 2; i++) {
+			if (timetable.id(tokens[i]) < 0)
+				return answer.append("unknown airport ").append(tokens[i]).append('\n').toString();
+		}
+
+		Path<String> path = router.findPath(tokens[0], tokens[1], departure, state);
+		if (path == null) return answer.append("no path found\n").toString();
+		for (Edge<String, Integer> edge : path.edges()) {
+			answer.append(Program.leg(edge)).append('\n');
+		}
+		return answer.toString();
+	}
+
+	/**
+	 * <b>Queries</b> answers a range of a block, splitting it in half
+	 * until it is small enough for one worker.
+	 */
+	private class Queries extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String[] lines;
+		private final String[] answers;
+		private final int start;
+		private final int end;
+
+		/**
+		 * Constructs a new Queries
+		 *
+		 * @param lines The queries of the block
+		 * @param answers Where the answer to lines[i] is stored
+		 * @param start The first query of the range
+		 * @param end One past the last query of the range
+		 * @effects constructs a new Queries over lines[start..end)
+		 */
+		private Queries(String[] lines, String[] answers, int start, int end) {
+			this.lines = lines;
+			this.answers = answers;
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * Answers every query of the range
+		 *
+		 * @modifies answers
+		 * @effects answers[i] holds the answer to lines[i] for every
+		 * 			i in the range
+		 */
+		@Override
+		protected void compute() {
+			if (end - start <= GRAIN) {
+				SearchState state = states.get();
+				for (int i = start; i < end; i++) {
+					answers[i] = answer(lines[i], state);
+				}
+				return;
+			}
+			int middle = (start + end) >>> 1;
+			invokeAll(new Queries(lines, answers, start, middle), new Queries(lines, answers, middle, end));
+		}
+	}
+}
@@ -0,0 +1,264 @@
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <b>CompactDijkstra</b> answers earliest-arrival queries with a
+ * label-setting search over a CompactGraph. Tentative arrivals and
+ * the frontier live in a SearchState indexed by airport id, so a
+ * query touches no objects until the final path is built.
+ * <p>
+ * The same search answers reachability: a sweep from one airport that
+ * stops at a deadline settles every airport reachable by then, in
+ * order of arrival, at the cost of at most one search.
+ */
+public class CompactDijkstra implements Router {
+
+	/** The number of origins a worker sweeps without splitting further */
+	private static final int GRAIN = 4;
+
+	private CompactGraph graph;
+
+	/**
+	 * Constructs a new CompactDijkstra
+	 *
+	 * @param graph The graph to search through
+	 * @effects constructs a new CompactDijkstra over graph
+	 */
+	public CompactDijkstra(CompactGraph graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Finds the itinerary from from to to that leaves no earlier than
+	 * departure and arrives as early as possible. Returns null if no
+	 * itinerary exists
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state The labels to reuse
+	 * @modifies state
+	 * @return the earliest arriving path, null if no path exists
+	 */
+	@Override
+	public Path<String> findPath(String from, String to, int departure, SearchState state) {
+		int source = graph.id(from);
+		int target = graph.id(to);
+		if (source < 0 || target < 0) return null;
+
+		if (search(source, target, departure, Integer.MAX_VALUE, state)) return buildPath(from, to, source, target, state);
+		return null;
+	}
+
+	/**
+	 * Finds the earliest arrival at every airport for a traveler
+	 * leaving source no earlier than departure
+	 *
+	 * @param source The id of the starting airport
+	 * @param departure The earliest encoded time the traveler may leave
+	 * @param state The labels to fill
+	 * @modifies state
+	 * @effects state.arrival(n) is the earliest arrival at n and
+	 * 			state.parent(n) the airport it is reached from, for
+	 * 			every airport n reachable from source
+	 */
+	public void searchAll(int source, int departure, SearchState state) {
+		search(source, -1, departure, Integer.MAX_VALUE, state);
+	}
+
+	/**
+	 * Finds every airport a traveler leaving source no earlier than
+	 * departure can reach by deadline, in one sweep
+	 *
+	 * @param source The id of the starting airport
+	 * @param departure The earliest encoded time the traveler may leave
+	 * @param deadline The latest encoded arrival that counts
+	 * @param state The labels to fill
+	 * @modifies state
+	 * @return the ids of the reachable airports, source among them
+	 * 		   unless departure is past deadline
+	 * @effects state.arrival(n) is the earliest arrival at n and
+	 * 			state.parent(n) the airport it is reached from, for
+	 * 			every airport n in the result
+	 */
+	public BitSet reachable(int source, int departure, int deadline, SearchState state) {
+		BitSet reached = new BitSet(graph.nodeCount());
+		if (departure > deadline) {
+			state.reset(graph.nodeCount());
+			return reached;
+		}
+		search(source, -1, departure, deadline, state);
+		for (int node = 0; node < graph.nodeCount(); node++) {
+			if (state.arrival(node) != Integer.MAX_VALUE) reached.set(node);
+		}
+		return reached;
+	}
+
+	/**
+	 * Finds every airport reachable by deadline from each of the
+	 * given airports, sweeping from the origins on several threads
+	 *
+	 * @param sources The ids of the starting airports
+	 * @param departure The earliest encoded time the travelers may leave
+	 * @param deadline The latest encoded arrival that counts
+	 * @param threads The number of threads to sweep with
+	 * @return the reachable airports of sources[i] at index i
+	 */
+	public BitSet[] reachable(int[] sources, int departure, int deadline, int threads) {
+		BitSet[] reached = new BitSet[sources.length];
+		ThreadLocal<SearchState> states = ThreadLocal.withInitial(() -> new SearchState(graph.nodeCount()));
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new RangeTask(0, sources.length, GRAIN,
+					i -> reached[i] = reachable(sources[i], departure, deadline, states.get())));
+		} finally {
+			pool.shutdown();
+		}
+		return reached;
+	}
+
+	/**
+	 * Settles airports in order of arrival until target is settled,
+	 * or until every airport reachable by deadline is if target is -1
+	 *
+	 * @param source The id of the starting airport
+	 * @param target The id of the destination airport, -1 for none
+	 * @param departure The earliest encoded time the traveler may leave
+	 * @param deadline The latest encoded arrival to reach airports by
+	 * @param state The labels to fill
+	 * @modifies state
+	 * @return true if target was reached
+	 */
+	private boolean search(int source, int target, int departure, int deadline, SearchState state) {
+		state.reset(graph.nodeCount());
+		state.reach(source, departure, -1, -1);
+		state.push(source);
+
+		int node;
+		while ((node = state.poll()) >= 0) {
+			if (node == target) return true;
+
+			int time = state.arrival(node);
+			for (int e = graph.edgesStart(node); e < graph.edgesEnd(node); e++) {
+				state.relaxed();
+				int next = graph.target(e);
+				int flight = graph.earliest(e, time);
+				if (flight < 0 || graph.arrival(flight) >= state.arrival(next) || graph.arrival(flight) > deadline)
+					continue;
+
+				state.reach(next, graph.arrival(flight), node, flight);
+				state.push(next);
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Walks the parent pointers back from target to source and
+	 * turns the flights taken into a path
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param source The id of the starting airport
+	 * @param target The id of the destination airport
+	 * @param state The labels of the finished search
+	 * @return the path from source to target
+	 */
+	private Path<String> buildPath(String from, String to, int source, int target, SearchState state) {
+		Map<Integer, Node<String, Integer>> nodes = new HashMap<>();
+		List<Edge<String, Integer>> edges = new ArrayList<>();
+		for (int node = target; node != source; node = state.parent(node)) {
+			edges.add(new Edge<>(graph.arrival(state.via(node)), node(nodes, state.parent(node)), node(nodes, node)));
+		}
+		Collections.reverse(edges);
+		return new Path<>(from, to, edges);
+	}
+
+	/**
+	 * Returns the path node for the given airport, creating it
+	 * the first time it is asked for
+	 *
+	 * @param nodes The nodes created so far, keyed by airport id
+	 * @param id The id of the airport
+	 * @return the node for airport id
+	 */
+	private Node<String, Integer> node(Map<Integer, Node<String, Integer>> nodes, int id) {
+		Node<String, Integer> node = nodes.get(id);
+		if (node == null) {
+			node = new Node<>(graph.label(id));
+			nodes.put(id, node);
+		}
+		return node;
+	}
+
+	/**
+	 * Prints how long a reachability sweep takes next to one search
+	 * per destination, and how long sweeping from every airport takes
+	 * on one thread and on every core
+	 *
+	 * @param args Optional snapshot to load, results.snap by default,
+	 * 		  and number of sweeps, 2000 by default
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		CompactGraph graph = Snapshot.load(args.length > 0 ? args[0] : "results.snap").graph();
+		int sweeps = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		CompactDijkstra search = new CompactDijkstra(graph);
+		SearchState state = new SearchState(graph.nodeCount());
+		int n = graph.nodeCount();
+		int[] origins = new int[n];
+		for (int i = 0; i < n; i++) {
+			origins[i] = i;
+		}
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		for (int round = 0; round < 2; round++) {
+			// the first round only warms up
+			Random random = new Random(20010911);
+			long sweep = 0;
+			long searches = 0;
+			long reached = 0;
+			for (int q = 0; q < sweeps; q++) {
+				int from = random.nextInt(n);
+				int departure = Timetable.timestamp(12 + random.nextInt(4), random.nextInt(24) * 100);
+				int deadline = Timetable.fromMinutes(Timetable.minutes(departure) + 12 * 60);
+				long start = System.nanoTime();
+				BitSet reachable = search.reachable(from, departure, deadline, state);
+				sweep += System.nanoTime() - start;
+				reached += reachable.cardinality();
+
+				// the way to answer the same question without a sweep
+				start = System.nanoTime();
+				for (int to = 0; to < n; to++) {
+					Path<String> path = search.findPath(graph.label(from), graph.label(to), departure, state);
+					boolean found = path != null && (path.edges().isEmpty() || path.time() <= deadline);
+					assert found == reachable.get(to) : "the sweep must agree with the searches";
+				}
+				searches += System.nanoTime() - start;
+			}
+
+			int departure = Timetable.timestamp(14, 600);
+			int deadline = Timetable.timestamp(14, 1800);
+			long start = System.nanoTime();
+			search.reachable(origins, departure, deadline, 1);
+			long one = System.nanoTime() - start;
+			start = System.nanoTime();
+			search.reachable(origins, departure, deadline, cores);
+			long all = System.nanoTime() - start;
+			if (round == 0) continue;
+			System.out.printf("sweep %.1f us, %.1f airports reached in 12 hours; one search per airport %.1f us "
+					+ "(%.0fx)%n", sweep / 1000.0 / sweeps, (double) reached / sweeps, searches / 1000.0 / sweeps,
+					(double) searches / sweep);
+			System.out.printf("every origin, 14th 0600 to 1800: %.1f ms on 1 thread, %.1f ms on %d%n", one / 1e6,
+					all / 1e6, cores);
+		}
+	}
+}
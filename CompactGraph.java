@@ -0,0 +1,345 @@
+
+import java.nio.IntBuffer;
+
+/**
+ * <b>CompactGraph</b> is an immutable flight graph laid out in
+ * compressed sparse row form. Airports are dense int ids, the edges
+ * leaving airport u are the index range [edgesStart(u), edgesEnd(u))
+ * and the flights along edge e are the index range
+ * [flightsStart(e), flightsEnd(e)). Every range points into flat int
+ * arrays, so a search walks contiguous memory and never boxes.
+ * <p>
+ * Airport ids are the ids of the timetable the graph was built from.
+ * Times are encoded as DAY_OF_MONTH * 10000 + HHMM.
+ */
+public class CompactGraph {
+
+	private final Timetable timetable;
+
+	/*
+	 * The columns wrap heap arrays when built from a timetable and
+	 * mapped memory when loaded from a snapshot.
+	 */
+
+	/** edgeOffsets[u] is the first edge leaving u, edgeOffsets[n] == edgeCount() */
+	private final IntBuffer edgeOffsets;
+	private final IntBuffer targets;
+
+	/** The earliest arrival along each edge, the label of the edge in Graph */
+	private final IntBuffer weights;
+
+	/** flightOffsets[e] is the first flight along e */
+	private final IntBuffer flightOffsets;
+	private final IntBuffer departures;
+	private final IntBuffer arrivals;
+
+	/**
+	 * earliest[f] is the flight with the earliest arrival among the
+	 * flights from f to the end of its edge's range
+	 */
+	private final IntBuffer earliest;
+
+	// AF(this) = airport u has an edge to targets[e] for every e in
+	//			  [edgeOffsets[u], edgeOffsets[u+1]), and edge e is flown by
+	//			  every flight f in [flightOffsets[e], flightOffsets[e+1])
+	// Representation Invariant = edgeOffsets and flightOffsets are non-decreasing,
+	//		targets is sorted ascending within each airport's range,
+	//		departures is sorted ascending within each edge's range,
+	//		weights[e] is the least arrival within each edge's range
+
+	/**
+	 * Constructs a new CompactGraph holding every flight of the
+	 * given timetable, one edge per pair of airports with flights
+	 *
+	 * @param timetable The flights to build the graph from
+	 * @effects constructs a new CompactGraph
+	 */
+	public CompactGraph(Timetable timetable) {
+		this.timetable = timetable;
+		int nodes = timetable.airportCount();
+		int flights = timetable.size();
+		int[] order = timetable.pairOrder();
+
+		int edges = 0;
+		for (int i = 0; i < flights; i++) {
+			if (i == 0 || !samePair(order[i - 1], order[i])) edges++;
+		}
+
+		int[] edgeOffsets = new int[nodes + 1];
+		int[] targets = new int[edges];
+		int[] weights = new int[edges];
+		int[] flightOffsets = new int[edges + 1];
+		int[] departures = new int[flights];
+		int[] arrivals = new int[flights];
+		int[] earliest = new int[flights];
+
+		int e = -1;
+		for (int i = 0; i < flights; i++) {
+			int c = order[i];
+			if (i == 0 || !samePair(order[i - 1], c)) {
+				e++;
+				edgeOffsets[timetable.origin(c) + 1]++;
+				targets[e] = timetable.destination(c);
+				weights[e] = Integer.MAX_VALUE;
+				flightOffsets[e] = i;
+			}
+			departures[i] = timetable.departure(c);
+			arrivals[i] = timetable.arrival(c);
+			weights[e] = Math.min(weights[e], arrivals[i]);
+		}
+		flightOffsets[edges] = flights;
+		for (int u = 0; u < nodes; u++) {
+			edgeOffsets[u + 1] += edgeOffsets[u];
+		}
+
+		for (int edge = 0; edge < edges; edge++) {
+			int last = flightOffsets[edge + 1] - 1;
+			for (int f = last; f >= flightOffsets[edge]; f--) {
+				if (f == last || arrivals[f] < arrivals[earliest[f + 1]]) earliest[f] = f;
+				else earliest[f] = earliest[f + 1];
+			}
+		}
+
+		this.edgeOffsets = IntBuffer.wrap(edgeOffsets);
+		this.targets = IntBuffer.wrap(targets);
+		this.weights = IntBuffer.wrap(weights);
+		this.flightOffsets = IntBuffer.wrap(flightOffsets);
+		this.departures = IntBuffer.wrap(departures);
+		this.arrivals = IntBuffer.wrap(arrivals);
+		this.earliest = IntBuffer.wrap(earliest);
+		checkRep();
+	}
+
+	/**
+	 * Constructs a new CompactGraph over already built columns,
+	 * given in the order returned by columns()
+	 *
+	 * @param timetable The timetable whose airport ids the graph uses
+	 * @param columns The seven columns of the graph
+	 * @effects constructs a new CompactGraph
+	 */
+	CompactGraph(Timetable timetable, IntBuffer[] columns) {
+		this.timetable = timetable;
+		this.edgeOffsets = columns[0];
+		this.targets = columns[1];
+		this.weights = columns[2];
+		this.flightOffsets = columns[3];
+		this.departures = columns[4];
+		this.arrivals = columns[5];
+		this.earliest = columns[6];
+		checkRep();
+	}
+
+	/**
+	 * Returns the columns of this graph in the order edge offsets,
+	 * targets, weights, flight offsets, departures, arrivals and
+	 * earliest, for writing a snapshot
+	 *
+	 * @return read-only views of the seven columns
+	 */
+	IntBuffer[] columns() {
+		return new IntBuffer[] { edgeOffsets.asReadOnlyBuffer(), targets.asReadOnlyBuffer(),
+				weights.asReadOnlyBuffer(), flightOffsets.asReadOnlyBuffer(), departures.asReadOnlyBuffer(),
+				arrivals.asReadOnlyBuffer(), earliest.asReadOnlyBuffer() };
+	}
+
+	/**
+	 * Returns true if both connections join the same pair of airports
+	 *
+	 * @param a The index of the first connection
+	 * @param b The index of the second connection
+	 * @return true if a and b share origin and destination
+	 */
+	private boolean samePair(int a, int b) {
+		return timetable.origin(a) == timetable.origin(b)
+				&& timetable.destination(a) == timetable.destination(b);
+	}
+
+	/**
+	 * Checks that the representation invariant holds (if any).
+	 */
+	private void checkRep() {
+		for (int u = 0; u < nodeCount(); u++) {
+			assert (edgeOffsets.get(u) <= edgeOffsets.get(u + 1)) : "edge offsets must not decrease";
+			for (int e = edgeOffsets.get(u) + 1; e < edgeOffsets.get(u + 1); e++) {
+				assert (targets.get(e - 1) < targets.get(e)) : "edges must be sorted by target";
+			}
+		}
+		for (int e = 0; e < edgeCount(); e++) {
+			assert (flightOffsets.get(e) < flightOffsets.get(e + 1)) : "every edge needs a flight";
+			for (int f = flightOffsets.get(e) + 1; f < flightOffsets.get(e + 1); f++) {
+				assert (departures.get(f - 1) <= departures.get(f)) : "flights must be sorted by departure";
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of airports in this graph
+	 *
+	 * @return the number of airports
+	 */
+	public int nodeCount() {
+		return edgeOffsets.limit() - 1;
+	}
+
+	/**
+	 * Returns the number of edges in this graph
+	 *
+	 * @return the number of airport pairs with at least one flight
+	 */
+	public int edgeCount() {
+		return targets.limit();
+	}
+
+	/**
+	 * Returns the number of flights in this graph
+	 *
+	 * @return the number of flights
+	 */
+	public int flightCount() {
+		return departures.limit();
+	}
+
+	/**
+	 * Returns the id of the airport with the given FAA code
+	 *
+	 * @param label The FAA code of the airport
+	 * @return the id of the airport, -1 if it is not in the graph
+	 */
+	public int id(String label) {
+		return timetable.id(label);
+	}
+
+	/**
+	 * Returns the FAA code of the airport with the given id
+	 *
+	 * @param node The id of the airport
+	 * @return the FAA code of the airport
+	 */
+	public String label(int node) {
+		return timetable.airport(node);
+	}
+
+	/**
+	 * Returns the first edge leaving the given airport
+	 *
+	 * @param node The id of the airport
+	 * @return the index of the first edge leaving node
+	 */
+	public int edgesStart(int node) {
+		return edgeOffsets.get(node);
+	}
+
+	/**
+	 * Returns one past the last edge leaving the given airport
+	 *
+	 * @param node The id of the airport
+	 * @return the index after the last edge leaving node
+	 */
+	public int edgesEnd(int node) {
+		return edgeOffsets.get(node + 1);
+	}
+
+	/**
+	 * Returns the airport the given edge ends at
+	 *
+	 * @param edge The index of the edge
+	 * @return the id of the airport edge ends at
+	 */
+	public int target(int edge) {
+		return targets.get(edge);
+	}
+
+	/**
+	 * Returns the edge between two airports
+	 *
+	 * @param from The id of the airport the edge leaves
+	 * @param to The id of the airport the edge ends at
+	 * @return the index of the edge, -1 if there are no flights from
+	 * 		   from to to
+	 */
+	public int edge(int from, int to) {
+		int low = edgeOffsets.get(from);
+		int high = edgeOffsets.get(from + 1) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int target = targets.get(mid);
+			if (target < to) low = mid + 1;
+			else if (target > to) high = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the earliest arrival of any flight along the given edge
+	 *
+	 * @param edge The index of the edge
+	 * @return the earliest encoded arrival along edge
+	 */
+	public int weight(int edge) {
+		return weights.get(edge);
+	}
+
+	/**
+	 * Returns the first flight along the given edge
+	 *
+	 * @param edge The index of the edge
+	 * @return the index of the first flight along edge
+	 */
+	public int flightsStart(int edge) {
+		return flightOffsets.get(edge);
+	}
+
+	/**
+	 * Returns one past the last flight along the given edge
+	 *
+	 * @param edge The index of the edge
+	 * @return the index after the last flight along edge
+	 */
+	public int flightsEnd(int edge) {
+		return flightOffsets.get(edge + 1);
+	}
+
+	/**
+	 * Returns the departure of the given flight
+	 *
+	 * @param flight The index of the flight
+	 * @return the encoded departure time of flight
+	 */
+	public int departure(int flight) {
+		return departures.get(flight);
+	}
+
+	/**
+	 * Returns the arrival of the given flight
+	 *
+	 * @param flight The index of the flight
+	 * @return the encoded arrival time of flight
+	 */
+	public int arrival(int flight) {
+		return arrivals.get(flight);
+	}
+
+	/**
+	 * Returns the flight along the given edge that arrives earliest
+	 * among the flights leaving at or after time
+	 *
+	 * @param edge The index of the edge
+	 * @param time The encoded time
+	 * @return the index of the earliest arriving flight, -1 if no
+	 * 		   flight along edge leaves at or after time
+	 */
+	public int earliest(int edge, int time) {
+		int low = flightOffsets.get(edge);
+		int high = flightOffsets.get(edge + 1);
+		int end = high;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (departures.get(mid) < time) low = mid + 1;
+			else high = mid;
+		}
+		if (low == end) return -1;
+		return earliest.get(low);
+	}
+}
@@ -0,0 +1,105 @@
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <b>ConnectionScan</b> answers earliest-arrival queries with the
+ * Connection Scan Algorithm. Instead of growing paths through a
+ * priority queue it walks the timetable once, in order of departure,
+ * and relaxes every connection that leaves a reachable airport in
+ * time. The scan stops as soon as connections start leaving after
+ * the best known arrival at the destination.
+ * <p>
+ * Paths are built from the nodes of the given graph so that results
+ * can be compared directly with Program.findPath.
+ */
+public class ConnectionScan implements Router {
+
+	private Graph<String, Integer> graph;
+	private Timetable timetable;
+
+	/**
+	 * Constructs a new ConnectionScan
+	 *
+	 * @param graph The graph whose nodes the returned paths refer to
+	 * @param timetable The connections to scan
+	 * @effects constructs a new ConnectionScan over timetable
+	 */
+	public ConnectionScan(Graph<String, Integer> graph, Timetable timetable) {
+		this.graph = graph;
+		this.timetable = timetable;
+	}
+
+	/**
+	 * Finds the itinerary from from to to that leaves no earlier than
+	 * departure and arrives as early as possible. Returns null if no
+	 * itinerary exists
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state The labels to reuse
+	 * @modifies state
+	 * @return the earliest arriving path, null if no path exists
+	 */
+	@Override
+	public Path<String> findPath(String from, String to, int departure, SearchState state) {
+		int source = timetable.id(from);
+		int target = timetable.id(to);
+		if (source < 0 || target < 0) return null;
+		if (source == target) return new Path<>(from, to);
+
+		state.reset(timetable.airportCount());
+		state.reach(source, departure, -1, -1);
+
+		for (int c = timetable.firstDeparture(departure); c < timetable.size(); c++) {
+			int leaves = timetable.departure(c);
+			if (leaves >= state.arrival(target)) break;
+			if (state.arrival(timetable.origin(c)) > leaves) continue;
+
+			state.relaxed();
+			int dest = timetable.destination(c);
+			if (timetable.arrival(c) < state.arrival(dest))
+				state.reach(dest, timetable.arrival(c), timetable.origin(c), c);
+		}
+
+		if (state.arrival(target) == Integer.MAX_VALUE) return null;
+		return buildPath(from, to, source, target, state);
+	}
+
+	/**
+	 * Walks the connections that last improved each airport back
+	 * from target to source and turns them into a path
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param source The id of the starting airport
+	 * @param target The id of the destination airport
+	 * @param state The labels of the finished scan
+	 * @return the path from source to target
+	 */
+	private Path<String> buildPath(String from, String to, int source, int target, SearchState state) {
+		List<Edge<String, Integer>> edges = new ArrayList<>();
+		for (int airport = target; airport != source; airport = state.parent(airport)) {
+			int c = state.via(airport);
+			edges.add(new Edge<>(timetable.arrival(c),
+					node(timetable.airport(timetable.origin(c))), node(timetable.airport(airport))));
+		}
+		Collections.reverse(edges);
+		return new Path<>(from, to, edges);
+	}
+
+	/**
+	 * Returns the graph node with the given label, or a detached
+	 * node if the graph does not contain it
+	 *
+	 * @param label The FAA code of the airport
+	 * @return the node labeled label
+	 */
+	private Node<String, Integer> node(String label) {
+		Node<String, Integer> node = graph.getNode(label);
+		if (node == null) return new Node<>(label);
+		return node;
+	}
+}
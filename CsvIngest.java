@@ -0,0 +1,430 @@
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * <b>CsvIngest</b> reads BTS on-time exports straight from mapped
+ * bytes into primitive columns. It never builds a String per line or
+ * per field: digits are accumulated into ints as they are read and
+ * airport codes are packed into longs and interned once per chunk.
+ * <p>
+ * The file is split into chunks on line boundaries and the chunks
+ * are parsed on several threads, then merged in file order so the
+ * result does not depend on the number of threads. The header names
+ * the columns, so exports with extra or reordered columns and with
+ * quoted fields are read as well. Rows whose DEP_TIME or ARR_TIME
+ * is empty or "" are cancelled flights and are skipped.
+ * <p>
+ * Exports of a single month need only DAY_OF_MONTH. Exports that
+ * span months also name the YEAR and MONTH of every flight; their
+ * days are then counted from 1970-01-01 so that the months follow
+ * on from each other. Chunks are handed on in file order as they are
+ * parsed and at most two per thread are held at once, so reading
+ * into a sink that writes rows out, such as DayPartitions, takes
+ * memory in proportion to the threads rather than to the file.
+ */
+public class CsvIngest {
+
+	/** The columns read from every row, in the order of the role constants */
+	private static final String[] COLUMNS = { "DAY_OF_MONTH", "ORIGIN", "DEST", "DEP_TIME", "ARR_TIME", "YEAR", "MONTH" };
+
+	/** The first REQUIRED columns must be in every export, the rest are optional */
+	private static final int REQUIRED = 5;
+
+	private static final int DAY = 0;
+	private static final int ORIGIN = 1;
+	private static final int DEST = 2;
+	private static final int DEP_TIME = 3;
+	private static final int ARR_TIME = 4;
+	private static final int YEAR = 5;
+	private static final int MONTH = 6;
+
+	/** The most bytes a single chunk is allowed to cover, give or take a line */
+	private static final long CHUNK_BYTES = 16 << 20;
+
+	/**
+	 * <b>Sink</b> receives the flown rows of an export, a chunk at a
+	 * time and in file order.
+	 */
+	public interface Sink {
+
+		/**
+		 * Adds count connections given as columns whose airport ids
+		 * index into names
+		 *
+		 * @param names The FAA codes indexed by the ids used in the columns
+		 * @param departures The encoded departure of each connection
+		 * @param arrivals The encoded arrival of each connection
+		 * @param origins The origin id of each connection
+		 * @param destinations The destination id of each connection
+		 * @param count The number of connections to add
+		 * @modifies this
+		 * @throws IOException if the connections cannot be stored
+		 */
+		void addAll(String[] names, int[] departures, int[] arrivals, int[] origins, int[] destinations, int count)
+				throws IOException;
+	}
+
+	/**
+	 * Reads every flight of the given export into flights
+	 *
+	 * @param filename The CSV file to read; its first line must be a header
+	 * 		  naming DAY_OF_MONTH, ORIGIN, DEST, DEP_TIME and ARR_TIME,
+	 * 		  and optionally YEAR and MONTH
+	 * @param flights The sink every flown row is added to, e.g. a
+	 * 		  Timetable.Builder
+	 * @param threads The number of threads to parse with
+	 * @modifies flights
+	 * @effects adds one connection to flights per flown row
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public static void read(String filename, Sink flights, int threads) throws IOException {
+		try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			long size = in.size();
+			long start = nextLine(in, 0);
+			int[] roles = roles(header(in, start), filename);
+
+			int chunks = (int) Math.max(threads, (size - start + CHUNK_BYTES - 1) / CHUNK_BYTES);
+			long[] bounds = new long[chunks + 1];
+			bounds[0] = start;
+			bounds[chunks] = size;
+			for (int i = 1; i < chunks; i++) {
+				// a chunk boundary that already falls on a line start stays put
+				bounds[i] = nextLine(in, Math.max(bounds[i - 1], start + (size - start) * i / chunks) - 1);
+			}
+
+			ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+			try {
+				Deque<Future<Chunk>> parsed = new ArrayDeque<>();
+				int window = 2 * Math.max(1, threads);
+				for (int i = 0; i < chunks; i++) {
+					// the oldest chunk is handed on before another is parsed
+					if (parsed.size() == window) add(parsed.poll(), flights);
+					long from = bounds[i];
+					long length = bounds[i + 1] - bounds[i];
+					parsed.add(pool.submit(() -> parse(in.map(FileChannel.MapMode.READ_ONLY, from, length), roles)));
+				}
+				while (!parsed.isEmpty()) {
+					add(parsed.poll(), flights);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while reading " + filename);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException("could not parse " + filename, e.getCause());
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a chunk to be parsed and adds its rows to flights
+	 *
+	 * @param parsed The chunk being parsed
+	 * @param flights The sink to add the rows to
+	 * @modifies flights
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if the chunk could not be parsed
+	 * @throws IOException if the sink cannot store the rows
+	 */
+	private static void add(Future<Chunk> parsed, Sink flights)
+			throws InterruptedException, ExecutionException, IOException {
+		Chunk chunk = parsed.get();
+		flights.addAll(chunk.names(), chunk.departures, chunk.arrivals, chunk.origins, chunk.destinations, chunk.size);
+	}
+
+	/**
+	 * Returns the position just after the first line feed at or
+	 * after position
+	 *
+	 * @param in The file
+	 * @param position The position to search from
+	 * @return the start of the next line, the size of the file if
+	 * 		   there is none
+	 * @throws IOException if the file cannot be read
+	 */
+	private static long nextLine(FileChannel in, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (position < in.size()) {
+			buffer.clear();
+			int read = in.read(buffer, position);
+			if (read <= 0) break;
+			for (int i = 0; i < read; i++) {
+				if (buffer.get(i) == '\n') return position + i + 1;
+			}
+			position += read;
+		}
+		return in.size();
+	}
+
+	/**
+	 * Reads the header line
+	 *
+	 * @param in The file
+	 * @param end The position just after the header line
+	 * @return the header without its line ending
+	 * @throws IOException if the file cannot be read
+	 */
+	private static String header(FileChannel in, long end) throws IOException {
+		if (end > Integer.MAX_VALUE) throw new IOException("header line too long");
+		ByteBuffer buffer = ByteBuffer.allocate((int) end);
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer, buffer.position()) <= 0) break;
+		}
+		return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim();
+	}
+
+	/**
+	 * Maps every field position of the header to the column it holds
+	 *
+	 * @param header The header line
+	 * @param filename The name of the file, for error messages
+	 * @return role[i] is the index into COLUMNS of field i, -1 if the
+	 * 		   field is not read
+	 * @throws IOException if a required column is missing
+	 */
+	private static int[] roles(String header, String filename) throws IOException {
+		String[] names = header.split(",", -1);
+		int[] roles = new int[names.length];
+		Arrays.fill(roles, -1);
+		for (int column = 0; column < COLUMNS.length; column++) {
+			boolean found = false;
+			for (int field = 0; field < names.length; field++) {
+				if (names[field].replace("\"", "").trim().equals(COLUMNS[column])) {
+					roles[field] = column;
+					found = true;
+					break;
+				}
+			}
+			if (!found && column < REQUIRED) throw new IOException(filename + " has no " + COLUMNS[column] + " column");
+		}
+		return roles;
+	}
+
+	/**
+	 * Parses every line of the given bytes
+	 *
+	 * @param bytes Whole lines of the export, without the header
+	 * @param roles The column each field position holds
+	 * @return the flown rows of bytes as columns
+	 * @throws IOException if an airport code is longer than 8 bytes or a
+	 * 		   month is out of range
+	 */
+	private static Chunk parse(ByteBuffer bytes, int[] roles) throws IOException {
+		Chunk chunk = new Chunk();
+		long[] values = new long[COLUMNS.length];
+		int limit = bytes.limit();
+		int position = 0;
+
+		while (position < limit) {
+			Arrays.fill(values, -1);
+			int field = 0;
+			boolean quoted = false;
+			int length = 0;
+
+			for (; position < limit; position++) {
+				byte b = bytes.get(position);
+				if (b == '"') {
+					quoted = !quoted;
+				} else if ((b == ',' && !quoted) || b == '\n') {
+					field++;
+					length = 0;
+					if (b == '\n') break;
+				} else if (field < roles.length && roles[field] >= 0 && b != '\r') {
+					int role = roles[field];
+					long value = values[role] < 0 ? 0 : values[role];
+					if (role == ORIGIN || role == DEST) {
+						if (++length > 8) throw new IOException("airport code longer than 8 bytes");
+						values[role] = (value << 8) | (b & 0xff);
+					} else if (b >= '0' && b <= '9') {
+						values[role] = value * 10 + (b - '0');
+					}
+				}
+			}
+			position++;
+
+			if (values[DAY] >= 0 && values[ORIGIN] > 0 && values[DEST] > 0
+					&& values[DEP_TIME] >= 0 && values[ARR_TIME] >= 0) {
+				int day = (int) values[DAY];
+				if (values[YEAR] >= 0 && values[MONTH] >= 0)
+					day += chunk.firstDay((int) values[YEAR], (int) values[MONTH]) - 1;
+				int departure = (int) values[DEP_TIME];
+				int arrival = (int) values[ARR_TIME];
+				// flights that land before they leave arrive the next day
+				chunk.add(chunk.intern(values[ORIGIN]), chunk.intern(values[DEST]), Timetable.timestamp(day, departure),
+						Timetable.timestamp(arrival < departure ? day + 1 : day, arrival));
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Prints the ingest throughput for the given files on one thread
+	 * and on every available core
+	 *
+	 * @param args The CSV files to read, results.csv by default
+	 * @throws IOException if a file cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		String[] files = args.length > 0 ? args : new String[] { "results.csv" };
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (String file : files) {
+			double megabytes = Files.size(Paths.get(file)) / (1024.0 * 1024.0);
+			for (int threads : new int[] { 1, cores }) {
+				long best = Long.MAX_VALUE;
+				int rows = 0;
+				for (int run = 0; run < 5; run++) {
+					Timetable.Builder flights = new Timetable.Builder();
+					long start = System.nanoTime();
+					read(file, flights, threads);
+					best = Math.min(best, System.nanoTime() - start);
+					rows = flights.build().size();
+				}
+				System.out.printf("%s: %,d flights, %d thread(s), %.1f MB/s%n", file, rows, threads,
+						megabytes / (best / 1e9));
+			}
+		}
+	}
+
+	/**
+	 * <b>Chunk</b> holds the flown rows of one chunk as columns whose
+	 * airport ids are local to the chunk.
+	 */
+	private static class Chunk {
+
+		private int[] departures = new int[1024];
+		private int[] arrivals = new int[1024];
+		private int[] origins = new int[1024];
+		private int[] destinations = new int[1024];
+		private int size = 0;
+
+		/** The last month looked up by firstDay, as YEAR * 12 + MONTH, and its first day */
+		private int month = -1;
+		private int first;
+
+		/** Open addressing table from packed airport code to local id + 1 */
+		private long[] codes = new long[256];
+		private int[] ids = new int[256];
+		private long[] airports = new long[64];
+		private int airportCount = 0;
+
+		/**
+		 * Adds a row to this chunk
+		 *
+		 * @param origin The local id of the departure airport
+		 * @param destination The local id of the arrival airport
+		 * @param departure The encoded departure time
+		 * @param arrival The encoded arrival time
+		 * @modifies this
+		 */
+		private void add(int origin, int destination, int departure, int arrival) {
+			if (size == departures.length) {
+				departures = Arrays.copyOf(departures, size * 2);
+				arrivals = Arrays.copyOf(arrivals, size * 2);
+				origins = Arrays.copyOf(origins, size * 2);
+				destinations = Arrays.copyOf(destinations, size * 2);
+			}
+			departures[size] = departure;
+			arrivals[size] = arrival;
+			origins[size] = origin;
+			destinations[size] = destination;
+			size++;
+		}
+
+		/**
+		 * Returns the number of days from 1970-01-01 to the first of
+		 * the given month; rows come grouped by month, so the last
+		 * month is remembered
+		 *
+		 * @param year The year
+		 * @param month The month, 1 to 12
+		 * @return the epoch day of the first of the month
+		 * @throws IOException if month is out of range
+		 */
+		private int firstDay(int year, int month) throws IOException {
+			if (month < 1 || month > 12) throw new IOException("month out of range: " + month);
+			if (year * 12 + month != this.month) {
+				this.month = year * 12 + month;
+				this.first = (int) LocalDate.of(year, month, 1).toEpochDay();
+			}
+			return first;
+		}
+
+		/**
+		 * Returns the local id of the given packed airport code,
+		 * assigning the next free id if it has not been seen yet
+		 *
+		 * @param code The airport code packed one byte per 8 bits
+		 * @return the local id of the airport
+		 * @modifies this
+		 */
+		private int intern(long code) {
+			int mask = codes.length - 1;
+			int slot = Long.hashCode(code * 0x9E3779B97F4A7C15L) & mask;
+			while (ids[slot] != 0) {
+				if (codes[slot] == code) return ids[slot] - 1;
+				slot = (slot + 1) & mask;
+			}
+			if (airportCount == airports.length) airports = Arrays.copyOf(airports, airportCount * 2);
+			airports[airportCount] = code;
+			codes[slot] = code;
+			ids[slot] = ++airportCount;
+			if (airportCount * 2 > codes.length) rehash();
+			return airportCount - 1;
+		}
+
+		/**
+		 * Doubles the intern table
+		 *
+		 * @modifies this
+		 */
+		private void rehash() {
+			codes = new long[codes.length * 2];
+			ids = new int[ids.length * 2];
+			int mask = codes.length - 1;
+			for (int id = 0; id < airportCount; id++) {
+				int slot = Long.hashCode(airports[id] * 0x9E3779B97F4A7C15L) & mask;
+				while (ids[slot] != 0) slot = (slot + 1) & mask;
+				codes[slot] = airports[id];
+				ids[slot] = id + 1;
+			}
+		}
+
+		/**
+		 * Returns the airport codes of this chunk indexed by local id
+		 *
+		 * @return the decoded airport codes
+		 */
+		private String[] names() {
+			String[] names = new String[airportCount];
+			byte[] bytes = new byte[8];
+			for (int id = 0; id < airportCount; id++) {
+				long code = airports[id];
+				int length = 0;
+				for (long rest = code; rest != 0; rest >>>= 8) length++;
+				for (int i = length - 1; i >= 0; i--) {
+					bytes[i] = (byte) code;
+					code >>>= 8;
+				}
+				names[id] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+			}
+			return names;
+		}
+	}
+}
@@ -0,0 +1,845 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * <b>DayPartitions</b> keeps a timetable on disk as one partition per
+ * day of departure and answers earliest-arrival queries with the
+ * Connection Scan Algorithm over the partitions. A partition is read
+ * into the heap the first time a search reaches its day, and the
+ * least recently used partitions are dropped again once the resident
+ * ones take more than a budget of bytes. Heap use therefore follows
+ * the days queries look at, not the length of the data set: a year of
+ * flights can be queried with the memory of a few days.
+ * <p>
+ * Partitions are written from a Timetable or streamed straight from a
+ * BTS export, which is spilled to disk by day and sorted one day at a
+ * time. A directory holds an index and a file per day, all ints
+ * little-endian:
+ * <pre>
+ *   index:         MAGIC, VERSION, airports, days
+ *                  airport name offsets (airports + 1), name bytes padded to 4
+ *                  day numbers (days), connections of each day (days)
+ *                  airports reachable from each airport, one bit each
+ *                  (airports rows of (airports + 31) / 32)
+ *   day-DAY.part:  PART_MAGIC, VERSION, DAY, connections
+ *                  departures, arrivals, origins, destinations (connections each)
+ * </pre>
+ * Since a day is never scanned past the best arrival found, a search
+ * reads the days from its departure to its arrival. A search for an
+ * airport that no sequence of flights on any days leads to, which
+ * would read every later day, is answered from the index without
+ * reading a partition.
+ * <p>
+ * Any number of threads may search at once. Reads and evictions are
+ * serialized on one lock, so a day is read once however many searches
+ * reach it together; the scans themselves run outside it.
+ */
+public class DayPartitions implements Router {
+
+	/** "FSDI" */
+	private static final int MAGIC = 0x46534449;
+
+	/** "FSDP" */
+	private static final int PART_MAGIC = 0x46534450;
+
+	/** Bumped whenever the layout changes */
+	private static final int VERSION = 2;
+
+	private static final int HEADER_INTS = 4;
+
+	private static final String INDEX = "index";
+
+	/** The bytes of partitions kept resident by default */
+	public static final long BUDGET = 64 << 20;
+
+	private File directory;
+	private String[] airports;
+	private Map<String, Integer> ids;
+	private int[] days;
+	private int[] sizes;
+	private Node<String, Integer>[] nodes;
+	private long budget;
+
+	/** Row a, bit b is set if some flights lead from airport a to airport b */
+	private int[] reachable;
+	private int words;
+
+	/** The resident partitions by day, least recently used first */
+	private LinkedHashMap<Integer, Partition> resident;
+	private long residentBytes;
+	private long loads;
+	private long evictions;
+
+	// Abstraction Function:
+	// AF(this) = the connections leaving on day days[i] are the sizes[i]
+	//			  connections of directory/day-days[i].part, of which
+	//			  resident holds copies of the recently used ones, and no
+	//			  itinerary on any days leads from a to b unless bit b of
+	//			  row a of reachable is set
+	// Representation Invariant = days is strictly ascending, sizes has its
+	//			  length, reachable has airports.length rows of words ints,
+	//			  residentBytes is the sum of the bytes of resident and
+	//			  exceeds budget only while a single partition is resident
+
+	/**
+	 * Constructs a new DayPartitions over a directory whose index has
+	 * been read
+	 *
+	 * @param directory The directory holding the partitions
+	 * @param airports The FAA codes indexed by airport id
+	 * @param days The days that have partitions, ascending
+	 * @param sizes The number of connections of each day
+	 * @param reachable The airports reachable from each airport, see
+	 * 		  the class comment
+	 * @param budget The bytes of partitions to keep resident
+	 * @effects constructs a new DayPartitions with no partition resident
+	 */
+	@SuppressWarnings("unchecked")
+	private DayPartitions(File directory, String[] airports, int[] days, int[] sizes, int[] reachable, long budget) {
+		this.directory = directory;
+		this.airports = airports;
+		this.ids = new HashMap<>();
+		this.nodes = (Node<String, Integer>[]) new Node<?, ?>[airports.length];
+		for (int i = 0; i < airports.length; i++) {
+			ids.put(airports[i], i);
+			nodes[i] = new Node<>(airports[i]);
+		}
+		this.days = days;
+		this.sizes = sizes;
+		this.reachable = reachable;
+		this.words = (airports.length + 31) / 32;
+		this.budget = budget;
+		this.resident = new LinkedHashMap<>(16, 0.75f, true);
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds
+	 */
+	private void checkRep() {
+		assert sizes.length == days.length : "one size per day";
+		assert reachable.length == airports.length * words : "one row per airport";
+		for (int i = 1; i < days.length; i++) {
+			assert days[i - 1] < days[i] : "days must be ascending";
+		}
+		assert residentBytes <= budget || resident.size() <= 1 : "over budget";
+	}
+
+	/**
+	 * Writes the given timetable to directory as one partition per day
+	 *
+	 * @param timetable The timetable to write
+	 * @param directory The directory to write, created if it does not
+	 * 		  exist; partitions already in it are replaced
+	 * @throws IOException if the partitions cannot be written
+	 */
+	public static void write(Timetable timetable, String directory) throws IOException {
+		Writer writer = new Writer(new File(directory));
+		String[] names = new String[timetable.airportCount()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = timetable.airport(i);
+		}
+		IntBuffer[] columns = timetable.columns();
+		int[][] slice = new int[columns.length][1 << 16];
+		for (int start = 0; start < timetable.size(); start += slice[0].length) {
+			int count = Math.min(slice[0].length, timetable.size() - start);
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].get(start, slice[i], 0, count);
+			}
+			writer.addAll(names, slice[0], slice[1], slice[2], slice[3], count);
+		}
+		writer.finish();
+	}
+
+	/**
+	 * Reads the given BTS export and writes it to directory as one
+	 * partition per day, holding no more than a day of flights and a
+	 * few chunks of the file in memory at once
+	 *
+	 * @param csv The export to read, see CsvIngest
+	 * @param directory The directory to write, created if it does not
+	 * 		  exist; partitions already in it are replaced
+	 * @param threads The number of threads to parse with
+	 * @throws IOException if the export cannot be read or the
+	 * 		   partitions cannot be written
+	 */
+	public static void write(String csv, String directory, int threads) throws IOException {
+		Writer writer = new Writer(new File(directory));
+		CsvIngest.read(csv, writer, threads);
+		writer.finish();
+	}
+
+	/**
+	 * Opens the partitions written to directory. Only the index is
+	 * read; partitions are read as searches reach them.
+	 *
+	 * @param directory The directory the partitions were written to
+	 * @param budget The bytes of partitions to keep resident; the
+	 * 		  partition in use is kept even if it alone exceeds budget
+	 * @return the partitions of directory
+	 * @throws IOException if the index cannot be read or was written by
+	 * 		   another version
+	 */
+	public static DayPartitions open(String directory, long budget) throws IOException {
+		File index = new File(directory, INDEX);
+		IntBuffer ints;
+		ByteBuffer bytes;
+		try (FileChannel in = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+			bytes = read(in, in.size(), index);
+			ints = bytes.asIntBuffer();
+		}
+		if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC)
+			throw new IOException("not a partition index: " + index);
+		if (ints.get(1) != VERSION)
+			throw new IOException("index version " + ints.get(1) + " but expected " + VERSION + ": " + index);
+
+		int airports = ints.get(2);
+		int count = ints.get(3);
+		int position = HEADER_INTS;
+		String[] names = new String[airports];
+		int bytesStart = (position + airports + 1) * 4;
+		for (int i = 0; i < airports; i++) {
+			int start = ints.get(position + i);
+			byte[] name = new byte[ints.get(position + i + 1) - start];
+			bytes.get(bytesStart + start, name);
+			names[i] = new String(name, StandardCharsets.UTF_8);
+		}
+		position += airports + 1 + (ints.get(position + airports) + 3) / 4;
+		int[] reachable = new int[airports * ((airports + 31) / 32)];
+		if (position + 2 * count + reachable.length != ints.limit())
+			throw new IOException("truncated or corrupt index: " + index);
+
+		int[] days = new int[count];
+		int[] sizes = new int[count];
+		ints.get(position, days);
+		ints.get(position + count, sizes);
+		ints.get(position + 2 * count, reachable);
+		return new DayPartitions(new File(directory), names, days, sizes, reachable, budget);
+	}
+
+	/**
+	 * Writes the given timetable to a new temporary directory, deleted
+	 * when the virtual machine exits, and opens it
+	 *
+	 * @param timetable The timetable to partition
+	 * @param budget The bytes of partitions to keep resident
+	 * @return the partitions of timetable
+	 * @throws UncheckedIOException if the partitions cannot be written
+	 */
+	public static DayPartitions temporary(Timetable timetable, long budget) {
+		try {
+			File directory = Files.createTempDirectory("days").toFile();
+			directory.deleteOnExit();
+			write(timetable, directory.getPath());
+			// files are deleted in the reverse of the order they were
+			// registered, so the directory goes last
+			for (File file : directory.listFiles()) {
+				file.deleteOnExit();
+			}
+			return open(directory.getPath(), budget);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the number of airports
+	 *
+	 * @return the number of airports
+	 */
+	public int airportCount() {
+		return airports.length;
+	}
+
+	/**
+	 * Returns the number of days that have partitions
+	 *
+	 * @return the number of partitions
+	 */
+	public int dayCount() {
+		return days.length;
+	}
+
+	/**
+	 * Returns the number of connections over every partition
+	 *
+	 * @return the number of connections
+	 */
+	public long size() {
+		long size = 0;
+		for (int count : sizes) size += count;
+		return size;
+	}
+
+	/**
+	 * Returns the number of partitions read from disk so far
+	 *
+	 * @return the number of reads
+	 */
+	public synchronized long loads() {
+		return loads;
+	}
+
+	/**
+	 * Returns the number of partitions dropped to stay within budget
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the bytes taken by the resident partitions
+	 *
+	 * @return the resident bytes
+	 */
+	public synchronized long residentBytes() {
+		return residentBytes;
+	}
+
+	/**
+	 * Returns the number of resident partitions
+	 *
+	 * @return the number of days in memory
+	 */
+	public synchronized int residentDays() {
+		return resident.size();
+	}
+
+	/**
+	 * Finds the itinerary from from to to that leaves no earlier than
+	 * departure and arrives as early as possible. Returns null if no
+	 * itinerary exists, without reading a partition if no flights on
+	 * any days lead from from to to
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state The labels to reuse
+	 * @modifies state, this
+	 * @effects reads the partitions the search reaches that are not
+	 * 		   resident and evicts others to stay within budget
+	 * @return the earliest arriving path, null if no path exists
+	 * @throws UncheckedIOException if a partition cannot be read
+	 */
+	@Override
+	public Path<String> findPath(String from, String to, int departure, SearchState state) {
+		Integer source = ids.get(from);
+		Integer target = ids.get(to);
+		if (source == null || target == null) return null;
+		if (source.equals(target)) return new Path<>(from, to);
+		if (!reachable(source, target)) return null;
+
+		state.reset(airports.length);
+		state.reach(source, departure, -1, -1);
+
+		for (int i = firstDay(departure / 10000); i < days.length; i++) {
+			// a day that starts after the best arrival has nothing to offer
+			if (Timetable.timestamp(days[i], 0) >= state.arrival(target)) break;
+			Partition day = partition(i);
+			for (int c = day.firstDeparture(departure); c < day.size(); c++) {
+				int leaves = day.departures[c];
+				if (leaves >= state.arrival(target)) break;
+				if (state.arrival(day.origins[c]) > leaves) continue;
+
+				state.relaxed();
+				int dest = day.destinations[c];
+				if (day.arrivals[c] < state.arrival(dest))
+					state.reach(dest, day.arrivals[c], day.origins[c], -1);
+			}
+		}
+
+		if (state.arrival(target) == Integer.MAX_VALUE) return null;
+		List<Edge<String, Integer>> edges = new ArrayList<>();
+		for (int airport = target; airport != source; airport = state.parent(airport)) {
+			edges.add(new Edge<>(state.arrival(airport), nodes[state.parent(airport)], nodes[airport]));
+		}
+		Collections.reverse(edges);
+		return new Path<>(from, to, edges);
+	}
+
+	/**
+	 * Returns whether any flights, on whatever days, lead from one
+	 * airport to another
+	 *
+	 * @param source The id of the first airport
+	 * @param target The id of the second airport
+	 * @return false if no itinerary from source to target exists
+	 */
+	private boolean reachable(int source, int target) {
+		return (reachable[source * words + (target >>> 5)] & (1 << (target & 31))) != 0;
+	}
+
+	/**
+	 * Returns the index of the first day with a partition at or after
+	 * the given day
+	 *
+	 * @param day The day number
+	 * @return the index into days, days.length if there is none
+	 */
+	private int firstDay(int day) {
+		int low = 0;
+		int high = days.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (days[mid] < day) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the partition of days[i], reading it if it is not
+	 * resident
+	 *
+	 * @param i The index of the day
+	 * @modifies this
+	 * @effects makes the partition the most recently used and evicts the
+	 * 		   least recently used others while over budget
+	 * @return the partition
+	 * @throws UncheckedIOException if the partition cannot be read
+	 */
+	private synchronized Partition partition(int i) {
+		Partition partition = resident.get(days[i]);
+		if (partition != null) return partition;
+		try {
+			partition = read(new File(directory, name(days[i])), days[i], sizes[i]);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		loads++;
+		resident.put(days[i], partition);
+		residentBytes += partition.bytes();
+
+		Iterator<Partition> eldest = resident.values().iterator();
+		while (residentBytes > budget && resident.size() > 1) {
+			residentBytes -= eldest.next().bytes();
+			eldest.remove();
+			evictions++;
+		}
+		checkRep();
+		return partition;
+	}
+
+	/**
+	 * Reads the given partition file
+	 *
+	 * @param file The partition file
+	 * @param day The day it must hold
+	 * @param size The number of connections it must hold
+	 * @return the partition
+	 * @throws IOException if the file cannot be read or does not hold
+	 * 		   the expected partition
+	 */
+	private static Partition read(File file, int day, int size) throws IOException {
+		IntBuffer ints;
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ints = read(in, in.size(), file).asIntBuffer();
+		}
+		if (ints.limit() < HEADER_INTS || ints.get(0) != PART_MAGIC)
+			throw new IOException("not a partition: " + file);
+		if (ints.get(1) != VERSION)
+			throw new IOException("partition version " + ints.get(1) + " but expected " + VERSION + ": " + file);
+		if (ints.get(2) != day || ints.get(3) != size || ints.limit() != HEADER_INTS + 4 * size)
+			throw new IOException("partition does not match the index: " + file);
+
+		Partition partition = new Partition(size);
+		ints.position(HEADER_INTS);
+		ints.get(partition.departures).get(partition.arrivals).get(partition.origins).get(partition.destinations);
+		return partition;
+	}
+
+	/**
+	 * Reads length bytes from the start of a file
+	 *
+	 * @param in The file
+	 * @param length The number of bytes to read
+	 * @param file The path of the file, for error messages
+	 * @return the bytes, little-endian
+	 * @throws IOException if the file cannot be read or is too large
+	 */
+	private static ByteBuffer read(FileChannel in, long length, File file) throws IOException {
+		if (length > Integer.MAX_VALUE) throw new IOException("file larger than 2 GB: " + file);
+		ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) throw new IOException("unexpected end of file: " + file);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Returns the file name of the partition of the given day
+	 *
+	 * @param day The day number
+	 * @return the file name
+	 */
+	private static String name(int day) {
+		return "day-" + day + ".part";
+	}
+
+	/**
+	 * Writes the partitions of a CSV export, or of results.csv, or
+	 * replays random queries against partitions already written and
+	 * reports the heap they take
+	 *
+	 * @param args Either a CSV file and the directory to write its
+	 * 		  partitions to, or a directory of partitions, optionally
+	 * 		  followed by the budget in MB, 4 by default, and the
+	 * 		  number of queries, 20000 by default
+	 * @throws IOException if the partitions cannot be written or read
+	 */
+	public static void main(String[] args) throws IOException {
+		String first = args.length > 0 ? args[0] : "results.csv";
+		if (!Files.isDirectory(Paths.get(first))) {
+			String directory = args.length > 1 ? args[1] : "days";
+			long start = System.nanoTime();
+			write(first, directory, Runtime.getRuntime().availableProcessors());
+			DayPartitions written = open(directory, BUDGET);
+			System.out.println("wrote " + written.size() + " flights on " + written.dayCount() + " days to "
+					+ directory + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+			return;
+		}
+
+		long budget = (args.length > 1 ? Long.parseLong(args[1]) : 4) << 20;
+		int queries = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		DayPartitions partitions = open(first, budget);
+		SearchState state = new SearchState(partitions.airportCount());
+		Random random = new Random(20010911);
+		Runtime runtime = Runtime.getRuntime();
+		long found = 0;
+		long start = System.nanoTime();
+		for (int q = 0; q < queries; q++) {
+			String from = partitions.airports[random.nextInt(partitions.airportCount())];
+			String to = partitions.airports[random.nextInt(partitions.airportCount())];
+			int day = partitions.days[random.nextInt(partitions.dayCount())];
+			if (partitions.findPath(from, to, Timetable.timestamp(day, random.nextInt(24) * 100), state) != null)
+				found++;
+		}
+		long elapsed = System.nanoTime() - start;
+		System.gc();
+		System.out.printf("%d queries, %d found, %.1f us per query; %d of %d days resident in %.1f MB, "
+				+ "%d reads, %d evictions, %.1f MB heap in use%n", queries, found, elapsed / 1000.0 / queries,
+				partitions.residentDays(), partitions.dayCount(), partitions.residentBytes() / 1048576.0,
+				partitions.loads(), partitions.evictions(), (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0);
+	}
+
+	/**
+	 * <b>Partition</b> holds the connections leaving on one day as
+	 * columns sorted by departure, like a Timetable.
+	 */
+	private static class Partition {
+
+		private int[] departures;
+		private int[] arrivals;
+		private int[] origins;
+		private int[] destinations;
+
+		/**
+		 * Constructs a new Partition with room for size connections
+		 *
+		 * @param size The number of connections
+		 * @effects constructs a new Partition of zeroed columns
+		 */
+		private Partition(int size) {
+			this.departures = new int[size];
+			this.arrivals = new int[size];
+			this.origins = new int[size];
+			this.destinations = new int[size];
+		}
+
+		/**
+		 * Returns the number of connections
+		 *
+		 * @return the number of connections
+		 */
+		private int size() {
+			return departures.length;
+		}
+
+		/**
+		 * Returns the heap taken by this partition
+		 *
+		 * @return the bytes of the four columns
+		 */
+		private long bytes() {
+			return 16L * departures.length;
+		}
+
+		/**
+		 * Returns the index of the first connection that leaves at or
+		 * after the given time
+		 *
+		 * @param time The encoded time
+		 * @return the first index leaving at or after time, size() if
+		 * 		   there is none
+		 */
+		private int firstDeparture(int time) {
+			int low = 0;
+			int high = departures.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (departures[mid] < time) low = mid + 1;
+				else high = mid;
+			}
+			return low;
+		}
+	}
+
+	/**
+	 * <b>Writer</b> spills the connections it is given to one file per
+	 * day as they come, then sorts and writes out one day at a time.
+	 * Only the spill files of the last few days written to stay open,
+	 * so file descriptors and buffers do not grow with the data set.
+	 */
+	private static class Writer implements CsvIngest.Sink {
+
+		/** The most spill files open at once */
+		private static final int OPEN_SPILLS = 32;
+
+		private File directory;
+		private Map<String, Integer> ids = new HashMap<>();
+		private List<String> airports = new ArrayList<>();
+
+		/** The open spill files by day, least recently written first */
+		private LinkedHashMap<Integer, DataOutputStream> spills = new LinkedHashMap<>(16, 0.75f, true);
+
+		/** The connections spilled for every day seen so far, by day */
+		private TreeMap<Integer, Integer> counts = new TreeMap<>();
+
+		/** The airports some flight leads to, by the id of its origin */
+		private List<BitSet> direct = new ArrayList<>();
+
+		/**
+		 * Constructs a new Writer
+		 *
+		 * @param directory The directory to write to
+		 * @throws IOException if the directory cannot be created
+		 * @effects constructs a new Writer with no connections
+		 */
+		private Writer(File directory) throws IOException {
+			this.directory = directory;
+			Files.createDirectories(directory.toPath());
+		}
+
+		@Override
+		public void addAll(String[] names, int[] departures, int[] arrivals, int[] origins, int[] destinations,
+				int count) throws IOException {
+			int[] local = new int[names.length];
+			for (int i = 0; i < names.length; i++) {
+				local[i] = names[i] == null ? -1 : intern(names[i]);
+			}
+			for (int i = 0; i < count; i++) {
+				int day = departures[i] / 10000;
+				DataOutputStream out = spills.get(day);
+				if (out == null) out = spill(day);
+				out.writeInt(departures[i]);
+				out.writeInt(arrivals[i]);
+				out.writeInt(local[origins[i]]);
+				out.writeInt(local[destinations[i]]);
+				counts.merge(day, 1, Integer::sum);
+				direct.get(local[origins[i]]).set(local[destinations[i]]);
+			}
+		}
+
+		/**
+		 * Opens the spill file of the given day, closing the least
+		 * recently written one if OPEN_SPILLS are open
+		 *
+		 * @param day The day number
+		 * @modifies this
+		 * @effects creates the spill file of day if it is the first time
+		 * 			day is seen, and appends to it otherwise
+		 * @return the open spill file
+		 * @throws IOException if a spill file cannot be closed or opened
+		 */
+		private DataOutputStream spill(int day) throws IOException {
+			if (spills.size() >= OPEN_SPILLS) {
+				Iterator<DataOutputStream> eldest = spills.values().iterator();
+				eldest.next().close();
+				eldest.remove();
+			}
+			File file = new File(directory, name(day) + ".spill");
+			OutputStream stream;
+			if (counts.containsKey(day)) {
+				stream = Files.newOutputStream(file.toPath(), StandardOpenOption.APPEND);
+			} else {
+				stream = Files.newOutputStream(file.toPath());
+				counts.put(day, 0);
+			}
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+			spills.put(day, out);
+			return out;
+		}
+
+		/**
+		 * Returns the id of the given airport, assigning the next free
+		 * id if it has not been seen yet
+		 *
+		 * @param airport The FAA code of the airport
+		 * @return the id of the airport
+		 */
+		private int intern(String airport) {
+			Integer id = ids.get(airport);
+			if (id != null) return id;
+			ids.put(airport, airports.size());
+			airports.add(airport);
+			direct.add(new BitSet());
+			return airports.size() - 1;
+		}
+
+		/**
+		 * Sorts every spilled day into its partition and writes the index,
+		 * with the airports reachable from each airport
+		 *
+		 * @modifies this
+		 * @effects deletes the spill files
+		 * @throws IOException if a partition or the index cannot be written
+		 */
+		private void finish() throws IOException {
+			for (DataOutputStream out : spills.values()) {
+				out.close();
+			}
+			spills.clear();
+			for (Map.Entry<Integer, Integer> day : counts.entrySet()) {
+				sort(day.getKey(), day.getValue());
+			}
+
+			byte[][] names = new byte[airports.size()][];
+			int nameBytes = 0;
+			for (int i = 0; i < names.length; i++) {
+				names[i] = airports.get(i).getBytes(StandardCharsets.UTF_8);
+				nameBytes += names[i].length;
+			}
+			int words = (names.length + 31) / 32;
+			ByteBuffer index = ByteBuffer.allocate(4 * (HEADER_INTS + names.length + 1 + 2 * counts.size()
+					+ names.length * words) + (nameBytes + 3) / 4 * 4).order(ByteOrder.LITTLE_ENDIAN);
+			index.putInt(MAGIC).putInt(VERSION).putInt(names.length).putInt(counts.size());
+			int offset = 0;
+			for (int i = 0; i <= names.length; i++) {
+				index.putInt(offset);
+				if (i < names.length) offset += names[i].length;
+			}
+			for (byte[] name : names) {
+				index.put(name);
+			}
+			index.position(index.position() + (4 - nameBytes % 4) % 4);
+			for (int day : counts.keySet()) {
+				index.putInt(day);
+			}
+			for (int count : counts.values()) {
+				index.putInt(count);
+			}
+			for (int airport = 0; airport < names.length; airport++) {
+				BitSet reached = reachable(airport);
+				for (int w = 0; w < words; w++) {
+					int word = 0;
+					for (int b = reached.nextSetBit(32 * w); b >= 0 && b < 32 * (w + 1); b = reached.nextSetBit(b + 1)) {
+						word |= 1 << (b & 31);
+					}
+					index.putInt(word);
+				}
+			}
+			write(new File(directory, INDEX), index);
+		}
+
+		/**
+		 * Returns the airports some sequence of flights leads to from
+		 * the given airport, ignoring when the flights leave
+		 *
+		 * @param airport The id of the airport to start from
+		 * @return the ids of the airports reachable from airport
+		 */
+		private BitSet reachable(int airport) {
+			BitSet reached = new BitSet(airports.size());
+			List<Integer> stack = new ArrayList<>();
+			stack.add(airport);
+			while (!stack.isEmpty()) {
+				BitSet next = direct.get(stack.remove(stack.size() - 1));
+				for (int b = next.nextSetBit(0); b >= 0; b = next.nextSetBit(b + 1)) {
+					if (reached.get(b)) continue;
+					reached.set(b);
+					stack.add(b);
+				}
+			}
+			return reached;
+		}
+
+		/**
+		 * Reads the spill file of the given day, sorts it by departure
+		 * and writes it out as the partition of the day
+		 *
+		 * @param day The day number
+		 * @param size The number of connections spilled for the day
+		 * @throws IOException if the spill cannot be read or the
+		 * 		   partition cannot be written
+		 */
+		private void sort(int day, int size) throws IOException {
+			File spill = new File(directory, name(day) + ".spill");
+			int[] departures = new int[size];
+			int[] arrivals = new int[size];
+			int[] origins = new int[size];
+			int[] destinations = new int[size];
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(spill.toPath()), 1 << 16))) {
+				for (int i = 0; i < size; i++) {
+					departures[i] = in.readInt();
+					arrivals[i] = in.readInt();
+					origins[i] = in.readInt();
+					destinations[i] = in.readInt();
+				}
+			}
+			Files.delete(spill.toPath());
+
+			int[] order = Timetable.departureOrder(departures, arrivals, size);
+			ByteBuffer partition = ByteBuffer.allocate(4 * (HEADER_INTS + 4 * size)).order(ByteOrder.LITTLE_ENDIAN);
+			partition.putInt(PART_MAGIC).putInt(VERSION).putInt(day).putInt(size);
+			for (int[] column : new int[][] { departures, arrivals, origins, destinations }) {
+				for (int c : order) {
+					partition.putInt(column[c]);
+				}
+			}
+			write(new File(directory, name(day)), partition);
+		}
+
+		/**
+		 * Writes the whole of buffer to file
+		 *
+		 * @param file The file to write, replaced if it exists
+		 * @param buffer The bytes to write, all of them put
+		 * @throws IOException if the file cannot be written
+		 */
+		private static void write(File file, ByteBuffer buffer) throws IOException {
+			buffer.flip();
+			try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				while (buffer.hasRemaining()) out.write(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+
+/**
+ * <b>Departures</b> holds every flight between one pair of airports
+ * as two primitive arrays sorted by departure. Looking up the next
+ * flight after a given time is a binary search, so the cost of a
+ * lookup grows only with the logarithm of the number of flights.
+ * <p>
+ * Times are encoded as DAY_OF_MONTH * 10000 + HHMM.
+ */
+public class Departures {
+
+	private int[] departures;
+	private int[] arrivals;
+
+	/**
+	 * earliest[i] is the index of the flight with the earliest
+	 * arrival among flights i through size() - 1
+	 */
+	private int[] earliest;
+
+	// AF(this) = flight i leaves at departures[i] and lands at arrivals[i]
+	// Representation Invariant = departures, arrivals, earliest != null and
+	//		have the same length, departures is sorted ascending,
+	//		arrivals[earliest[i]] <= arrivals[j] for every j >= i
+
+	/**
+	 * Constructs a new Departures
+	 *
+	 * @requires departures is sorted ascending
+	 * @param departures The departure of each flight
+	 * @param arrivals The arrival of each flight
+	 * @effects constructs a new Departures holding the given flights
+	 */
+	public Departures(int[] departures, int[] arrivals) {
+		this.departures = departures;
+		this.arrivals = arrivals;
+		this.earliest = new int[departures.length];
+		for (int i = departures.length - 1; i >= 0; i--) {
+			if (i == departures.length - 1 || arrivals[i] < arrivals[earliest[i + 1]])
+				earliest[i] = i;
+			else
+				earliest[i] = earliest[i + 1];
+		}
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds (if any).
+	 */
+	private void checkRep() {
+		assert (departures != null && arrivals != null && earliest != null);
+		assert (departures.length == arrivals.length) : "every flight needs a departure and an arrival";
+		for (int i = 1; i < departures.length; i++) {
+			assert (departures[i - 1] <= departures[i]) : "departures must be sorted";
+		}
+	}
+
+	/**
+	 * Returns the number of flights
+	 *
+	 * @return the number of flights
+	 */
+	public int size() {
+		return departures.length;
+	}
+
+	/**
+	 * Returns the departure of the given flight
+	 *
+	 * @param flight The index of the flight
+	 * @return the encoded departure time of the flight
+	 */
+	public int departure(int flight) {
+		return departures[flight];
+	}
+
+	/**
+	 * Returns the arrival of the given flight
+	 *
+	 * @param flight The index of the flight
+	 * @return the encoded arrival time of the flight
+	 */
+	public int arrival(int flight) {
+		return arrivals[flight];
+	}
+
+	/**
+	 * Returns the index of the first flight leaving at or after time
+	 *
+	 * @param time The encoded time
+	 * @return the index of the next departure, size() if there is none
+	 */
+	public int next(int time) {
+		int low = 0;
+		int high = departures.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (departures[mid] < time) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the index of the flight that arrives earliest among
+	 * the flights leaving at or after time
+	 *
+	 * @param time The encoded time
+	 * @return the index of the earliest arriving flight, -1 if no
+	 * 		   flight leaves at or after time
+	 */
+	public int earliest(int time) {
+		int next = next(time);
+		if (next == departures.length) return -1;
+		return earliest[next];
+	}
+
+	/**
+	 * Returns a copy of these flights with one more flight, placed
+	 * after every flight leaving at the same time
+	 *
+	 * @param departure The encoded departure of the new flight
+	 * @param arrival The encoded arrival of the new flight
+	 * @return the flights of this plus the new flight
+	 */
+	public Departures with(int departure, int arrival) {
+		int at = next(departure + 1);
+		int[] newDepartures = new int[departures.length + 1];
+		int[] newArrivals = new int[arrivals.length + 1];
+		System.arraycopy(departures, 0, newDepartures, 0, at);
+		System.arraycopy(arrivals, 0, newArrivals, 0, at);
+		newDepartures[at] = departure;
+		newArrivals[at] = arrival;
+		System.arraycopy(departures, at, newDepartures, at + 1, departures.length - at);
+		System.arraycopy(arrivals, at, newArrivals, at + 1, arrivals.length - at);
+		return new Departures(newDepartures, newArrivals);
+	}
+
+	/**
+	 * Returns a copy of these flights without the given flight
+	 *
+	 * @param flight The index of the flight to leave out
+	 * @return the flights of this except flight
+	 */
+	public Departures without(int flight) {
+		int[] newDepartures = new int[departures.length - 1];
+		int[] newArrivals = new int[arrivals.length - 1];
+		System.arraycopy(departures, 0, newDepartures, 0, flight);
+		System.arraycopy(arrivals, 0, newArrivals, 0, flight);
+		System.arraycopy(departures, flight + 1, newDepartures, flight, departures.length - flight - 1);
+		System.arraycopy(arrivals, flight + 1, newArrivals, flight, arrivals.length - flight - 1);
+		return new Departures(newDepartures, newArrivals);
+	}
+}
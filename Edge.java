@@ -2,9 +2,12 @@
 
 public class Edge<N, E extends Comparable<E>> {
 
-	private E label;
-	private Node<N, E> from;
-	private Node<N, E> to;
+	private final E label;
+	private final Node<N, E> from;
+	private final Node<N, E> to;
+	
+	/** Every flight along this edge, null if the edge has no timetable */
+	private final Departures flights;
 	
 	/**
 	 * Constructs a new edge
@@ -15,9 +18,23 @@ public class Edge<N, E extends Comparable<E>> {
 	 * @effects Constructs a new edge from Node from to Node to
 	 */
 	public Edge(E label, Node<N, E> from, Node<N, E> to) {
+		this(label, from, to, null);
+	}
+	
+	/**
+	 * Constructs a new edge that carries a timetable
+	 * 
+	 * @param label The label of the edge
+	 * @param from The node where this edge begins
+	 * @param to The node where this edge ends
+	 * @param flights The flights along this edge, may be null
+	 * @effects Constructs a new edge from Node from to Node to
+	 */
+	public Edge(E label, Node<N, E> from, Node<N, E> to, Departures flights) {
 		this.label = label;
 		this.from = from;
 		this.to = to;
+		this.flights = flights;
 		checkRep();
 	}
 	
@@ -60,4 +77,23 @@ public class Edge<N, E extends Comparable<E>> {
 	public N toLabel() {
 		return to.label();
 	}
+	
+	/**
+	 * Returns the node where this edge ends
+	 * 
+	 * @return the node where this edge ends
+	 */
+	public Node<N, E> toNode() {
+		return to;
+	}
+	
+	/**
+	 * Returns the flights along this edge
+	 * 
+	 * @return the flights along this edge, null if
+	 * this edge has no timetable
+	 */
+	public Departures flights() {
+		return this.flights;
+	}
 }
@@ -0,0 +1,330 @@
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <b>FlightUpdates</b> applies live changes to the flights of a
+ * loaded graph: cancellations, new departure and arrival times, and
+ * new flights. Each change builds a new timetable for the one pair of
+ * airports it touches, with departures still in order, and publishes
+ * it in a new version of the graph. Searches never wait: a search that
+ * is already running keeps the version it started with, and the next
+ * one sees the change.
+ * <p>
+ * Changes are serialized among themselves. Only airports already in
+ * the graph can be named. Changes apply to the graph searched by findPath; the
+ * Timetable the other engines scan is left as it was loaded.
+ * <p>
+ * As text, one change per line:
+ * <pre>
+ *   cancel FROM TO DAY:HHMM
+ *   retime FROM TO DAY:HHMM NEW_DAY:NEW_HHMM ARRIVAL_DAY:ARRIVAL_HHMM
+ *   add FROM TO DAY:HHMM ARRIVAL_DAY:ARRIVAL_HHMM
+ * </pre>
+ */
+public class FlightUpdates {
+
+	private Graph<String, Integer> graph;
+	private long applied;
+
+	/**
+	 * Constructs a new FlightUpdates
+	 *
+	 * @param graph The graph to change
+	 * @effects constructs a new FlightUpdates over graph
+	 */
+	public FlightUpdates(Graph<String, Integer> graph) {
+		this.graph = graph;
+	}
+
+	/**
+	 * Cancels a flight
+	 *
+	 * @param from The FAA code of the departure airport
+	 * @param to The FAA code of the arrival airport
+	 * @param departure The encoded departure of the flight
+	 * @modifies graph
+	 * @effects removes one flight from from to to leaving at departure
+	 * @return true if such a flight existed
+	 * @throws IllegalArgumentException if an airport is not in the graph
+	 */
+	public synchronized boolean cancel(String from, String to, int departure) {
+		Departures flights = flights(from, to);
+		int flight = find(flights, departure);
+		if (flight < 0) return false;
+		Departures left = flights.without(flight);
+		graph.replaceDepartures(from, to, label(from, to, left), left);
+		applied++;
+		return true;
+	}
+
+	/**
+	 * Moves a flight to new departure and arrival times
+	 *
+	 * @param from The FAA code of the departure airport
+	 * @param to The FAA code of the arrival airport
+	 * @param departure The encoded departure of the flight
+	 * @param newDeparture The new encoded departure
+	 * @param newArrival The new encoded arrival
+	 * @modifies graph
+	 * @effects moves one flight from from to to leaving at departure
+	 * @return true if such a flight existed
+	 * @throws IllegalArgumentException if an airport is not in the graph
+	 * 		   or newArrival is before newDeparture
+	 */
+	public synchronized boolean retime(String from, String to, int departure, int newDeparture, int newArrival) {
+		check(newDeparture, newArrival);
+		Departures flights = flights(from, to);
+		int flight = find(flights, departure);
+		if (flight < 0) return false;
+		// one swap, so no search sees the flight missing
+		Departures moved = flights.without(flight).with(newDeparture, newArrival);
+		graph.replaceDepartures(from, to, label(from, to, moved), moved);
+		applied++;
+		return true;
+	}
+
+	/**
+	 * Adds a flight
+	 *
+	 * @param from The FAA code of the departure airport
+	 * @param to The FAA code of the arrival airport
+	 * @param departure The encoded departure of the new flight
+	 * @param arrival The encoded arrival of the new flight
+	 * @modifies graph
+	 * @effects adds a flight from from to to, connecting the two
+	 * 			airports if they were not connected
+	 * @throws IllegalArgumentException if an airport is not in the graph
+	 * 		   or arrival is before departure
+	 */
+	public synchronized void add(String from, String to, int departure, int arrival) {
+		check(departure, arrival);
+		Departures flights = flights(from, to);
+		if (flights == null) flights = new Departures(new int[0], new int[0]);
+		Departures added = flights.with(departure, arrival);
+		graph.replaceDepartures(from, to, label(from, to, added), added);
+		applied++;
+	}
+
+	/**
+	 * Applies one change written as text
+	 *
+	 * @param line The change, see the class comment
+	 * @modifies graph
+	 * @return false if the change names a flight that does not exist
+	 * @throws IllegalArgumentException if line is not a change or names
+	 * 		   an unknown airport
+	 */
+	public boolean apply(String line) {
+		String[] tokens = line.trim().split("\\s+");
+		try {
+			switch (tokens[0]) {
+			case "cancel":
+				if (tokens.length != 4) break;
+				return cancel(tokens[1], tokens[2], Timetable.parseTime(tokens[3]));
+			case "retime":
+				if (tokens.length != 6) break;
+				return retime(tokens[1], tokens[2], Timetable.parseTime(tokens[3]), Timetable.parseTime(tokens[4]),
+						Timetable.parseTime(tokens[5]));
+			case "add":
+				if (tokens.length != 5) break;
+				add(tokens[1], tokens[2], Timetable.parseTime(tokens[3]), Timetable.parseTime(tokens[4]));
+				return true;
+			default:
+				break;
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// falls through to the malformed change below
+		}
+		throw new IllegalArgumentException("not a flight change: " + line);
+	}
+
+	/**
+	 * Applies every change read from in
+	 *
+	 * @param in The changes, one per line; blank lines are skipped
+	 * @modifies graph
+	 * @return the number of changes that found their flight
+	 * @throws IOException if in cannot be read
+	 * @throws IllegalArgumentException if a line is not a change
+	 */
+	public int apply(BufferedReader in) throws IOException {
+		int count = 0;
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (!line.isBlank() && apply(line)) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of changes applied so far
+	 *
+	 * @return the number of cancellations, retimings and additions
+	 * 		   that changed the graph
+	 */
+	public synchronized long applied() {
+		return applied;
+	}
+
+	/**
+	 * Returns the flights from from to to
+	 *
+	 * @param from The FAA code of the departure airport
+	 * @param to The FAA code of the arrival airport
+	 * @return the flights between the two, null if there are none
+	 * @throws IllegalArgumentException if an airport is not in the graph
+	 */
+	private Departures flights(String from, String to) {
+		Node<String, Integer> node = graph.getNode(from);
+		if (node == null) throw new IllegalArgumentException("unknown airport " + from);
+		if (!graph.containsNode(to)) throw new IllegalArgumentException("unknown airport " + to);
+		return node.departures(to);
+	}
+
+	/**
+	 * Returns the index of a flight leaving at departure
+	 *
+	 * @param flights The flights to look in, may be null
+	 * @param departure The encoded departure
+	 * @return the index of the first flight leaving at departure, -1
+	 * 		   if there is none
+	 */
+	private static int find(Departures flights, int departure) {
+		if (flights == null) return -1;
+		int flight = flights.next(departure);
+		if (flight == flights.size() || flights.departure(flight) != departure) return -1;
+		return flight;
+	}
+
+	/**
+	 * Returns the label an edge carrying the given flights gets, the
+	 * earliest arrival along it as buildGraph labels edges
+	 *
+	 * @param from The FAA code of the departure airport
+	 * @param to The FAA code of the arrival airport
+	 * @param flights The new flights along the edge
+	 * @return the earliest arrival of flights, the old label of the
+	 * 		   edge if no flight is left
+	 */
+	private Integer label(String from, String to, Departures flights) {
+		int earliest = flights.earliest(Integer.MIN_VALUE);
+		return earliest < 0 ? graph.getEdgeLabel(from, to) : Integer.valueOf(flights.arrival(earliest));
+	}
+
+	/**
+	 * Checks that a flight does not land before it leaves
+	 *
+	 * @param departure The encoded departure
+	 * @param arrival The encoded arrival
+	 * @throws IllegalArgumentException if arrival is before departure
+	 */
+	private static void check(int departure, int arrival) {
+		if (arrival < departure)
+			throw new IllegalArgumentException("arrival " + arrival + " before departure " + departure);
+	}
+
+	/**
+	 * Measures query latency on results.csv with no changes and then
+	 * while random changes are applied at a steady rate
+	 *
+	 * @param args Optional number of seconds for each phase, 3 by default,
+	 * 		  and number of changes per second, 5000 by default
+	 * @throws InterruptedException if interrupted while waiting for queries
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long phase = (args.length > 0 ? Long.parseLong(args[0]) : 3) * 1000000000L;
+		long rate = args.length > 1 ? Long.parseLong(args[1]) : 5000;
+		Timetable.Builder builder = new Timetable.Builder();
+		Program.parseData("results.csv", builder);
+		Timetable timetable = builder.build();
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, timetable);
+		FlightUpdates updates = new FlightUpdates(graph);
+
+		for (int run = 0; run < 2; run++) {
+			AtomicBoolean done = new AtomicBoolean();
+			long[][] latencies = new long[1][];
+			Thread queries = new Thread(() -> latencies[0] = query(graph, timetable, done));
+			queries.start();
+
+			long start = System.nanoTime();
+			long changes = 0;
+			Random random = new Random(run);
+			while (System.nanoTime() - start < phase) {
+				// stay on schedule rather than running flat out
+				if (run == 0 || changes * 1000000000L / rate > System.nanoTime() - start) {
+					Thread.sleep(1);
+					continue;
+				}
+				change(updates, timetable, random);
+				changes++;
+			}
+			done.set(true);
+			queries.join();
+
+			long[] sorted = latencies[0];
+			Arrays.sort(sorted);
+			System.out.printf("%s: %,d changes/s, %,d queries, p50 %d us, p99 %d us%n",
+					run == 0 ? "no changes" : "changing  ", changes * 1000000000L / phase, sorted.length,
+					sorted[sorted.length / 2] / 1000, sorted[(int) (sorted.length * 0.99)] / 1000);
+		}
+	}
+
+	/**
+	 * Runs random queries until done is set
+	 *
+	 * @param graph The graph to search through
+	 * @param timetable The airports to pick from
+	 * @param done Set when the queries should stop
+	 * @return the latency of every query in nanoseconds
+	 */
+	private static long[] query(Graph<String, Integer> graph, Timetable timetable, AtomicBoolean done) {
+		SearchState state = new SearchState(graph.idBound());
+		Random random = new Random(42);
+		long[] latencies = new long[1024];
+		int count = 0;
+		while (!done.get()) {
+			String from = timetable.airport(random.nextInt(timetable.airportCount()));
+			String to = timetable.airport(random.nextInt(timetable.airportCount()));
+			int departure = Timetable.timestamp(12 + random.nextInt(5), random.nextInt(24) * 100);
+			long start = System.nanoTime();
+			Program.findPath(graph, from, to, departure, state);
+			if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+			latencies[count++] = System.nanoTime() - start;
+		}
+		return Arrays.copyOf(latencies, count);
+	}
+
+	/**
+	 * Applies one random change to a flight of the timetable
+	 *
+	 * @param updates The changes to apply through
+	 * @param timetable The flights to pick from
+	 * @param random The source of randomness
+	 */
+	private static void change(FlightUpdates updates, Timetable timetable, Random random) {
+		int c = random.nextInt(timetable.size());
+		String from = timetable.airport(timetable.origin(c));
+		String to = timetable.airport(timetable.destination(c));
+		int departure = timetable.departure(c);
+		int arrival = timetable.arrival(c);
+		int delay = random.nextInt(120);
+		switch (random.nextInt(3)) {
+		case 0:
+			updates.cancel(from, to, departure);
+			break;
+		case 1:
+			updates.retime(from, to, departure, Timetable.fromMinutes(Timetable.minutes(departure) + delay),
+					Timetable.fromMinutes(Timetable.minutes(arrival) + delay));
+			break;
+		default:
+			updates.add(from, to, Timetable.fromMinutes(Timetable.minutes(departure) + delay),
+					Timetable.fromMinutes(Timetable.minutes(arrival) + delay));
+			break;
+		}
+	}
+}
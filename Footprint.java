@@ -0,0 +1,99 @@
+
+/**
+ * A class that reports how much heap the object graph and the
+ * compact graph take for the same timetable: once for the given
+ * data set and once for a synthetic timetable with every flight
+ * repeated ten times a few minutes apart.
+ * <p>
+ * Sizes are measured as the change in used heap across building
+ * each structure, so they are estimates; run with a fixed heap
+ * (e.g. -Xms2g -Xmx2g) for stable numbers.
+ */
+public class Footprint {
+
+	/** How many times each flight is repeated in the synthetic timetable */
+	private static final int SCALE = 10;
+
+	/**
+	 * Prints the heap footprint of Graph and CompactGraph
+	 *
+	 * @param args optional CSV file to load, results.csv by default
+	 */
+	public static void main(String[] args) {
+		Timetable.Builder flights = new Timetable.Builder();
+		Program.parseData(args.length > 0 ? args[0] : "results.csv", flights);
+		Timetable timetable = flights.build();
+
+		report("data set", timetable);
+		report(SCALE + "x synthetic", scale(timetable, SCALE));
+	}
+
+	/**
+	 * Builds both graphs from timetable and prints their sizes
+	 *
+	 * @param name The name to print for this timetable
+	 * @param timetable The flights to build the graphs from
+	 */
+	private static void report(String name, Timetable timetable) {
+		long before = usedHeap();
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, timetable);
+		long objects = usedHeap() - before;
+
+		before = usedHeap();
+		CompactGraph compact = new CompactGraph(timetable);
+		long arrays = usedHeap() - before;
+
+		System.out.println(name + ": " + timetable.airportCount() + " airports, "
+				+ compact.edgeCount() + " edges, " + compact.flightCount() + " flights");
+		System.out.println("  Graph        " + kilobytes(objects));
+		System.out.println("  CompactGraph " + kilobytes(arrays));
+
+		// keep both graphs reachable until they have been measured
+		if (graph.size() != compact.nodeCount()) throw new IllegalStateException("graphs disagree");
+	}
+
+	/**
+	 * Returns a timetable in which every flight of timetable is
+	 * repeated times times, each copy shifted by three minutes
+	 *
+	 * @param timetable The flights to repeat
+	 * @param times The number of copies of each flight
+	 * @return the synthetic timetable
+	 */
+	private static Timetable scale(Timetable timetable, int times) {
+		Timetable.Builder flights = new Timetable.Builder();
+		for (int c = 0; c < timetable.size(); c++) {
+			int departure = Timetable.minutes(timetable.departure(c));
+			int arrival = Timetable.minutes(timetable.arrival(c));
+			for (int k = 0; k < times; k++) {
+				flights.add(timetable.airport(timetable.origin(c)), timetable.airport(timetable.destination(c)),
+						Timetable.fromMinutes(departure + 3 * k), Timetable.fromMinutes(arrival + 3 * k));
+			}
+		}
+		return flights.build();
+	}
+
+	/**
+	 * Returns the used heap after asking for a few collections
+	 *
+	 * @return the number of bytes in use
+	 */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Formats a number of bytes as kilobytes
+	 *
+	 * @param bytes The number of bytes
+	 * @return bytes in KB
+	 */
+	private static String kilobytes(long bytes) {
+		return String.format("%,10d KB", bytes / 1024);
+	}
+}
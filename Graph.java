@@ -1,5 +1,4 @@
 
-
 import java.util.*;
 
 /**
@@ -13,17 +12,33 @@ import java.util.*;
  * (B to D, 2), (A to D, 3), and (D to A, 4). C is unreachable 
  * because no nodes have edges to it. There is a cycle in the 
  * path A to D to A 
+ * <p>
+ * The graph is a series of immutable versions. Every change builds
+ * the next version, sharing every node it does not touch with the
+ * one before, and publishes it with a single write; current()
+ * returns the latest version with a single read. Readers therefore 
+ * never lock and never see a change half made, and a search that
+ * holds one version sees the same graph from start to end. Changes
+ * are serialized among themselves.
+ * <p>
+ * The price is paid by writers: a change copies the edges of the
+ * node it touches and the array of every node, so it takes time
+ * linear in the degree of that node plus the number of nodes.
+ * <p>
+ * Large graphs are best loaded through a Builder and addAll, which 
+ * publish every node and edge in one version and check the whole 
+ * graph once, instead of once per change.
  */
 public class Graph<N, E extends Comparable<E>> {
 
-	/** Holds all the Nodes in this List */
-	private Map<N, Node<N, E>> nodes;
+	/** The latest version, replaced as a whole on every change */
+	private volatile Version<N, E> current;
 	
 	/**
      * @effects Constructs a new Graph with no nodes.
      */
 	public Graph() {
-		this.nodes = new HashMap<N, Node<N, E>>();
+		this.current = new Version<N, E>(new HashMap<N, Integer>(), newIndex(0), 0);
 		checkRep();
 	}
 	
@@ -31,25 +46,80 @@ public class Graph<N, E extends Comparable<E>> {
      * Checks that the representation invariant holds (if any).
      **/
 	private void checkRep() {
-		assert (nodes != null);
+		Version<N, E> version = current;
+		assert (version != null);
 	    
-	    for (N node : nodes.keySet()) {
-	    		Node<N, E> currentNode = nodes.get(node);
+	    for (N node : version.ids.keySet()) {
+	    		Node<N, E> currentNode = version.index[version.ids.get(node)];
 			assert (currentNode != null) : "graph cannot contain null nodes";
-	        assert (currentNode.label() != null) : "graph cannot contain null labeled nodes";
+	        assert (currentNode.label().equals(node)) : "nodes must be indexed by label";
 	    }
 	}
 	
+	/**
+	 * Returns the latest version of this graph
+	 * 
+	 * @return the current version, which never changes
+	 */
+	public Version<N, E> current() {
+		return current;
+	}
+	
 	/**
 	 * Add node element to graph
 	 * 
 	 * @param label The label of the Node to be added to the graph
-	 * @modifies this.nodes
+	 * @modifies this
 	 * @effects adds n to nodes
 	 */
-	public void addNode(N label) {
-		if (!containsNode(label))
-			this.nodes.put(label, new Node<N, E>(label));
+	public synchronized void addNode(N label) {
+		Version<N, E> version = current;
+		if (!version.ids.containsKey(label)) {
+			Map<N, Integer> ids = new HashMap<N, Integer>(version.ids);
+			Node<N, E>[] index = Arrays.copyOf(version.index, version.index.length + 1);
+			index[version.index.length] = new Node<N, E>(label, version.index.length);
+			ids.put(label, version.index.length);
+			current = new Version<N, E>(ids, index, version.number + 1);
+		}
+		// only the new node; checking every node here would make loading quadratic
+		assert (current.getNode(label) != null && current.getNode(label).label().equals(label));
+	}
+	
+	/**
+	 * Adds every node and edge collected by a builder, 
+	 * publishing them all in a single version. Nodes already
+	 * in the graph keep their id and gain the new edges; edges
+	 * that name a node in neither are skipped.
+	 * 
+	 * @param builder The nodes and edges to add
+	 * @modifies this
+	 * @effects adds every node and edge of builder
+	 */
+	public synchronized void addAll(Builder<N, E> builder) {
+		Version<N, E> version = current;
+		Map<N, Integer> ids = new HashMap<N, Integer>(version.ids);
+		Node<N, E>[] index = Arrays.copyOf(version.index, version.index.length + builder.labels.size());
+		int next = version.index.length;
+		for (N label : builder.labels) {
+			if (ids.containsKey(label)) continue;
+			index[next] = new Node<N, E>(label, next);
+			ids.put(label, next++);
+		}
+		index = Arrays.copyOf(index, next);
+		
+		// group the edges by the node they begin at, to copy every node once
+		Map<Integer, List<Edge<N, E>>> added = new HashMap<Integer, List<Edge<N, E>>>();
+		for (Builder.Connection<N, E> connection : builder.connections) {
+			Integer from = ids.get(connection.from);
+			Integer to = ids.get(connection.to);
+			if (from == null || to == null) continue;
+			added.computeIfAbsent(from, k -> new ArrayList<Edge<N, E>>())
+				.add(new Edge<N, E>(connection.label, index[from], index[to], connection.flights));
+		}
+		for (Map.Entry<Integer, List<Edge<N, E>>> entry : added.entrySet()) {
+			index[entry.getKey()] = index[entry.getKey()].connectAll(entry.getValue());
+		}
+		current = new Version<N, E>(ids, index, version.number + 1);
 		checkRep();
 	}
 	
@@ -57,12 +127,17 @@ public class Graph<N, E extends Comparable<E>> {
 	 * Remove node element from graph
 	 * 
 	 * @param n The label of the Node to be removed from the graph
-	 * @modifies this.nodes
+	 * @modifies this
 	 * @effects removes n from nodes
 	 */
-	public void removeNode(N label) {
-		if (containsNode(label))
-			this.nodes.remove(label);
+	public synchronized void removeNode(N label) {
+		Version<N, E> version = current;
+		if (version.ids.containsKey(label)) {
+			Map<N, Integer> ids = new HashMap<N, Integer>(version.ids);
+			Node<N, E>[] index = version.index.clone();
+			index[ids.remove(label)] = null;
+			current = new Version<N, E>(ids, index, version.number + 1);
+		}
 	}
 	
 	/**
@@ -71,28 +146,88 @@ public class Graph<N, E extends Comparable<E>> {
 	 * @param from The label of the node from where the edge starts
 	 * @param to The label of the node where the edge ends
 	 * @param label The label of the edge
-	 * @modifies nodes.get(from).neighbors
+	 * @modifies this
 	 * @effects adds a child to the node specified in the
 	 * 			from parameter with the label, label
 	 */
 	public void connectNodes(N from, N to, E label) {
-		if (!nodes.containsKey(from) || !nodes.containsKey(to)) return;
-		Node<N, E> toNode = nodes.get(to);
-		nodes.get(from).connect(label, toNode);
+		connectNodes(from, to, label, null);
 	}
 	
 	/**
-	 * Removes an edge between two nodes
+	 * Creates an edge between two nodes that carries
+	 * every flight between them
+	 * 
+	 * @param from The label of the node from where the edge starts
+	 * @param to The label of the node where the edge ends
+	 * @param label The label of the edge
+	 * @param flights The flights along the edge, may be null
+	 * @modifies this
+	 * @effects adds a child to the node specified in the
+	 * 			from parameter with the label, label
+	 */
+	public synchronized void connectNodes(N from, N to, E label, Departures flights) {
+		Version<N, E> version = current;
+		Node<N, E> fromNode = version.getNode(from);
+		Node<N, E> toNode = version.getNode(to);
+		if (fromNode == null || toNode == null) return;
+		replace(version, fromNode.connect(label, toNode, flights));
+	}
+	
+	/**
+	 * Replaces every flight between two nodes and relabels
+	 * their edge, adding the edge if there is none yet. Searches
+	 * that are running keep seeing the flights they started with.
+	 * Takes time linear in the edges of from plus the number
+	 * of nodes, see replace.
+	 * 
+	 * @param from The label of the node from where the edge starts
+	 * @param to The label of the node where the edge ends
+	 * @param label The new label of the edge
+	 * @param flights The new flights along the edge
+	 * @modifies this
+	 * @effects the edge from from to to is labeled label and
+	 * 			carries flights
+	 */
+	public synchronized void replaceDepartures(N from, N to, E label, Departures flights) {
+		Version<N, E> version = current;
+		Node<N, E> fromNode = version.getNode(from);
+		Node<N, E> toNode = version.getNode(to);
+		if (fromNode == null || toNode == null) return;
+		replace(version, fromNode.replaceDepartures(label, toNode, flights));
+	}
+	
+	/**
+	 * Removes an edge between two nodes. Takes time linear in
+	 * the edges of from plus the number of nodes, see replace.
 	 * 
 	 * @param from The node whose edge to remove
 	 * @param to The node to which the edge leads
-	 * @modifies nodes.get(from).neighbors
+	 * @modifies this
 	 * @effects removes edge going from from to
 	 *          to
 	 */
-	public void disconnectNodes(N from, N to) {
-		if (!nodes.containsKey(from) || !nodes.containsKey(to)) return;
-		nodes.get(from).disconnect(to);
+	public synchronized void disconnectNodes(N from, N to) {
+		Version<N, E> version = current;
+		Node<N, E> fromNode = version.getNode(from);
+		if (fromNode == null || !version.ids.containsKey(to)) return;
+		replace(version, fromNode.disconnect(to));
+	}
+	
+	/**
+	 * Publishes the version after the given one with one node
+	 * replaced, sharing every other node. The node index is
+	 * copied, so this takes time linear in the number of nodes
+	 * 
+	 * @param version The current version
+	 * @param node The new node, with the id of the node it replaces
+	 * @modifies this
+	 * @effects current is version with node in place of its old self
+	 */
+	private void replace(Version<N, E> version, Node<N, E> node) {
+		Node<N, E>[] index = version.index.clone();
+		index[node.id()] = node;
+		current = new Version<N, E>(version.ids, index, version.number + 1);
 	}
 
 	/**
@@ -103,7 +238,7 @@ public class Graph<N, E extends Comparable<E>> {
 	 * @return true if this graph contains node with label
 	 */
 	public boolean containsNode(N label) {
-		return nodes.containsKey(label);
+		return current.ids.containsKey(label);
 	}
 
 	/**
@@ -115,10 +250,10 @@ public class Graph<N, E extends Comparable<E>> {
 	 * @return true if the edge exists in the graph
 	 */
 	public boolean areNeighbors(N from, N to) {
-		if (!nodes.containsKey(from) || !nodes.containsKey(to)) 
+		Version<N, E> version = current;
+		if (!version.ids.containsKey(from) || !version.ids.containsKey(to)) 
 			return false;
-		Node<N, E> fromNode = nodes.get(from);
-		return fromNode.neighbors().contains(to.toString());
+		return version.getNode(from).hasEdge(to);
 	}
 	
 	/**
@@ -130,7 +265,7 @@ public class Graph<N, E extends Comparable<E>> {
 	 * has an edge to
 	 */
 	public List<String> getNeighbors(N from) {
-		Node<N, E> fromNode = nodes.get(from);
+		Node<N, E> fromNode = current.getNode(from);
 		return fromNode.getNeighbors();
 	}
 	
@@ -143,9 +278,10 @@ public class Graph<N, E extends Comparable<E>> {
 	 * 		   null otherwise
 	 */
 	public E getEdgeLabel(N from, N to) {
-		if (!nodes.containsKey(from) || !nodes.containsKey(to)) 
+		Version<N, E> version = current;
+		if (!version.ids.containsKey(from) || !version.ids.containsKey(to)) 
 			return null;
-		Node<N, E> fromNode = nodes.get(from);
+		Node<N, E> fromNode = version.getNode(from);
 		return fromNode.edgeLabel(to);
 	}
 	
@@ -155,7 +291,7 @@ public class Graph<N, E extends Comparable<E>> {
 	 * @return the number of nodes in the graph
 	 */
 	public int size() {
-		return nodes.size();
+		return current.size();
 	}
 	
 	/**
@@ -165,8 +301,8 @@ public class Graph<N, E extends Comparable<E>> {
 	 */
 	public int edgeCount() {
 		int sum = 0;
-		for (N node : nodes.keySet()) {
-			sum += nodes.get(node).edgeCount();
+		for (Node<N, E> node : current.index) {
+			if (node != null) sum += node.edgeCount();
 		}
 		return sum;
 	}
@@ -181,7 +317,7 @@ public class Graph<N, E extends Comparable<E>> {
 	public String nodes() {
 		String nodeString = "";
 		boolean first = true;
-		for (N node : nodes.keySet()) {
+		for (N node : current.ids.keySet()) {
 			if (!first) nodeString += " ";
 			else first = false;
 			nodeString += node.toString();
@@ -200,15 +336,215 @@ public class Graph<N, E extends Comparable<E>> {
 	 * in the graph represented s a String
 	 */
 	public String neighbors(N label) {
-		Node<N, E> node = nodes.get(label);
+		Node<N, E> node = current.getNode(label);
 		return node.neighbors();
 	}
 
 	public Node<N, E> getNode(N from) {
-		if (!nodes.containsKey(from)) return null;
-		return nodes.get(from);
+		return current.getNode(from);
+	}
+	
+	/**
+	 * Returns the node with the given id
+	 * 
+	 * @param id The id of the node, between 0 and idBound() - 1
+	 * @return the node with id, null if it has been removed
+	 */
+	public Node<N, E> getNode(int id) {
+		return current.getNode(id);
 	}
 	
+	/**
+	 * Returns the number of changes made to this graph so far.
+	 * Every call to addNode, removeNode, connectNodes, 
+	 * replaceDepartures or disconnectNodes that changes the 
+	 * graph increases it.
+	 * 
+	 * @return the version of this graph
+	 */
+	public long version() {
+		return current.number();
+	}
+	
+	/**
+	 * Returns one more than the largest id given to a node, so
+	 * that arrays of this length can be indexed by node id
+	 * 
+	 * @return the upper bound of node ids
+	 */
+	public int idBound() {
+		return current.idBound();
+	}
+	
+	/**
+	 * <b>Builder</b> collects nodes and edges to be added to a
+	 * graph all at once with addAll, or to make a new graph with
+	 * build. Nothing is checked until then.
+	 */
+	public static class Builder<N, E extends Comparable<E>> {
+		
+		/** The labels of the nodes in the order they were added */
+		private final List<N> labels = new ArrayList<N>();
+		private final List<Connection<N, E>> connections = new ArrayList<Connection<N, E>>();
+		
+		/**
+		 * Adds a node
+		 * 
+		 * @param label The label of the node
+		 * @modifies this
+		 * @return this builder
+		 */
+		public Builder<N, E> addNode(N label) {
+			labels.add(label);
+			return this;
+		}
+		
+		/**
+		 * Adds an edge that carries every flight between two nodes
+		 * 
+		 * @param from The label of the node the edge starts at
+		 * @param to The label of the node the edge ends at
+		 * @param label The label of the edge
+		 * @param flights The flights along the edge, may be null
+		 * @modifies this
+		 * @return this builder
+		 */
+		public Builder<N, E> connectNodes(N from, N to, E label, Departures flights) {
+			connections.add(new Connection<N, E>(from, to, label, flights));
+			return this;
+		}
+		
+		/**
+		 * Returns a new graph holding every node and edge added
+		 * 
+		 * @return the new graph
+		 */
+		public Graph<N, E> build() {
+			Graph<N, E> graph = new Graph<N, E>();
+			graph.addAll(this);
+			return graph;
+		}
+		
+		/**
+		 * <b>Connection</b> is an edge waiting to be added.
+		 */
+		private static class Connection<N, E> {
+			
+			private final N from;
+			private final N to;
+			private final E label;
+			private final Departures flights;
+			
+			/**
+			 * Constructs a new Connection
+			 * 
+			 * @param from The label of the node the edge starts at
+			 * @param to The label of the node the edge ends at
+			 * @param label The label of the edge
+			 * @param flights The flights along the edge, may be null
+			 * @effects constructs a new Connection
+			 */
+			private Connection(N from, N to, E label, Departures flights) {
+				this.from = from;
+				this.to = to;
+				this.label = label;
+				this.flights = flights;
+			}
+		}
+	}
 	
+	/**
+	 * Returns an empty array of nodes
+	 * 
+	 * @param length The length of the array
+	 * @return a new array of length nulls
+	 */
+	@SuppressWarnings("unchecked")
+	private static <N, E extends Comparable<E>> Node<N, E>[] newIndex(int length) {
+		return (Node<N, E>[]) new Node<?, ?>[length];
+	}
 	
-}
\ No newline at end of file
+	/**
+	 * <b>Version</b> is one immutable state of a Graph: its nodes by
+	 * label and by id, and the number of changes that led to it. 
+	 * Nodes and their edges never change once published, so a 
+	 * version can be read by any number of threads without locking.
+	 * <p>
+	 * An edge leads to the node as it was when the edge was made; 
+	 * look the target up by id in the version being searched to 
+	 * follow its current edges.
+	 */
+	public static class Version<N, E extends Comparable<E>> {
+		
+		/** The id of every node by label; never modified once published */
+		private final Map<N, Integer> ids;
+		
+		/** Every node ever added at the position of its id, null once removed */
+		private final Node<N, E>[] index;
+		
+		private final long number;
+		
+		/**
+		 * Constructs a new Version
+		 * 
+		 * @param ids The id of every node by label
+		 * @param index The nodes by id
+		 * @param number The number of changes that led to this version
+		 * @effects constructs a new Version that owns ids and index
+		 */
+		private Version(Map<N, Integer> ids, Node<N, E>[] index, long number) {
+			this.ids = ids;
+			this.index = index;
+			this.number = number;
+		}
+		
+		/**
+		 * Returns the node with the given label
+		 * 
+		 * @param label The label of the node
+		 * @return the node, null if it is not in this version
+		 */
+		public Node<N, E> getNode(N label) {
+			Integer id = ids.get(label);
+			return id == null ? null : index[id];
+		}
+		
+		/**
+		 * Returns the node with the given id
+		 * 
+		 * @param id The id of the node, between 0 and idBound() - 1
+		 * @return the node with id, null if it has been removed
+		 */
+		public Node<N, E> getNode(int id) {
+			return index[id];
+		}
+		
+		/**
+		 * Returns the number of nodes in this version
+		 * 
+		 * @return the number of nodes
+		 */
+		public int size() {
+			return ids.size();
+		}
+		
+		/**
+		 * Returns one more than the largest id given to a node
+		 * 
+		 * @return the upper bound of node ids
+		 */
+		public int idBound() {
+			return index.length;
+		}
+		
+		/**
+		 * Returns the number of changes made to the graph up to
+		 * this version
+		 * 
+		 * @return the version number
+		 */
+		public long number() {
+			return number;
+		}
+	}
+}
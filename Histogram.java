@@ -0,0 +1,155 @@
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <b>Histogram</b> counts non-negative values, such as latencies in
+ * nanoseconds, in buckets that grow with the value: values below 64
+ * are counted exactly, and every larger value lands in a bucket less
+ * than 1/64 of it wide. Percentiles are therefore within 1.6% of the
+ * true value whatever its magnitude, in a fixed 29 KB.
+ * <p>
+ * Any number of threads may record at once without locking.
+ */
+public class Histogram {
+
+	/** Each power of two is split into 2^SUB_BITS buckets */
+	private static final int SUB_BITS = 6;
+	private static final int SUB = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	// Abstraction Function:
+	// AF(this) = the multiset of recorded values, where counts[i] values fell
+	//			  in bucket i, count values in total, summing to sum, the
+	//			  largest of which is max
+	// Representation Invariant = count is the sum of counts, up to records
+	//			  in progress
+
+	/**
+	 * Records one value
+	 *
+	 * @param value The value, negative values are recorded as 0
+	 * @modifies this
+	 */
+	public void record(long value) {
+		if (value < 0) value = 0;
+		counts.incrementAndGet(index(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Records one value measured by a client that meant to send a
+	 * request every expectedInterval, correcting for coordinated
+	 * omission: a value longer than the interval held back the requests
+	 * that were due while it lasted, so each of them is recorded too,
+	 * with the shorter wait it would have seen
+	 *
+	 * @param value The value, negative values are recorded as 0
+	 * @param expectedInterval The time meant to pass between requests,
+	 * 		  in the unit of value; 0 or less records value alone
+	 * @modifies this
+	 */
+	public void recordCorrected(long value, long expectedInterval) {
+		record(value);
+		if (expectedInterval <= 0) return;
+		for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+			record(missed);
+		}
+	}
+
+	/**
+	 * Returns the number of values recorded
+	 *
+	 * @return the count
+	 */
+	public long count() {
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean of the values recorded
+	 *
+	 * @return the mean, 0 if nothing was recorded
+	 */
+	public double mean() {
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the largest value recorded
+	 *
+	 * @return the maximum, 0 if nothing was recorded
+	 */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the value below which the given fraction of the recorded
+	 * values fall
+	 *
+	 * @param quantile The fraction, between 0 and 1, e.g. 0.99 for p99
+	 * @return the largest value of the bucket the quantile falls in,
+	 * 		   never more than max(); 0 if nothing was recorded
+	 * @throws IllegalArgumentException if quantile is not between 0 and 1
+	 */
+	public long percentile(double quantile) {
+		if (!(quantile >= 0 && quantile <= 1))
+			throw new IllegalArgumentException("quantile must be between 0 and 1: " + quantile);
+		long n = count.get();
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(quantile * n));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(highest(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every value recorded
+	 *
+	 * @modifies this
+	 * @effects this is empty
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Returns the bucket of the given value
+	 *
+	 * @param value A non-negative value
+	 * @return the index of its bucket
+	 */
+	private static int index(long value) {
+		if (value < SUB) return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return (shift + 1) * SUB + (int) (value >>> shift) - SUB;
+	}
+
+	/**
+	 * Returns the largest value that falls in the given bucket
+	 *
+	 * @param index The index of a bucket
+	 * @return the upper end of the bucket
+	 */
+	private static long highest(int index) {
+		if (index < SUB) return index;
+		int shift = index / SUB - 1;
+		return ((long) (index % SUB + SUB + 1) << shift) - 1;
+	}
+}
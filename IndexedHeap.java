@@ -0,0 +1,231 @@
+
+import java.util.Arrays;
+
+/**
+ * <b>IndexedHeap</b> is a min-heap of int ids, such as airport ids,
+ * each with an int priority. The heap knows where every id sits, so
+ * pushing an id that is already in it changes its priority in place:
+ * the heap never holds an id twice and never needs stale entries
+ * skipped. Ties are broken by the smaller id.
+ * <p>
+ * The heap is 4-ary: half as deep as a binary heap, with the four
+ * children of a slot next to each other in memory, which makes
+ * pushes and decreases cheaper at little cost to polls.
+ */
+public class IndexedHeap {
+
+	private static final int ARITY = 4;
+
+	/** The ids in heap order */
+	private int[] heap;
+
+	/** keys[u] is the priority of u while it is in the heap */
+	private int[] keys;
+
+	/** position[u] is the slot of u in heap, -1 if u is not in it */
+	private int[] position;
+
+	private int size;
+
+	// Abstraction Function:
+	// AF(this) = the set of ids heap[0..size), id u with priority keys[u]
+	// Representation Invariant = position[heap[i]] == i for i < size, and
+	//			  position[u] == -1 for every other u; no slot orders before
+	//			  its parent by (key, id)
+
+	/**
+	 * Constructs a new IndexedHeap
+	 *
+	 * @param ids The number of ids to size the heap for, 0 to
+	 * 		  ids - 1; it grows with ensureCapacity
+	 * @effects constructs a new, empty IndexedHeap
+	 */
+	public IndexedHeap(int ids) {
+		this.heap = new int[ids];
+		this.keys = new int[ids];
+		this.position = new int[ids];
+		Arrays.fill(position, -1);
+		this.size = 0;
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds
+	 */
+	private void checkRep() {
+		assert heap.length == keys.length && heap.length == position.length;
+		for (int i = 1; i < size; i++) {
+			assert position[heap[i]] == i : "positions must match slots";
+			assert !less(heap[i], heap[(i - 1) / ARITY]) : "heap order";
+		}
+	}
+
+	/**
+	 * Makes room for the ids 0 to ids - 1
+	 *
+	 * @param ids The number of ids the heap must hold
+	 * @modifies this
+	 */
+	public void ensureCapacity(int ids) {
+		if (ids <= position.length) return;
+		int old = position.length;
+		heap = Arrays.copyOf(heap, ids);
+		keys = Arrays.copyOf(keys, ids);
+		position = Arrays.copyOf(position, ids);
+		Arrays.fill(position, old, ids, -1);
+	}
+
+	/**
+	 * Returns the number of ids in the heap
+	 *
+	 * @return the size of the heap
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if the heap holds no id
+	 *
+	 * @return true if the heap is empty
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns true if the given id is in the heap
+	 *
+	 * @param id The id, below the capacity
+	 * @return true if id is in the heap
+	 */
+	public boolean contains(int id) {
+		return position[id] >= 0;
+	}
+
+	/**
+	 * Returns the priority of the given id
+	 *
+	 * @requires contains(id)
+	 * @param id The id
+	 * @return the priority id was last pushed with
+	 */
+	public int key(int id) {
+		return keys[id];
+	}
+
+	/**
+	 * Adds the given id with the given priority, or changes its
+	 * priority if it is already in the heap
+	 *
+	 * @param id The id, below the capacity
+	 * @param key The priority; smaller is polled first
+	 * @modifies this
+	 * @effects id is in the heap with priority key
+	 */
+	public void push(int id, int key) {
+		int i = position[id];
+		if (i < 0) {
+			i = size++;
+			heap[i] = id;
+			position[id] = i;
+			keys[id] = key;
+			siftUp(i);
+		} else if (key < keys[id]) {
+			keys[id] = key;
+			siftUp(i);
+		} else {
+			keys[id] = key;
+			siftDown(i);
+		}
+	}
+
+	/**
+	 * Removes the id with the smallest priority
+	 *
+	 * @modifies this
+	 * @return the removed id, -1 if the heap is empty
+	 */
+	public int poll() {
+		if (size == 0) return -1;
+		int min = heap[0];
+		position[min] = -1;
+		int last = heap[--size];
+		if (size > 0) {
+			heap[0] = last;
+			position[last] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	/**
+	 * Removes every id
+	 *
+	 * @modifies this
+	 * @effects this is empty; costs the number of ids removed
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i++) {
+			position[heap[i]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Moves the id in slot i towards the root until its parent is
+	 * not larger
+	 *
+	 * @param i The slot
+	 * @modifies this
+	 */
+	private void siftUp(int i) {
+		int id = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) / ARITY;
+			if (!less(id, heap[parent])) break;
+			heap[i] = heap[parent];
+			position[heap[i]] = i;
+			i = parent;
+		}
+		heap[i] = id;
+		position[id] = i;
+	}
+
+	/**
+	 * Moves the id in slot i towards the leaves until no child is
+	 * smaller
+	 *
+	 * @param i The slot
+	 * @modifies this
+	 */
+	private void siftDown(int i) {
+		int id = heap[i];
+		while (true) {
+			int first = i * ARITY + 1;
+			if (first >= size) break;
+			int smallest = first;
+			int end = Math.min(first + ARITY, size);
+			for (int c = first + 1; c < end; c++) {
+				if (less(heap[c], heap[smallest])) smallest = c;
+			}
+			if (!less(heap[smallest], id)) break;
+			heap[i] = heap[smallest];
+			position[heap[i]] = i;
+			i = smallest;
+		}
+		heap[i] = id;
+		position[id] = i;
+	}
+
+	/**
+	 * Returns true if id a is polled before id b
+	 *
+	 * @param a An id in the heap
+	 * @param b An id in the heap
+	 * @return true if a has the smaller (key, id)
+	 */
+	private boolean less(int a, int b) {
+		return keys[a] < keys[b] || (keys[a] == keys[b] && a < b);
+	}
+}
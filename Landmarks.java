@@ -0,0 +1,424 @@
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * <b>Landmarks</b> holds lower bounds on the time it takes to get
+ * from any airport to any other, used as potentials for goal-directed
+ * search. Every airport pair is weighted with its shortest flight,
+ * and shortest distances under those weights are computed once to
+ * and from a few landmark airports. By the triangle inequality,
+ * d(L, t) - d(L, v) and d(v, L) - d(t, L) never exceed the time from v
+ * to t, whatever the departure, since waiting only adds time (ALT).
+ * <p>
+ * Optionally, airport coordinates and UTC offsets add a great-circle
+ * bound: the distance to the destination at the fastest speed any
+ * flight of the data set is consistent with, corrected for the change
+ * of time zone since times are local.
+ * <p>
+ * Every bound is consistent, so a search ordered by arrival plus
+ * bound settles each airport at its earliest arrival, as Dijkstra
+ * does, and returns the same arrivals. Bounds are only valid for the
+ * version of the graph they were computed on.
+ */
+public class Landmarks {
+
+	/** Marks a distance to an unreachable airport */
+	private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+	/** The mean radius of the earth in km */
+	private static final double EARTH_KM = 6371.0;
+
+	private Graph<String, Integer> graph;
+	private long version;
+	private int[] landmarks;
+
+	/** forward[l][v] = d(landmarks[l], v) in minutes */
+	private int[][] forward;
+
+	/** backward[l][v] = d(v, landmarks[l]) in minutes */
+	private int[][] backward;
+
+	/** Great-circle data by node id, null if no coordinates were loaded */
+	private double[] latitudes;
+	private double[] longitudes;
+	private int[] offsets;
+	private boolean[] located;
+	private double minutesPerKm;
+
+	// Abstraction Function:
+	// AF(this) = lower bounds on travel time in graph as of version, from
+	//			  landmarks through forward and backward and, if latitudes
+	//			  != null, from the great circle at minutesPerKm minutes per km
+	// Representation Invariant = forward and backward hold one array of
+	//			  graph.idBound() distances per landmark
+
+	/**
+	 * Constructs new Landmarks
+	 *
+	 * @param graph The graph the bounds are for
+	 * @param landmarks The ids of the landmark airports
+	 * @param forward The distances from each landmark
+	 * @param backward The distances to each landmark
+	 * @effects constructs new Landmarks
+	 */
+	private Landmarks(Graph<String, Integer> graph, long version, int[] landmarks, int[][] forward,
+			int[][] backward) {
+		this.graph = graph;
+		this.version = version;
+		this.landmarks = landmarks;
+		this.forward = forward;
+		this.backward = backward;
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds
+	 */
+	private void checkRep() {
+		assert forward.length == landmarks.length && backward.length == landmarks.length;
+		for (int l = 0; l < landmarks.length; l++) {
+			assert forward[l].length == graph.idBound() && backward[l].length == graph.idBound();
+		}
+	}
+
+	/**
+	 * Computes bounds for the given graph, choosing count landmarks
+	 * that lie far from each other
+	 *
+	 * @param graph The graph to bound travel times in
+	 * @param count The number of landmarks
+	 * @return the bounds for the current version of graph
+	 */
+	public static Landmarks compute(Graph<String, Integer> graph, int count) {
+		Graph.Version<String, Integer> current = graph.current();
+		int n = current.idBound();
+		int[][] out = new int[n][];
+		int[][] outWeights = new int[n][];
+		int[][] in = new int[n][];
+		int[][] inWeights = new int[n][];
+		adjacency(current, out, outWeights, in, inWeights);
+
+		count = Math.min(count, current.size());
+		int[] landmarks = new int[count];
+		int[][] forward = new int[count][];
+		int[][] backward = new int[count][];
+		SearchState state = new SearchState(n);
+
+		// start at the airport with the most pairs, then keep taking the
+		// airport furthest from every landmark chosen so far
+		int next = -1;
+		for (int v = 0; v < n; v++) {
+			if (current.getNode(v) != null && (next < 0 || out[v].length > out[next].length)) next = v;
+		}
+		for (int l = 0; l < count; l++) {
+			landmarks[l] = next;
+			forward[l] = distances(next, out, outWeights, state);
+			backward[l] = distances(next, in, inWeights, state);
+
+			next = -1;
+			long furthest = -1;
+			for (int v = 0; v < n; v++) {
+				if (current.getNode(v) == null) continue;
+				long nearest = Long.MAX_VALUE;
+				for (int k = 0; k <= l; k++) {
+					nearest = Math.min(nearest, (long) forward[k][v] + backward[k][v]);
+				}
+				if (nearest > furthest) {
+					furthest = nearest;
+					next = v;
+				}
+			}
+		}
+		return new Landmarks(graph, current.number(), landmarks, forward, backward);
+	}
+
+	/**
+	 * Fills the adjacency of graph in both directions, weighting every
+	 * pair with the duration of its shortest flight in minutes
+	 *
+	 * @param graph The version of the graph to read
+	 * @param out out[u] receives the ids u has a flight to
+	 * @param outWeights outWeights[u] receives the weight of each of out[u]
+	 * @param in in[v] receives the ids with a flight to v
+	 * @param inWeights inWeights[v] receives the weight of each of in[v]
+	 * @modifies out, outWeights, in, inWeights
+	 */
+	private static void adjacency(Graph.Version<String, Integer> graph, int[][] out, int[][] outWeights, int[][] in,
+			int[][] inWeights) {
+		int n = out.length;
+		int[] inCount = new int[n];
+		for (int u = 0; u < n; u++) {
+			Node<String, Integer> node = graph.getNode(u);
+			int edges = node == null ? 0 : node.edgeCount();
+			out[u] = new int[edges];
+			outWeights[u] = new int[edges];
+			int count = 0;
+			for (int i = 0; i < edges; i++) {
+				Edge<String, Integer> edge = node.edge(i);
+				int weight = shortest(edge.flights());
+				if (weight == UNREACHABLE || graph.getNode(edge.toNode().id()) == null) continue;
+				out[u][count] = edge.toNode().id();
+				outWeights[u][count++] = weight;
+				inCount[edge.toNode().id()]++;
+			}
+			out[u] = Arrays.copyOf(out[u], count);
+			outWeights[u] = Arrays.copyOf(outWeights[u], count);
+		}
+		for (int v = 0; v < n; v++) {
+			in[v] = new int[inCount[v]];
+			inWeights[v] = new int[inCount[v]];
+			inCount[v] = 0;
+		}
+		for (int u = 0; u < n; u++) {
+			for (int i = 0; i < out[u].length; i++) {
+				int v = out[u][i];
+				in[v][inCount[v]] = u;
+				inWeights[v][inCount[v]++] = outWeights[u][i];
+			}
+		}
+	}
+
+	/**
+	 * Returns the duration of the shortest of the given flights
+	 *
+	 * @param flights The flights along an edge, null if it has no timetable
+	 * @return the shortest duration in minutes, 0 if the edge has no
+	 * 		   timetable, UNREACHABLE if it has no flights
+	 */
+	private static int shortest(Departures flights) {
+		if (flights == null) return 0;
+		int shortest = UNREACHABLE;
+		for (int i = 0; i < flights.size(); i++) {
+			shortest = Math.min(shortest, Timetable.minutes(flights.arrival(i)) - Timetable.minutes(flights.departure(i)));
+		}
+		return shortest;
+	}
+
+	/**
+	 * Returns the shortest distances from source along the given
+	 * adjacency
+	 *
+	 * @param source The id to start from
+	 * @param adjacency The neighbors of every id
+	 * @param weights The weight of every neighbor
+	 * @param state The labels to search with
+	 * @modifies state
+	 * @return the distance of every id from source, UNREACHABLE if none
+	 */
+	private static int[] distances(int source, int[][] adjacency, int[][] weights, SearchState state) {
+		int n = adjacency.length;
+		state.reset(n);
+		state.reach(source, 0, -1, -1);
+		state.push(source);
+		int node;
+		while ((node = state.poll()) >= 0) {
+			int distance = state.arrival(node);
+			for (int i = 0; i < adjacency[node].length; i++) {
+				int next = adjacency[node][i];
+				if (distance + weights[node][i] < state.arrival(next)) {
+					state.reach(next, distance + weights[node][i], node, -1);
+					state.push(next);
+				}
+			}
+		}
+		int[] distances = new int[n];
+		for (int v = 0; v < n; v++) {
+			distances[v] = state.arrival(v);
+		}
+		return distances;
+	}
+
+	/**
+	 * Adds great-circle bounds from a file of airport positions
+	 *
+	 * @param filename A CSV file with header AIRPORT,LAT,LON,UTC_OFFSET,
+	 * 		  latitude and longitude in degrees and the offset from UTC
+	 * 		  in hours of the local times the flights are given in
+	 * @param kmh The top speed assumed for any flight; lowered if the
+	 * 		  data set has a flight that beats it
+	 * @modifies this
+	 * @effects bounds gain the great-circle bound for the airports in
+	 * 			the file, unless the local times of some flight contradict
+	 * 			the offsets, in which case nothing changes
+	 * @return true if the great-circle bound is in use
+	 * @throws IOException if the file cannot be read or is malformed
+	 */
+	public boolean addCoordinates(String filename, double kmh) throws IOException {
+		Graph.Version<String, Integer> current = graph.current();
+		int n = current.idBound();
+		double[] lat = new double[n];
+		double[] lon = new double[n];
+		int[] offset = new int[n];
+		boolean[] found = new boolean[n];
+		try (BufferedReader in = Files.newBufferedReader(Paths.get(filename), StandardCharsets.UTF_8)) {
+			String line = in.readLine();
+			if (line == null || !line.replace(" ", "").startsWith("AIRPORT,LAT,LON,UTC_OFFSET"))
+				throw new IOException(filename + " needs the header AIRPORT,LAT,LON,UTC_OFFSET");
+			while ((line = in.readLine()) != null) {
+				if (line.isBlank()) continue;
+				String[] fields = line.split(",");
+				if (fields.length < 4) throw new IOException("malformed line in " + filename + ": " + line);
+				Node<String, Integer> node = current.getNode(fields[0].trim());
+				if (node == null) continue;
+				try {
+					lat[node.id()] = Math.toRadians(Double.parseDouble(fields[1].trim()));
+					lon[node.id()] = Math.toRadians(Double.parseDouble(fields[2].trim()));
+					offset[node.id()] = (int) Math.round(Double.parseDouble(fields[3].trim()) * 60);
+				} catch (NumberFormatException e) {
+					throw new IOException("malformed line in " + filename + ": " + line, e);
+				}
+				found[node.id()] = true;
+			}
+		}
+
+		// no flight may beat the bound, or the bound would not be consistent
+		double perKm = 60.0 / kmh;
+		for (int u = 0; u < n; u++) {
+			Node<String, Integer> node = current.getNode(u);
+			if (node == null || !found[u]) continue;
+			for (int i = 0; i < node.edgeCount(); i++) {
+				Edge<String, Integer> edge = node.edge(i);
+				int v = edge.toNode().id();
+				int weight = shortest(edge.flights());
+				if (!found[v] || weight == UNREACHABLE) continue;
+				int slack = weight - (offset[v] - offset[u]);
+				if (slack < 0) return false;
+				double km = kilometers(lat[u], lon[u], lat[v], lon[v]);
+				if (km > 0) perKm = Math.min(perKm, slack / km);
+			}
+		}
+		this.latitudes = lat;
+		this.longitudes = lon;
+		this.offsets = offset;
+		this.located = found;
+		this.minutesPerKm = perKm;
+		return true;
+	}
+
+	/**
+	 * Returns the great-circle distance between two points
+	 *
+	 * @param lat1 The latitude of the first point in radians
+	 * @param lon1 The longitude of the first point in radians
+	 * @param lat2 The latitude of the second point in radians
+	 * @param lon2 The longitude of the second point in radians
+	 * @return the distance in km
+	 */
+	private static double kilometers(double lat1, double lon1, double lat2, double lon2) {
+		double a = Math.pow(Math.sin((lat2 - lat1) / 2), 2)
+				+ Math.cos(lat1) * Math.cos(lat2) * Math.pow(Math.sin((lon2 - lon1) / 2), 2);
+		return 2 * EARTH_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+	}
+
+	/**
+	 * Returns true if the graph has not changed since these bounds
+	 * were computed
+	 *
+	 * @return true if the bounds may be used on the graph
+	 */
+	public boolean isCurrent() {
+		return graph.version() == version;
+	}
+
+	/**
+	 * Returns true if these bounds were computed on the given version
+	 * of the graph
+	 *
+	 * @param current The version of the graph about to be searched
+	 * @return true if the bounds may be used on current
+	 */
+	public boolean isCurrent(Graph.Version<String, Integer> current) {
+		return current.number() == version;
+	}
+
+	/**
+	 * Returns the ids of the landmark airports
+	 *
+	 * @return a copy of the landmark ids
+	 */
+	public int[] landmarks() {
+		return landmarks.clone();
+	}
+
+	/**
+	 * Returns a lower bound on the minutes it takes to get from one
+	 * airport to another
+	 *
+	 * @requires isCurrent()
+	 * @param from The id of the airport to start at
+	 * @param to The id of the destination
+	 * @return a lower bound in minutes, Integer.MAX_VALUE if to cannot
+	 * 		   be reached from from at all
+	 */
+	public int bound(int from, int to) {
+		int bound = 0;
+		for (int l = 0; l < landmarks.length; l++) {
+			int[] fromLandmark = forward[l];
+			int[] toLandmark = backward[l];
+			if (fromLandmark[from] != UNREACHABLE) {
+				// the landmark reaches from, so it would reach to through it
+				if (fromLandmark[to] == UNREACHABLE) return UNREACHABLE;
+				bound = Math.max(bound, fromLandmark[to] - fromLandmark[from]);
+			}
+			if (toLandmark[to] != UNREACHABLE) {
+				// to reaches the landmark, so from would reach it through to
+				if (toLandmark[from] == UNREACHABLE) return UNREACHABLE;
+				bound = Math.max(bound, toLandmark[from] - toLandmark[to]);
+			}
+		}
+		if (located != null && located[from] && located[to]) {
+			int km = (int) (kilometers(latitudes[from], longitudes[from], latitudes[to], longitudes[to]) * minutesPerKm);
+			bound = Math.max(bound, km + offsets[to] - offsets[from]);
+		}
+		return bound;
+	}
+
+	/**
+	 * Compares the airports settled by plain and goal-directed
+	 * search on random queries over results.csv
+	 *
+	 * @param args Optional number of landmarks, 8 by default, and an
+	 * 		  optional coordinates file for great-circle bounds
+	 * @throws IOException if the coordinates cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		Timetable.Builder builder = new Timetable.Builder();
+		Program.parseData("results.csv", builder);
+		Timetable timetable = builder.build();
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, timetable);
+
+		long start = System.nanoTime();
+		Landmarks bounds = compute(graph, args.length > 0 ? Integer.parseInt(args[0]) : 8);
+		if (args.length > 1)
+			System.out.println("great-circle bound " + (bounds.addCoordinates(args[1], 1100) ? "in use" : "rejected"));
+		System.out.println(bounds.landmarks.length + " landmarks in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+		SearchState state = new SearchState(graph.idBound());
+		Random random = new Random(20010911);
+		long plain = 0;
+		long directed = 0;
+		int queries = 2000;
+		int mismatches = 0;
+		for (int q = 0; q < queries; q++) {
+			String from = timetable.airport(random.nextInt(timetable.airportCount()));
+			String to = timetable.airport(random.nextInt(timetable.airportCount()));
+			int departure = Timetable.timestamp(12 + random.nextInt(5), random.nextInt(24) * 100);
+			Path<String> expected = Program.findPath(graph, from, to, departure, state);
+			plain += state.settledCount();
+			Path<String> actual = Program.findPath(graph, from, to, departure, state, bounds);
+			directed += state.settledCount();
+			if (expected == null ? actual != null : actual == null || !Objects.equals(expected.time(), actual.time()))
+				mismatches++;
+		}
+		System.out.printf("settled per query: dijkstra %.1f, alt %.1f; %d mismatches in %d queries%n",
+				(double) plain / queries, (double) directed / queries, mismatches, queries);
+	}
+}
@@ -0,0 +1,556 @@
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * <b>LoadReplay</b> replays a log of queries against a router, the way
+ * Program answers them, and reports the throughput, the latency
+ * percentiles and the garbage collection pauses seen meanwhile. The
+ * log is a file of queries in the syntax of the prompt, or a synthetic
+ * one whose airports are drawn as often as they have flights.
+ * <p>
+ * In a closed loop a fixed number of clients each send their next
+ * query as soon as the last one is answered. Such clients send nothing
+ * while a slow query holds them up, which hides the queries that would
+ * have waited behind it; the corrected percentiles count them, taking
+ * the mean time per query of the warm-up as the interval each client
+ * meant to keep. In an open loop queries are due at a fixed rate
+ * whatever happens, and every latency is measured from the time its
+ * query was due, so waiting for a busy worker is counted as it would
+ * be by a user. Past its capacity the backlog grows without bound:
+ * throughput is then what the workers manage, and queries still
+ * waiting at the end are reported as never started.
+ */
+public class LoadReplay {
+
+	/** The number of nanoseconds run before anything is measured */
+	private static final long WARMUP = 2_000_000_000L;
+
+	/** The number of queries in a synthetic log */
+	private static final int SYNTHETIC = 100_000;
+
+	private Router router;
+	private Timetable timetable;
+	private String[] from;
+	private String[] to;
+	private int[] departures;
+	private ThreadLocal<SearchState> states;
+
+	/** Latencies from the time a query started to its answer */
+	private Histogram service = new Histogram();
+
+	/** Latencies corrected for the queries a slow one held back */
+	private Histogram corrected = new Histogram();
+
+	private LongAdder answered = new LongAdder();
+
+	/** The length of every answer, so that none is optimized away */
+	private LongAdder characters = new LongAdder();
+
+	// Abstraction Function:
+	// AF(this) = the log of queries from[i] to[i] leaving at departures[i],
+	//			  replayed against router
+	// Representation Invariant = from, to and departures have the same
+	//			  length, and every airport is in timetable
+
+	/**
+	 * Constructs a new LoadReplay
+	 *
+	 * @param router The engine every query is answered by; it must be
+	 * 		  safe to use from several threads with separate states
+	 * @param timetable The timetable the queries are drawn from
+	 * @param from The FAA code every query starts at
+	 * @param to The FAA code every query ends at
+	 * @param departures The encoded time every query leaves
+	 * @throws IllegalArgumentException if the log is empty
+	 * @effects constructs a new LoadReplay of the given log
+	 */
+	public LoadReplay(Router router, Timetable timetable, String[] from, String[] to, int[] departures) {
+		if (from.length == 0) throw new IllegalArgumentException("the log holds no query");
+		this.router = router;
+		this.timetable = timetable;
+		this.from = from;
+		this.to = to;
+		this.departures = departures;
+		this.states = ThreadLocal.withInitial(() -> new SearchState(timetable.airportCount()));
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds
+	 */
+	private void checkRep() {
+		assert from.length == to.length && from.length == departures.length : "one entry per query";
+		for (int i = 0; i < from.length; i++) {
+			assert timetable.id(from[i]) >= 0 && timetable.id(to[i]) >= 0 : "airports of the timetable";
+		}
+	}
+
+	/**
+	 * Reads a log of queries, one per line: "FROM TO [DAY:HHMM]". Blank
+	 * and malformed lines and unknown airports are skipped
+	 *
+	 * @param file The log to read
+	 * @param router The engine to replay it against
+	 * @param timetable The timetable the airports are checked against
+	 * @return the replay of the log
+	 * @throws IOException if file cannot be read
+	 */
+	public static LoadReplay read(String file, Router router, Timetable timetable) throws IOException {
+		List<String[]> queries = new ArrayList<>();
+		List<Integer> times = new ArrayList<>();
+		try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] tokens = line.trim().split("\\s+");
+				if (tokens.length < 2 || timetable.id(tokens[0]) < 0 || timetable.id(tokens[1]) < 0) continue;
+				try {
+					times.add(tokens.length > 2 ? Timetable.parseTime(tokens[2]) : 0);
+				} catch (NumberFormatException e) {
+					continue;
+				}
+				queries.add(tokens);
+			}
+		}
+		String[] from = new String[queries.size()];
+		String[] to = new String[queries.size()];
+		int[] departures = new int[queries.size()];
+		for (int i = 0; i < from.length; i++) {
+			from[i] = queries.get(i)[0];
+			to[i] = queries.get(i)[1];
+			departures[i] = times.get(i);
+		}
+		return new LoadReplay(router, timetable, from, to, departures);
+	}
+
+	/**
+	 * Draws a log of queries whose origins are drawn as often as
+	 * flights leave them and whose destinations as often as flights
+	 * land at them, each leaving at a random minute of a day with
+	 * flights
+	 *
+	 * @param size The number of queries
+	 * @param seed The seed of the draws
+	 * @param router The engine to replay the log against
+	 * @param timetable The timetable to draw from, with flights
+	 * @return the replay of the drawn log
+	 */
+	public static LoadReplay synthetic(int size, long seed, Router router, Timetable timetable) {
+		int n = timetable.airportCount();
+		long[] leaving = new long[n + 1];
+		long[] landing = new long[n + 1];
+		for (int c = 0; c < timetable.size(); c++) {
+			leaving[timetable.origin(c) + 1]++;
+			landing[timetable.destination(c) + 1]++;
+		}
+		for (int u = 0; u < n; u++) {
+			leaving[u + 1] += leaving[u];
+			landing[u + 1] += landing[u];
+		}
+		int firstDay = timetable.departure(0) / 10000;
+		int days = timetable.departure(timetable.size() - 1) / 10000 - firstDay + 1;
+
+		Random random = new Random(seed);
+		String[] from = new String[size];
+		String[] to = new String[size];
+		int[] departures = new int[size];
+		for (int i = 0; i < size; i++) {
+			int origin = draw(leaving, random);
+			int destination;
+			do {
+				destination = draw(landing, random);
+			} while (destination == origin && n > 1);
+			from[i] = timetable.airport(origin);
+			to[i] = timetable.airport(destination);
+			departures[i] = Timetable.timestamp(firstDay + random.nextInt(days),
+					random.nextInt(24) * 100 + random.nextInt(60));
+		}
+		return new LoadReplay(router, timetable, from, to, departures);
+	}
+
+	/**
+	 * Draws an airport with probability proportional to its weight
+	 *
+	 * @param cumulative The running totals of the weights, with
+	 * 		  cumulative[u + 1] - cumulative[u] the weight of airport u
+	 * @param random The source of the draw
+	 * @return the id of the airport drawn
+	 */
+	private static int draw(long[] cumulative, Random random) {
+		long x = (long) (random.nextDouble() * cumulative[cumulative.length - 1]);
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low + 1 < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] <= x) low = mid;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Answers query i of the log and writes the answer out the way the
+	 * prompt does, into a buffer that is thrown away
+	 *
+	 * @param i The index of the query, any non-negative number; the
+	 * 		  log is replayed from the start once it runs out
+	 */
+	private void answer(long i) {
+		int query = (int) (i % from.length);
+		Path<String> path = router.findPath(from[query], to[query], departures[query], states.get());
+		StringBuilder answer = new StringBuilder();
+		if (path == null) {
+			answer.append("no path found\n");
+		} else {
+			for (Edge<String, Integer> edge : path.edges()) {
+				answer.append(Program.leg(edge)).append('\n');
+			}
+		}
+		characters.add(answer.length());
+	}
+
+	/**
+	 * Forgets the measurements of the last replay
+	 *
+	 * @modifies this
+	 */
+	private void reset() {
+		service.reset();
+		corrected.reset();
+		answered.reset();
+	}
+
+	/**
+	 * Replays the log with a fixed number of clients, each sending its
+	 * next query as soon as the last one is answered
+	 *
+	 * @param clients The number of clients
+	 * @param seconds The number of seconds to measure for, after the warm-up
+	 * @return the measurements
+	 * @throws InterruptedException if interrupted while waiting for clients
+	 */
+	public Result closed(int clients, double seconds) throws InterruptedException {
+		AtomicLong next = new AtomicLong();
+		// the clients measure once the warm-up ends and stop at the end
+		long measure = System.nanoTime() + WARMUP;
+		long end = measure + (long) (seconds * 1e9);
+		AtomicLong interval = new AtomicLong();
+		GcPauses pauses = new GcPauses();
+		reset();
+
+		List<Thread> running = new ArrayList<>();
+		for (int c = 0; c < clients; c++) {
+			Thread thread = new Thread(() -> {
+				long now = System.nanoTime();
+				while (now < end) {
+					long start = now;
+					answer(next.getAndIncrement());
+					now = System.nanoTime();
+					if (start >= measure) {
+						service.record(now - start);
+						corrected.recordCorrected(now - start, interval.get());
+						answered.increment();
+					}
+				}
+			});
+			thread.start();
+			running.add(thread);
+		}
+
+		// the interval the clients kept in the third quarter of the
+		// warm-up is the one they are taken to mean; it is known a
+		// quarter of the warm-up before the first query is measured
+		sleepUntil(measure - WARMUP / 2);
+		long before = next.get();
+		long start = System.nanoTime();
+		sleepUntil(measure - WARMUP / 4);
+		long queries = next.get() - before;
+		interval.set(queries == 0 ? 0 : (System.nanoTime() - start) * clients / queries);
+		sleepUntil(measure);
+		pauses.start();
+		for (Thread thread : running) {
+			thread.join();
+		}
+		return new Result("closed loop, " + clients + " client(s)", seconds, pauses.stop());
+	}
+
+	/**
+	 * Replays the log at a fixed rate, whether or not the queries due
+	 * before are answered; a query waits for a free worker if none is,
+	 * and is never started if none is free before the end
+	 *
+	 * @param rate The number of queries due per second
+	 * @param seconds The number of seconds to measure for, after the warm-up
+	 * @param workers The number of threads answering
+	 * @return the measurements
+	 * @throws InterruptedException if interrupted while waiting for workers
+	 */
+	public Result open(double rate, double seconds, int workers) throws InterruptedException {
+		AtomicLong next = new AtomicLong();
+		double period = 1e9 / rate;
+		long first = System.nanoTime();
+		long measure = first + WARMUP;
+		long end = measure + (long) (seconds * 1e9);
+		GcPauses pauses = new GcPauses();
+		LongAdder all = new LongAdder();
+		reset();
+
+		List<Thread> running = new ArrayList<>();
+		for (int w = 0; w < Math.max(1, workers); w++) {
+			Thread thread = new Thread(() -> {
+				while (true) {
+					long i = next.getAndIncrement();
+					long due = first + (long) (i * period);
+					if (due >= end) return;
+					long now;
+					while ((now = System.nanoTime()) < due) {
+						LockSupport.parkNanos(due - now);
+					}
+					// a worker this far behind leaves the rest unanswered
+					if (now >= end) return;
+					answer(i);
+					long answeredAt = System.nanoTime();
+					all.increment();
+					// queries left over from the warm-up count once answered
+					if (answeredAt >= measure) {
+						service.record(answeredAt - now);
+						corrected.record(answeredAt - due);
+						answered.increment();
+					}
+				}
+			});
+			thread.start();
+			running.add(thread);
+		}
+
+		sleepUntil(measure);
+		pauses.start();
+		for (Thread thread : running) {
+			thread.join();
+		}
+		long due = (long) Math.ceil((end - first) / period);
+		return new Result(String.format("open loop, %.0f queries/s due, %d worker(s), %d never started", rate,
+				workers, Math.max(0, due - all.sum())), seconds, pauses.stop());
+	}
+
+	/**
+	 * Waits until the given time
+	 *
+	 * @param deadline The value of System.nanoTime to wait for
+	 */
+	private static void sleepUntil(long deadline) {
+		long now;
+		while ((now = System.nanoTime()) < deadline) {
+			LockSupport.parkNanos(deadline - now);
+		}
+	}
+
+	/**
+	 * Replays the log against an engine of Program and prints the
+	 * measurements
+	 *
+	 * @param args "closed" followed by the number of clients, or "open"
+	 * 		  followed by the number of queries due per second; then
+	 * 		  optionally the engine, csr by default, the number of
+	 * 		  seconds to measure for, 10 by default, and a log of
+	 * 		  queries, a synthetic one drawn from results.csv by default
+	 * @throws IOException if the log cannot be read
+	 * @throws InterruptedException if interrupted while replaying
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 2 || !(args[0].equals("closed") || args[0].equals("open"))) {
+			System.err.println("usage: java LoadReplay <closed clients|open rate> [engine [seconds [log]]]");
+			return;
+		}
+		String engine = args.length > 2 ? args[2] : "csr";
+		double seconds = args.length > 3 ? Double.parseDouble(args[3]) : 10;
+
+		Timetable.Builder builder = new Timetable.Builder();
+		Program.parseData("results.csv", builder);
+		Timetable all = builder.build();
+		// the same data Program and RouteServer serve: every flight in the
+		// graph, only the others in the timetable of the static engines
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, all);
+		Timetable timetable = Program.prune(all);
+		Router router = Program.engine(engine, graph, timetable);
+		LoadReplay replay = args.length > 4 ? read(args[4], router, timetable)
+				: synthetic(SYNTHETIC, 20010911, router, timetable);
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		Result result = args[0].equals("closed") ? replay.closed(Integer.parseInt(args[1]), seconds)
+				: replay.open(Double.parseDouble(args[1]), seconds, 4 * cores);
+		System.out.println(engine + ", " + result);
+	}
+
+	/**
+	 * <b>Result</b> holds what one replay measured, until the next
+	 * replay of the same log.
+	 */
+	public class Result {
+
+		private final String mode;
+		private final double seconds;
+		private final long[] pauses;
+
+		/**
+		 * Constructs a new Result from the measurements of this replay
+		 *
+		 * @param mode How the replay was run
+		 * @param seconds The number of seconds measured
+		 * @param pauses The number of collector pauses, their total and
+		 * 		  their longest duration in milliseconds
+		 * @effects constructs a new Result
+		 */
+		private Result(String mode, double seconds, long[] pauses) {
+			this.mode = mode;
+			this.seconds = seconds;
+			this.pauses = pauses;
+		}
+
+		/**
+		 * Returns the number of queries answered per second measured
+		 *
+		 * @return the throughput
+		 */
+		public double throughput() {
+			return answered.sum() / seconds;
+		}
+
+		/**
+		 * Returns the latencies from the start of every query to its
+		 * answer, in nanoseconds
+		 *
+		 * @return the uncorrected latencies
+		 */
+		public Histogram service() {
+			return service;
+		}
+
+		/**
+		 * Returns the latencies corrected for coordinated omission, in
+		 * nanoseconds
+		 *
+		 * @return the corrected latencies
+		 */
+		public Histogram corrected() {
+			return corrected;
+		}
+
+		/**
+		 * Returns the collector pauses while measuring
+		 *
+		 * @return their number, their total and their longest duration
+		 * 		   in milliseconds
+		 */
+		public long[] pauses() {
+			return pauses.clone();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s: %,.0f queries/s over %.0f s (%,d answer characters)%n"
+					+ "latency us     p50     p90     p99    p999     max%n%s%n%s%n"
+					+ "gc: %d pause(s), %d ms in total, longest %d ms", mode, throughput(), seconds, characters.sum(),
+					row("service", service), row("corrected", corrected), pauses[0], pauses[1], pauses[2]);
+		}
+
+		/**
+		 * Returns one row of the latency table
+		 *
+		 * @param name The name of the row
+		 * @param latencies The latencies in nanoseconds
+		 * @return the percentiles in microseconds
+		 */
+		private String row(String name, Histogram latencies) {
+			return String.format("%-10s %7d %7d %7d %7d %7d", name, latencies.percentile(0.5) / 1000,
+					latencies.percentile(0.9) / 1000, latencies.percentile(0.99) / 1000,
+					latencies.percentile(0.999) / 1000, latencies.max() / 1000);
+		}
+	}
+
+	/**
+	 * <b>GcPauses</b> listens to the collectors of this JVM and counts
+	 * the pauses they report, leaving out collection cycles that run
+	 * alongside the program.
+	 */
+	private static class GcPauses implements NotificationListener {
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder total = new LongAdder();
+		private final AtomicLong longest = new AtomicLong();
+
+		/**
+		 * Starts listening to every collector
+		 *
+		 * @modifies this
+		 */
+		private void start() {
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (collector instanceof NotificationEmitter)
+					((NotificationEmitter) collector).addNotificationListener(this, null, null);
+			}
+		}
+
+		/**
+		 * Stops listening
+		 *
+		 * @modifies this
+		 * @return the number of pauses, their total and their longest
+		 * 		   duration in milliseconds
+		 */
+		private long[] stop() {
+			for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+				if (!(collector instanceof NotificationEmitter)) continue;
+				try {
+					((NotificationEmitter) collector).removeNotificationListener(this);
+				} catch (ListenerNotFoundException e) {
+					// it was never added
+				}
+			}
+			return new long[] { count.sum(), total.sum(), longest.get() };
+		}
+
+		/**
+		 * Counts one collection if it paused the program
+		 *
+		 * @param notification The notification sent by a collector
+		 * @param handback Unused
+		 * @modifies this
+		 */
+		@Override
+		public void handleNotification(Notification notification, Object handback) {
+			if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+				return;
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+					.from((CompositeData) notification.getUserData());
+			// concurrent collectors report whole cycles as well as their pauses
+			if (!Arrays.asList("end of minor GC", "end of major GC", "end of GC pause").contains(info.getGcAction()))
+				return;
+			long duration = info.getGcInfo().getDuration();
+			count.increment();
+			total.add(duration);
+			longest.accumulateAndGet(duration, Math::max);
+		}
+	}
+}
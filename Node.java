@@ -1,18 +1,38 @@
 
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * A <b>Node</b> is an immutable vertex of a Graph: its label, its 
+ * id within the graph and the edges that begin at it. Changing the
+ * edges returns a new node with the same label and id, which the 
+ * graph publishes in its next version.
+ */
 public class Node<N, E extends Comparable<E>> {
 
-	private N label;
+	private final N label;
+	
+	/** Dense id assigned by the graph, -1 if this node is not in one */
+	private final int id;
 	
 	/** 
 	 * This list contains all edges that this 
-	 * node is the beginning of 
+	 * node is the beginning of; never modified, so 
+	 * it is handed out without copying
+	 */
+	private final List<Edge<N, E>> neighbors;
+	
+	/** 
+	 * The position in neighbors of the first edge to each label,
+	 * so that an edge is found without a scan; it is rebuilt with
+	 * neighbors by every change
 	 */
-	private List<Edge<N, E>> neighbors;
+	private final Map<N, Integer> positions;
 	
 	/**
 	 * Constructs a new node
@@ -21,8 +41,37 @@ public class Node<N, E extends Comparable<E>> {
 	 * @effects Constructs a Node with label label
 	 */
 	public Node(N label) {
+		this(label, -1);
+	}
+	
+	/**
+	 * Constructs a new node with an id
+	 * 
+	 * @param label The label of the node to be constructed
+	 * @param id The dense id of the node within its graph
+	 * @effects Constructs a Node with label label and id id
+	 */
+	public Node(N label, int id) {
+		this(label, id, new ArrayList<Edge<N, E>>());
+	}
+	
+	/**
+	 * Constructs a new node with the given edges
+	 * 
+	 * @param label The label of the node to be constructed
+	 * @param id The dense id of the node within its graph
+	 * @param neighbors The edges that begin at the node
+	 * @effects Constructs a Node with label label, id id and
+	 * 			a copy of neighbors
+	 */
+	private Node(N label, int id, List<Edge<N, E>> neighbors) {
 		this.label = label;
-		this.neighbors = new ArrayList<Edge<N, E>>();
+		this.id = id;
+		this.neighbors = Collections.unmodifiableList(new ArrayList<Edge<N, E>>(neighbors));
+		this.positions = new HashMap<N, Integer>(neighbors.size() * 2);
+		for (int i = 0; i < neighbors.size(); i++) {
+			positions.putIfAbsent(neighbors.get(i).toLabel(), i);
+		}
 		checkRep();
 	}
 	
@@ -36,6 +85,7 @@ public class Node<N, E extends Comparable<E>> {
 		
 		for (Edge<N, E> edge : neighbors) {
 			assert (edge != null) : "cannot contain null edges";
+			assert (positions.containsKey(edge.toLabel())) : "every edge must be indexed";
 		}
 	}
 	
@@ -48,6 +98,16 @@ public class Node<N, E extends Comparable<E>> {
 		return label;
 	}
 	
+	/**
+	 * Returns the id of this node
+	 * 
+	 * @return the id of this node, -1 if it
+	 * 		   does not belong to a graph
+	 */
+	public int id() {
+		return id;
+	}
+	
 	/**
 	 * Returns the label of this node
 	 * 
@@ -58,30 +118,61 @@ public class Node<N, E extends Comparable<E>> {
 	}
 	
 	/**
-	 * Connects given edge to this node
+	 * Returns this node with one more edge
 	 * 
-	 * @param edge The edge to be added to the
-	 * 		  list of edges
-	 * @modifies this.neighbors
-	 * @effects adds edge to the list of edges
+	 * @param label The label of the edge
+	 * @param node The node at which the edge ends
+	 * @return a copy of this node with the edge added
 	 */
-	public void connect(E label, Node<N, E> node) {
-		neighbors.add(new Edge<>(label, this, node));
-		checkRep();
+	public Node<N, E> connect(E label, Node<N, E> node) {
+		return connect(label, node, null);
+	}
+	
+	/**
+	 * Returns this node with one more edge, which
+	 * carries every flight that runs along it
+	 * 
+	 * @param label The label of the edge
+	 * @param node The node at which the edge ends
+	 * @param flights The flights along the edge, may be null
+	 * @return a copy of this node with the edge added
+	 */
+	public Node<N, E> connect(E label, Node<N, E> node, Departures flights) {
+		List<Edge<N, E>> edges = new ArrayList<Edge<N, E>>(neighbors);
+		edges.add(new Edge<>(label, this, node, flights));
+		return new Node<N, E>(this.label, id, edges);
+	}
+	
+	/**
+	 * Returns this node with every given edge added
+	 * in order, in one copy
+	 * 
+	 * @param added The edges to add, each beginning
+	 * 		  at this node
+	 * @return a copy of this node with the edges added
+	 */
+	public Node<N, E> connectAll(Collection<Edge<N, E>> added) {
+		List<Edge<N, E>> edges = new ArrayList<Edge<N, E>>(neighbors.size() + added.size());
+		edges.addAll(neighbors);
+		edges.addAll(added);
+		return new Node<N, E>(label, id, edges);
 	}
 	
 	/**
-	 * Removes the edge to the given node if
-	 * edge exists.
+	 * Returns this node without the edge to the
+	 * given node. The edge is found by hash, but the
+	 * copy takes time linear in the edges of this node
 	 * 
-	 * @param node The node to be disconnected
-	 * @modifies this.neighbors
-	 * @effects removes edge to node from the list
-	 * 		    of edges
+	 * @param to The label of the node to be disconnected
+	 * @return a copy of this node without the edge
+	 * 		   to to, this node if there is no such edge
 	 */
-	public void disconnect(N to) {
-		Edge<N, E> remove = findEdge(to);
-		if (remove != null) neighbors.remove(remove);
+	public Node<N, E> disconnect(N to) {
+		Integer remove = positions.get(to);
+		if (remove == null) return this;
+		List<Edge<N, E>> edges = new ArrayList<Edge<N, E>>(neighbors);
+		edges.remove((int) remove);
+		return new Node<N, E>(label, id, edges);
 	}
 	
 	/**
@@ -100,6 +191,18 @@ public class Node<N, E extends Comparable<E>> {
 		return result;
 	}
 	
+	/**
+	 * Returns true if this node has an edge to
+	 * the node labeled to
+	 * 
+	 * @param to The label of the node at which the 
+	 * 		  edge ends
+	 * @return true if the edge exists
+	 */
+	public boolean hasEdge(N to) {
+		return positions.containsKey(to);
+	}
+	
 	/**
 	 * Returns the edge label where to is the 
 	 * label of the node at which the edge ends,
@@ -116,6 +219,41 @@ public class Node<N, E extends Comparable<E>> {
 		return null;
 	}
 	
+	/**
+	 * Returns the flights from this node to the
+	 * node labeled to, null if there are none
+	 * 
+	 * @param to The label of the node at which the 
+	 * 		  edge ends
+	 * @return the flights along the edge, null if
+	 * 		   the edge does not exist or has no timetable
+	 */
+	public Departures departures(N to) {
+		Edge<N, E> edge = findEdge(to);
+		if (edge != null) return edge.flights();
+		return null;
+	}
+	
+	/**
+	 * Returns this node with new flights and a new label 
+	 * on its edge to node, connecting the two if they are 
+	 * not connected yet. The edge is found by hash, but 
+	 * the copy takes time linear in the edges of this node
+	 * 
+	 * @param label The new label of the edge
+	 * @param node The node at which the edge ends
+	 * @param flights The new flights along the edge
+	 * @return a copy of this node whose edge to node
+	 * 		   is labeled label and carries flights
+	 */
+	public Node<N, E> replaceDepartures(E label, Node<N, E> node, Departures flights) {
+		Integer position = positions.get(node.label());
+		if (position == null) return connect(label, node, flights);
+		List<Edge<N, E>> edges = new ArrayList<Edge<N, E>>(neighbors);
+		edges.set(position, new Edge<>(label, this, node, flights));
+		return new Node<N, E>(this.label, id, edges);
+	}
+	
 	/**
 	 * finds and returns the edge that ends at the 
 	 * node labeled to
@@ -126,14 +264,8 @@ public class Node<N, E extends Comparable<E>> {
 	 * 		   does not exist
 	 */
 	private Edge<N, E> findEdge(N to) {
-		Edge<N, E> found = null;
-		for (Edge<N, E> edge : neighbors) {
-			if (edge.toLabel().equals(to)) {
-				found = edge;
-				break;
-			}
-		}
-		return found;
+		Integer position = positions.get(to);
+		return position == null ? null : neighbors.get(position);
 	}
 
 	/**
@@ -169,7 +301,24 @@ public class Node<N, E extends Comparable<E>> {
 		return neighborNodes;
 	}
 	
+	/**
+	 * Returns the edge at the given position
+	 * 
+	 * @param index The position of the edge, between
+	 * 		  0 and edgeCount() - 1
+	 * @return the edge at index
+	 */
+	public Edge<N, E> edge(int index) {
+		return neighbors.get(index);
+	}
+	
+	/**
+	 * Returns the edges that begin at this node
+	 * 
+	 * @return the edges, unmodifiable and never changed,
+	 * 		   so they are not copied
+	 */
 	public List<Edge<N, E>> edges() {
-		return new ArrayList<Edge<N, E>>(neighbors);
+		return neighbors;
 	}
 }
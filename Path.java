@@ -39,6 +39,7 @@ public class Path<T> implements Comparable<Path<T>>{
 		this.start = start;
 		this.destination = destination;
 		this.path = new ArrayList<>();
+		if (QueryStats.ENABLED) QueryStats.countPath();
 		if (edges != null) {
 			for (Edge<T, Integer> edge : edges) {
 				addEdge(edge);
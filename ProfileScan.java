@@ -0,0 +1,428 @@
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <b>ProfileScan</b> answers profile queries: every itinerary between
+ * two airports that leaves within a window of time and is not beaten
+ * by one that leaves no earlier and arrives no later. It is the
+ * Connection Scan Algorithm run backwards. Walking the timetable from
+ * the last departure to the first, every airport keeps a profile, the
+ * Pareto set of (departure, arrival at the destination) over the
+ * connections scanned so far, and a connection is evaluated by looking
+ * up the profile of the airport it lands at. One pass yields the
+ * profile of every airport, the starting one among them.
+ * <p>
+ * A forward scan from the end of the window first finds the latest
+ * arrival any answer can have: an itinerary leaving within the window
+ * and arriving later is beaten by the earliest arriving one from the
+ * end of the window. The backward scan is limited to the connections
+ * leaving between the start of the window and that arrival.
+ */
+public class ProfileScan {
+
+	private Timetable timetable;
+	private Node<String, Integer>[] nodes;
+	private ThreadLocal<Profiles> profiles;
+
+	/**
+	 * Constructs a new ProfileScan
+	 *
+	 * @param timetable The connections to scan
+	 * @effects constructs a new ProfileScan over timetable
+	 */
+	@SuppressWarnings("unchecked")
+	public ProfileScan(Timetable timetable) {
+		this.timetable = timetable;
+		this.nodes = (Node<String, Integer>[]) new Node<?, ?>[timetable.airportCount()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new Node<>(timetable.airport(i));
+		}
+		this.profiles = ThreadLocal.withInitial(Profiles::new);
+	}
+
+	/**
+	 * Finds every itinerary from from to to that leaves between
+	 * earliest and latest and is not beaten by another itinerary that
+	 * leaves no earlier and arrives no later
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param earliest The earliest encoded time the itineraries may leave
+	 * @param latest The latest encoded time the itineraries may leave
+	 * @param state The labels to reuse for the forward scan
+	 * @modifies state
+	 * @return the Pareto set ordered by departure, and so by arrival;
+	 * 		   empty if there is none, an airport is unknown or from is to
+	 */
+	public List<Journey> profile(String from, String to, int earliest, int latest, SearchState state) {
+		List<Journey> journeys = new ArrayList<>();
+		int source = timetable.id(from);
+		int target = timetable.id(to);
+		if (source < 0 || target < 0 || source == target || earliest > latest) return journeys;
+
+		int bound = earliestArrival(source, target, latest, state);
+		int first = timetable.firstDeparture(earliest);
+		int end = timetable.firstDeparture(bound == Integer.MAX_VALUE ? bound : bound + 1);
+		reachAll(source, earliest, first, end, state);
+
+		Profiles labels = profiles.get();
+		labels.start(timetable.airportCount());
+		for (int c = end - 1; c >= first; c--) {
+			int origin = timetable.origin(c);
+			// a connection the traveler cannot be at in time is of no use
+			if (origin == target || state.arrival(origin) > timetable.departure(c)) continue;
+			state.relaxed();
+			int destination = timetable.destination(c);
+			int arrival = destination == target ? timetable.arrival(c)
+					: labels.arrival(destination, timetable.arrival(c));
+			if (arrival > bound) continue;
+			labels.add(origin, timetable.departure(c), arrival, c);
+		}
+
+		// the profile of source holds departures up to the bound, latest first
+		for (int i = labels.size(source) - 1; i >= 0; i--) {
+			if (labels.departure(source, i) > latest) break;
+			journeys.add(journey(from, to, labels.connection(source, i), target, labels));
+		}
+		return journeys;
+	}
+
+	/**
+	 * Scans forward for the earliest arrival at target from source
+	 *
+	 * @param source The id of the starting airport
+	 * @param target The id of the destination airport
+	 * @param departure The earliest encoded time to leave
+	 * @param state The labels to fill
+	 * @modifies state
+	 * @return the earliest arrival, Integer.MAX_VALUE if there is none
+	 */
+	private int earliestArrival(int source, int target, int departure, SearchState state) {
+		state.reset(timetable.airportCount());
+		state.reach(source, departure, -1, -1);
+		for (int c = timetable.firstDeparture(departure); c < timetable.size(); c++) {
+			int leaves = timetable.departure(c);
+			if (leaves >= state.arrival(target)) break;
+			if (state.arrival(timetable.origin(c)) > leaves) continue;
+
+			state.relaxed();
+			int destination = timetable.destination(c);
+			if (timetable.arrival(c) < state.arrival(destination))
+				state.reach(destination, timetable.arrival(c), timetable.origin(c), c);
+		}
+		return state.arrival(target);
+	}
+
+	/**
+	 * Scans the given connections forward for the earliest arrival at
+	 * every airport from source
+	 *
+	 * @param source The id of the starting airport
+	 * @param departure The earliest encoded time to leave
+	 * @param first The first connection to scan
+	 * @param end One past the last connection to scan
+	 * @param state The labels to fill
+	 * @modifies state
+	 * @effects state.arrival(u) is the earliest arrival at u over the
+	 * 			scanned connections
+	 */
+	private void reachAll(int source, int departure, int first, int end, SearchState state) {
+		state.reset(timetable.airportCount());
+		state.reach(source, departure, -1, -1);
+		for (int c = first; c < end; c++) {
+			if (state.arrival(timetable.origin(c)) > timetable.departure(c)) continue;
+
+			state.relaxed();
+			int destination = timetable.destination(c);
+			if (timetable.arrival(c) < state.arrival(destination))
+				state.reach(destination, timetable.arrival(c), timetable.origin(c), c);
+		}
+	}
+
+	/**
+	 * Follows the profiles from the given connection to target and
+	 * turns the connections taken into a journey
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param connection The first connection taken
+	 * @param target The id of the destination airport
+	 * @param labels The profiles of the finished scan
+	 * @return the journey starting with connection
+	 */
+	private Journey journey(String from, String to, int connection, int target, Profiles labels) {
+		List<Edge<String, Integer>> edges = new ArrayList<>();
+		int c = connection;
+		while (true) {
+			int destination = timetable.destination(c);
+			edges.add(new Edge<>(timetable.arrival(c), nodes[timetable.origin(c)], nodes[destination]));
+			if (destination == target) break;
+			c = labels.connection(destination, labels.next(destination, timetable.arrival(c)));
+		}
+		return new Journey(timetable.departure(connection), timetable.arrival(c), new Path<>(from, to, edges));
+	}
+
+	/**
+	 * Prints how long a profile over a whole day takes next to a single
+	 * earliest-arrival query and to one query per departure from the
+	 * starting airport within the day
+	 *
+	 * @param args Optional snapshot to load, results.snap by default,
+	 * 		  and number of queries, 1000 by default
+	 * @throws IOException if the snapshot cannot be read
+	 */
+	public static void main(String[] args) throws IOException {
+		Timetable timetable = Snapshot.load(args.length > 0 ? args[0] : "results.snap").timetable();
+		int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		ProfileScan scan = new ProfileScan(timetable);
+		ConnectionScan single = new ConnectionScan(new Graph<>(), timetable);
+		SearchState state = new SearchState(timetable.airportCount());
+
+		for (int round = 0; round < 2; round++) {
+			// the first round only warms up
+			Random random = new Random(20010911);
+			long profiles = 0;
+			long singles = 0;
+			long repeated = 0;
+			long journeys = 0;
+			long departures = 0;
+			for (int q = 0; q < queries; q++) {
+				String from = timetable.airport(random.nextInt(timetable.airportCount()));
+				String to = timetable.airport(random.nextInt(timetable.airportCount()));
+				int day = 12 + random.nextInt(4);
+				int earliest = Timetable.timestamp(day, 0);
+				int latest = Timetable.timestamp(day, 2359);
+
+				long start = System.nanoTime();
+				List<Journey> profile = scan.profile(from, to, earliest, latest, state);
+				profiles += System.nanoTime() - start;
+				journeys += profile.size();
+
+				start = System.nanoTime();
+				single.findPath(from, to, earliest, state);
+				singles += System.nanoTime() - start;
+
+				// the way to answer the same question without a profile: one
+				// query for every time a flight leaves from within the window
+				start = System.nanoTime();
+				int source = timetable.id(from);
+				for (int c = timetable.firstDeparture(earliest); c < timetable.firstDeparture(latest + 1); c++) {
+					if (timetable.origin(c) != source) continue;
+					departures++;
+					Path<String> path = single.findPath(from, to, timetable.departure(c), state);
+					assert path == null || from.equals(to) || matches(profile, timetable.departure(c), path.time())
+							: "the profile must agree with every query";
+				}
+				repeated += System.nanoTime() - start;
+			}
+			if (round == 0) continue;
+			System.out.printf("profile %.1f us, %.1f journeys; single query %.1f us (%.1fx); one query per departure "
+					+ "%.1f us (%.1f departures)%n", profiles / 1000.0 / queries, (double) journeys / queries,
+					singles / 1000.0 / queries, (double) profiles / singles, repeated / 1000.0 / queries,
+					(double) departures / queries);
+		}
+	}
+
+	/**
+	 * Returns true if the first journey of the given profile that leaves
+	 * at or after departure arrives at the given time
+	 *
+	 * @param profile A profile ordered by departure
+	 * @param departure The encoded time to leave
+	 * @param arrival The earliest encoded arrival leaving at departure
+	 * @return true if the profile gives the same earliest arrival, or
+	 * 		   has no journey leaving that late because the best one
+	 * 		   leaves after the window
+	 */
+	private static boolean matches(List<Journey> profile, int departure, int arrival) {
+		for (Journey journey : profile) {
+			if (journey.departure() >= departure) return journey.arrival() == arrival;
+		}
+		return true;
+	}
+
+	/**
+	 * <b>Journey</b> is one answer to a profile query: an itinerary with
+	 * the time it leaves and the time it arrives.
+	 */
+	public static class Journey {
+
+		private final int departure;
+		private final int arrival;
+		private final Path<String> path;
+
+		/**
+		 * Constructs a new Journey
+		 *
+		 * @param departure The encoded time the first flight leaves
+		 * @param arrival The encoded time the last flight lands
+		 * @param path The legs of the journey
+		 * @effects constructs a new Journey
+		 */
+		public Journey(int departure, int arrival, Path<String> path) {
+			this.departure = departure;
+			this.arrival = arrival;
+			this.path = path;
+		}
+
+		/**
+		 * Returns the time the journey leaves
+		 *
+		 * @return the encoded departure of the first flight
+		 */
+		public int departure() {
+			return departure;
+		}
+
+		/**
+		 * Returns the time the journey arrives
+		 *
+		 * @return the encoded arrival of the last flight
+		 */
+		public int arrival() {
+			return arrival;
+		}
+
+		/**
+		 * Returns the legs of the journey
+		 *
+		 * @return the path, one edge labeled with its arrival per flight
+		 */
+		public Path<String> path() {
+			return path;
+		}
+	}
+
+	/**
+	 * <b>Profiles</b> holds the profile of every airport for one
+	 * thread's queries and reuses the arrays from query to query. A
+	 * profile is stored latest departure first, so entries are only
+	 * ever appended during the backward scan, and its arrivals
+	 * decrease along with its departures.
+	 */
+	private static class Profiles {
+
+		private int[][] departures = new int[0][];
+		private int[][] arrivals = new int[0][];
+		private int[][] connections = new int[0][];
+		private int[] sizes = new int[0];
+
+		/**
+		 * Starts a new query
+		 *
+		 * @param airports The number of airports
+		 * @modifies this
+		 * @effects every profile is empty
+		 */
+		private void start(int airports) {
+			if (sizes.length < airports) {
+				departures = Arrays.copyOf(departures, airports);
+				arrivals = Arrays.copyOf(arrivals, airports);
+				connections = Arrays.copyOf(connections, airports);
+				for (int u = sizes.length; u < airports; u++) {
+					departures[u] = new int[4];
+					arrivals[u] = new int[4];
+					connections[u] = new int[4];
+				}
+				sizes = new int[airports];
+			}
+			Arrays.fill(sizes, 0);
+		}
+
+		/**
+		 * Adds a journey to the profile of the given airport unless an
+		 * entry already beats it; departures are added in decreasing order
+		 *
+		 * @param airport The id of the airport
+		 * @param departure The encoded time the journey leaves
+		 * @param arrival The encoded time the journey reaches the destination
+		 * @param connection The first connection of the journey
+		 * @modifies this
+		 */
+		private void add(int airport, int departure, int arrival, int connection) {
+			int size = sizes[airport];
+			if (size > 0 && arrivals[airport][size - 1] <= arrival) return;
+			// an entry leaving at the same minute and arriving later is replaced
+			if (size > 0 && departures[airport][size - 1] == departure) size--;
+			if (size == departures[airport].length) {
+				departures[airport] = Arrays.copyOf(departures[airport], size * 2);
+				arrivals[airport] = Arrays.copyOf(arrivals[airport], size * 2);
+				connections[airport] = Arrays.copyOf(connections[airport], size * 2);
+			}
+			departures[airport][size] = departure;
+			arrivals[airport][size] = arrival;
+			connections[airport][size] = connection;
+			sizes[airport] = size + 1;
+		}
+
+		/**
+		 * Returns the entry of the given airport's profile that leaves
+		 * first at or after time, which is the one that arrives first
+		 *
+		 * @param airport The id of the airport
+		 * @param time The encoded time the traveler is at airport
+		 * @return the index of the entry, -1 if none leaves that late
+		 */
+		private int next(int airport, int time) {
+			// departures decrease along the profile
+			int[] leaving = departures[airport];
+			int low = 0;
+			int high = sizes[airport];
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (leaving[mid] >= time) low = mid + 1;
+				else high = mid;
+			}
+			return low - 1;
+		}
+
+		/**
+		 * Returns the earliest arrival at the destination from the given
+		 * airport at the given time
+		 *
+		 * @param airport The id of the airport
+		 * @param time The encoded time the traveler is at airport
+		 * @return the encoded arrival, Integer.MAX_VALUE if there is none
+		 */
+		private int arrival(int airport, int time) {
+			int entry = next(airport, time);
+			return entry < 0 ? Integer.MAX_VALUE : arrivals[airport][entry];
+		}
+
+		/**
+		 * Returns the number of entries in the given airport's profile
+		 *
+		 * @param airport The id of the airport
+		 * @return the size of its profile
+		 */
+		private int size(int airport) {
+			return sizes[airport];
+		}
+
+		/**
+		 * Returns the departure of an entry
+		 *
+		 * @param airport The id of the airport
+		 * @param entry The index of the entry, below size(airport)
+		 * @return the encoded departure of the entry
+		 */
+		private int departure(int airport, int entry) {
+			return departures[airport][entry];
+		}
+
+		/**
+		 * Returns the first connection of an entry
+		 *
+		 * @param airport The id of the airport
+		 * @param entry The index of the entry, below size(airport)
+		 * @return the index of the connection
+		 */
+		private int connection(int airport, int entry) {
+			return connections[airport][entry];
+		}
+	}
+}
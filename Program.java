@@ -1,126 +1,622 @@
 import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Scanner;
-import java.util.Set;
+
+import javax.management.JMException;
 
 public class Program {
+	
+	/** The number of answers kept by the cached engines */
+	private static final int CACHE_ENTRIES = 10000;
+	
+	/** The number of landmarks the alt engine computes bounds from */
+	private static final int LANDMARKS = 8;
+	
+	/**
+	 * False with -Dflights.prune=false, which keeps dominated flights
+	 * in the timetable of the static engines and in snapshots
+	 */
+	private static final boolean PRUNE = !"false".equals(System.getProperty("flights.prune"));
+	
 	/**
 	 * A class that allows clients to interact with loading data
 	 * into a graph and finding paths in between nodes.
 	 * 
-	 * @param args unused
+	 * @param args optional engine name: "dijkstra" (default), "alt", "csa", 
+	 * 		  "csr", "raptor", "table", "patterns" or "days", optionally prefixed with
+	 * 		  "cached-", followed by an optional snapshot to load instead of results.csv
+	 * 		  and, for "table" or "patterns", an optional precomputed table or patterns
+	 * 		  file, for "days" an optional directory of day partitions;
+	 * 		  or "compile [csv] [snapshot]" to write a snapshot;
+	 * 		  or "prune [csv]" to check that pruning dominated flights 
+	 * 		  changes no earliest arrival;
+	 * 		  or "batch engine queries [snapshot [table]]" to answer every query of
+	 * 		  the file queries ("-" for standard input) on every core;
+	 * 		  or "serve engine [port [snapshot [table]]]" to answer queries 
+	 * 		  over HTTP, see RouteServer
 	 */
     public static void main(String[] args) {
-		Scanner s = new Scanner(System.in);
-	
-		Set<String> cities = new HashSet<String>();
-		Map<String, Map<String, Integer>> time = new HashMap<String, Map<String, Integer>>();
+		String engine = args.length > 0 ? args[0] : "dijkstra";
+		if (engine.equals("compile")) {
+			compile(args.length > 1 ? args[1] : "results.csv", args.length > 2 ? args[2] : "results.snap");
+			return;
+		}
+		if (engine.equals("prune")) {
+			checkPruning(args.length > 1 ? args[1] : "results.csv");
+			return;
+		}
+		
+		String queries = null;
+		String snapshotFile = args.length > 1 ? args[1] : null;
+		String tableFile = args.length > 2 ? args[2] : null;
+		if (engine.equals("batch")) {
+			if (args.length < 3) {
+				System.err.println("usage: java Program batch <engine> <queries|-> [snapshot [table]]");
+				return;
+			}
+			engine = args[1];
+			queries = args[2];
+			snapshotFile = args.length > 3 ? args[3] : null;
+			tableFile = args.length > 4 ? args[4] : null;
+		}
+		int port = -1;
+		if (engine.equals("serve")) {
+			if (args.length < 2) {
+				System.err.println("usage: java Program serve <engine> [port [snapshot [table]]]");
+				return;
+			}
+			engine = args[1];
+			port = args.length > 2 ? Integer.parseInt(args[2]) : RouteServer.PORT;
+			snapshotFile = args.length > 3 ? args[3] : null;
+			tableFile = args.length > 4 ? args[4] : null;
+		}
+		
+		Timetable timetable;
+		CompactGraph compact = null;
 		Graph<String, Integer> graph = new Graph<>();
+		// only findPath, with or without bounds, searches the graph live
+		// changes are applied to; the other engines keep the flights they loaded
+		boolean searchesGraph = engine.endsWith("dijkstra") || engine.endsWith("alt");
+		// a pruned snapshot lacks the flights a cancellation may make useful again
+		boolean live = true;
+		
+		if (snapshotFile != null) {
+			try {
+				Snapshot snapshot = Snapshot.load(snapshotFile);
+				timetable = snapshot.timetable();
+				compact = snapshot.graph();
+				live = !snapshot.pruned();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			// the object graph is only needed by findPath, with or without bounds
+			if (searchesGraph)
+				buildGraph(graph, timetable);
+		} else {
+			Timetable.Builder flights = new Timetable.Builder();
+			parseData("results.csv", flights);
+			Timetable all = flights.build();
+			// the graph live changes are applied to keeps every flight; only
+			// the static engines read the pruned timetable
+			buildGraph(graph, all);
+			timetable = prune(all);
+		}
+		
+		Router router;
+		if (tableFile != null && (engine.endsWith("table") || engine.endsWith("patterns") || engine.endsWith("days"))) {
+			try {
+				if (engine.endsWith("days"))
+					router = DayPartitions.open(tableFile, DayPartitions.BUDGET);
+				else
+					router = engine.endsWith("table") ? ArrivalTable.load(tableFile, compact)
+							: TransferPatterns.load(tableFile, compact);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			if (engine.startsWith("cached-"))
+				router = new QueryCache(router, graph, CACHE_ENTRIES);
+		} else {
+			router = engine(engine, graph, timetable, compact);
+		}
 		
-		parseData("results.csv", cities, time);
+		// with -Dflights.stats=true every query is measured and readable over JMX
+		QueryStats stats = null;
+		if (QueryStats.ENABLED) {
+			stats = new QueryStats(router);
+			try {
+				stats.register();
+			} catch (JMException e) {
+				System.err.println("query stats not registered with JMX: " + e.getMessage());
+			}
+		}
+		Router answer = stats != null ? stats : router;
+		if (queries != null) {
+			batch(router, stats, timetable, queries);
+			return;
+		}
+		if (port >= 0) {
+			serve(answer, stats, timetable, port);
+			return;
+		}
 		
-		buildGraph(graph, cities, time);
+		// live changes reach the graph that findPath searches
+		FlightUpdates updates = new FlightUpdates(graph);
+		// built on the first alternatives, reach or profile query; they do not see live changes
+		Alternatives alternatives = null;
+		CompactDijkstra sweep = null;
+		ProfileScan profiles = null;
 		
-		System.out.println("Enter Airport FAA code: '<from> <to>'");
+		Scanner s = new Scanner(System.in);
+		System.out.println("Enter Airport FAA code: '<from> <to> [<day>:<hhmm>]'");
 		System.out.println("for shortest path");
 		String twoCharacters = s.nextLine();
 		
 		while (!twoCharacters.equals("exit")) {
 			
-			String from = twoCharacters.split(" ")[0];
-			String to = twoCharacters.split(" ")[1];
+			String[] tokens = twoCharacters.split(" ");
+			if (tokens[0].equals("stats")) {
+				System.out.println(stats != null ? stats : "query stats are off, run with -Dflights.stats=true");
+				twoCharacters = s.nextLine();
+				continue;
+			}
+			if (tokens[0].equals("cancel") || tokens[0].equals("retime") || tokens[0].equals("add")) {
+				if (!searchesGraph) {
+					System.out.println("the " + engine + " engine does not take live changes; "
+							+ "run dijkstra or alt, with or without cached-, to apply them");
+					twoCharacters = s.nextLine();
+					continue;
+				}
+				if (!live) {
+					System.out.println("the snapshot was compiled without dominated flights, so live changes "
+							+ "cannot be applied; compile it with -Dflights.prune=false");
+					twoCharacters = s.nextLine();
+					continue;
+				}
+				try {
+					System.out.println(updates.apply(twoCharacters) ? "applied" : "no such flight");
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+				}
+				twoCharacters = s.nextLine();
+				continue;
+			}
 			
-			if (!graph.containsNode(from)) {
+			if (tokens[0].equals("alternatives") && tokens.length >= 3) {
+				// up to k itineraries through different airports, earliest arrival first
+				if (compact == null) compact = new CompactGraph(timetable);
+				if (alternatives == null) alternatives = new Alternatives(compact);
+				int departure;
+				int k;
+				try {
+					departure = tokens.length > 3 ? Timetable.parseTime(tokens[3]) : 0;
+					k = tokens.length > 4 ? Integer.parseInt(tokens[4]) : 3;
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					twoCharacters = s.nextLine();
+					continue;
+				}
+				List<Path<String>> paths = alternatives.find(tokens[1], tokens[2], departure, k,
+						new SearchState(timetable.airportCount()));
+				if (paths.isEmpty()) System.out.println("no path found");
+				for (Path<String> path : paths) {
+					System.out.println(path.edges().size() + " leg(s):");
+					for (Edge<String, Integer> edge : path.edges()) {
+						System.out.println(leg(edge));
+					}
+				}
 				twoCharacters = s.nextLine();
 				continue;
 			}
 			
-			if (!graph.containsNode(to)) {
+			if (tokens[0].equals("reach") && tokens.length >= 4 && timetable.id(tokens[1]) >= 0) {
+				// every airport reachable by the deadline, earliest arrival first
+				if (compact == null) compact = new CompactGraph(timetable);
+				if (sweep == null) sweep = new CompactDijkstra(compact);
+				int departure;
+				int deadline;
+				try {
+					departure = Timetable.parseTime(tokens[2]);
+					deadline = Timetable.parseTime(tokens[3]);
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					twoCharacters = s.nextLine();
+					continue;
+				}
+				SearchState state = new SearchState(timetable.airportCount());
+				BitSet reached = sweep.reachable(compact.id(tokens[1]), departure, deadline, state);
+				List<Integer> airports = new ArrayList<>();
+				reached.stream().forEach(airports::add);
+				airports.sort((a, b) -> Integer.compare(state.arrival(a), state.arrival(b)));
+				for (int airport : airports) {
+					int arrival = state.arrival(airport);
+					System.out.println(compact.label(airport) + " arrival: " + arrival / 10000 + "th at " + arrival % 10000);
+				}
+				System.out.println(airports.size() + " airport(s) reachable");
 				twoCharacters = s.nextLine();
 				continue;
 			}
 			
-			Path<String> path = findPath(graph, from, to);
+			if (tokens[0].equals("profile") && tokens.length >= 5) {
+				// every itinerary leaving in the window that no later one beats
+				int earliest;
+				int latest;
+				try {
+					earliest = Timetable.parseTime(tokens[3]);
+					latest = Timetable.parseTime(tokens[4]);
+				} catch (IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					twoCharacters = s.nextLine();
+					continue;
+				}
+				if (profiles == null) profiles = new ProfileScan(timetable);
+				List<ProfileScan.Journey> journeys = profiles.profile(tokens[1], tokens[2], earliest, latest,
+						new SearchState(timetable.airportCount()));
+				if (journeys.isEmpty()) System.out.println("no path found");
+				for (ProfileScan.Journey journey : journeys) {
+					System.out.println("leave " + journey.departure() / 10000 + "th at " + journey.departure() % 10000
+							+ ", " + journey.path().edges().size() + " leg(s):");
+					for (Edge<String, Integer> edge : journey.path().edges()) {
+						System.out.println(leg(edge));
+					}
+				}
+				twoCharacters = s.nextLine();
+				continue;
+			}
+			
+			String from = tokens[0];
+			String to = tokens[1];
+			int departure;
+			try {
+				departure = tokens.length > 2 ? Timetable.parseTime(tokens[2]) : 0;
+			} catch (IllegalArgumentException e) {
+				System.out.println(e.getMessage());
+				twoCharacters = s.nextLine();
+				continue;
+			}
+			
+			if (timetable.id(from) < 0) {
+				twoCharacters = s.nextLine();
+				continue;
+			}
+			
+			if (timetable.id(to) < 0) {
+				twoCharacters = s.nextLine();
+				continue;
+			}
+			
+			if (router instanceof Raptor) {
+				// every trade-off between arrival and stops, fewest legs first
+				Raptor raptor = (Raptor) router;
+				SearchState state = new SearchState(timetable.airportCount());
+				List<Path<String>> paths = stats != null 
+						? stats.measure(state, () -> raptor.paretoPaths(from, to, departure, state))
+						: raptor.paretoPaths(from, to, departure, state);
+				if (paths.isEmpty()) System.out.println("no path found");
+				for (Path<String> path : paths) {
+					System.out.println(path.edges().size() + " leg(s):");
+					for (Edge<String, Integer> edge : path.edges()) {
+						System.out.println(leg(edge));
+					}
+				}
+				if (stats != null) System.err.println(stats.lastQuery());
+				twoCharacters = s.nextLine();
+				continue;
+			}
+			
+			Path<String> path = answer.findPath(from, to, departure);
 			if (path == null) {
 				System.out.println("no path found");
 			} else {
 				for (Edge<String, Integer> edge : path.edges()) {
-					System.out.println(edge.fromLabel() + " to " + edge.toLabel() + " arrival: " + edge.label() / 10000 + "th at " + edge.label() % 10000); 
+					System.out.println(leg(edge));
 				}
 			}
+			if (stats != null) System.err.println(stats.lastQuery());
 			twoCharacters = s.nextLine();
 		}
 		
 		s.close();
+		if (router instanceof QueryCache) System.err.println(router);
+		if (stats != null) System.err.println(stats);
 	} 	
+	
+	/**
+	 * Returns the line printed for one leg of a path
+	 * 
+	 * @param edge the leg, labeled with its arrival
+	 * @return the airports and the arrival of edge
+	 */
+	public static String leg(Edge<String, Integer> edge) {
+		return edge.fromLabel() + " to " + edge.toLabel() + " arrival: " + edge.label() / 10000 + "th at " + edge.label() % 10000;
+	}
+	
+	/**
+	 * Answers every query of the given file on every core and 
+	 * prints the answers in the order of the queries
+	 * 
+	 * @param router the engine to answer with
+	 * @param stats the measurements wrapped around router, null if
+	 * 		  queries are not measured
+	 * @param timetable every flight of the data set
+	 * @param queries the file to read queries from, "-" for 
+	 * 		  standard input
+	 */
+	private static void batch(Router router, QueryStats stats, Timetable timetable, String queries) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		Batch batch = new Batch(stats != null ? stats : router, timetable, threads);
+		long start = System.nanoTime();
+		try (BufferedReader in = queries.equals("-") 
+				? new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+				: Files.newBufferedReader(Paths.get(queries), StandardCharsets.UTF_8)) {
+			Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+			int answered = batch.run(in, out);
+			System.err.println("answered " + answered + " queries on " + threads + " thread(s) in " 
+					+ (System.nanoTime() - start) / 1000000 + " ms");
+			if (router instanceof QueryCache) System.err.println(router);
+			if (stats != null) System.err.println(stats);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			batch.shutdown();
+		}
+	}
+	
+	/**
+	 * Serves queries over HTTP on every core until the process is 
+	 * stopped
+	 * 
+	 * @param router the engine to answer with
+	 * @param stats the measurements wrapped around the engine, printed 
+	 * 		  on exit; null if queries are not measured
+	 * @param timetable every flight of the data set
+	 * @param port the port to listen on
+	 */
+	private static void serve(Router router, QueryStats stats, Timetable timetable, int port) {
+		try {
+			RouteServer server = new RouteServer(router, timetable, port, Runtime.getRuntime().availableProcessors());
+			server.start();
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				server.stop();
+				System.err.println("served " + server.requests() + " requests");
+				if (stats != null) System.err.println(stats);
+			}));
+			System.err.println("serving http://localhost:" + server.port() + "/route?from=JFK&to=SEA&after=13:0800");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Returns the search engine with the given name
+	 * 
+	 * @param name "dijkstra" for findPath, "csa" for connection scan,
+	 * 		  "alt" for findPath as A* with landmark bounds,
+	 * 		  "csr" for a search over the compact graph, "raptor" for
+	 * 		  rounds of one flight each, "table" for 
+	 * 		  lookups in arrival tables computed for every midnight,
+	 * 		  "patterns" for evaluating precomputed transfer patterns,
+	 * 		  "days" for connection scan over day partitions read from
+	 * 		  disk as needed;
+	 * 		  any of them prefixed with "cached-" for the same engine
+	 * 		  behind a query cache
+	 * @param graph the graph to search through
+	 * @param timetable every flight of the data set
+	 * @return the router named name
+	 * @throws IllegalArgumentException if no engine is named name
+	 */
+	public static Router engine(String name, Graph<String, Integer> graph, Timetable timetable) {
+		return engine(name, graph, timetable, null);
+	}
+	
+	/**
+	 * Returns the search engine with the given name
+	 * 
+	 * @param name "dijkstra" for findPath, "csa" for connection scan,
+	 * 		  "alt" for findPath as A* with landmark bounds,
+	 * 		  "csr" for a search over the compact graph, "raptor" for
+	 * 		  rounds of one flight each, "table" for 
+	 * 		  lookups in arrival tables computed for every midnight,
+	 * 		  "patterns" for evaluating precomputed transfer patterns,
+	 * 		  "days" for connection scan over day partitions read from
+	 * 		  disk as needed;
+	 * 		  any of them prefixed with "cached-" for the same engine
+	 * 		  behind a query cache
+	 * @param graph the graph to search through
+	 * @param timetable every flight of the data set
+	 * @param compact the compact graph of timetable, null to build it 
+	 * 		  when needed
+	 * @return the router named name
+	 * @throws IllegalArgumentException if no engine is named name, or
+	 * 		   the arrival table of "table" has more cells than an array holds
+	 */
+	public static Router engine(String name, Graph<String, Integer> graph, Timetable timetable, CompactGraph compact) {
+		if (name.startsWith("cached-"))
+			return new QueryCache(engine(name.substring(7), graph, timetable, compact), graph, CACHE_ENTRIES);
+		switch (name) {
+		case "dijkstra":
+			return (from, to, departure, state) -> findPath(graph, from, to, departure, state);
+		case "csa":
+			return new ConnectionScan(graph, timetable);
+		case "csr":
+			return new CompactDijkstra(compact != null ? compact : new CompactGraph(timetable));
+		case "raptor":
+			return new Raptor(compact != null ? compact : new CompactGraph(timetable));
+		case "alt":
+			Landmarks bounds = Landmarks.compute(graph, LANDMARKS);
+			return (from, to, departure, state) -> findPath(graph, from, to, departure, state, bounds);
+		case "table":
+			return ArrivalTable.build(compact != null ? compact : new CompactGraph(timetable), 
+					ArrivalTable.midnights(timetable), Runtime.getRuntime().availableProcessors());
+		case "patterns":
+			return TransferPatterns.compute(compact != null ? compact : new CompactGraph(timetable),
+					Runtime.getRuntime().availableProcessors());
+		case "days":
+			return DayPartitions.temporary(timetable, DayPartitions.BUDGET);
+		default:
+			throw new IllegalArgumentException("unknown engine " + name);
+		}
+	}
+	
+	/**
+	 * Parses the given CSV file once and writes it out as a
+	 * snapshot that later runs can map instead of parsing
+	 * 
+	 * @param csv the BTS export to read
+	 * @param snapshot the snapshot file to write
+	 */
+	private static void compile(String csv, String snapshot) {
+		long start = System.nanoTime();
+		Timetable.Builder flights = new Timetable.Builder();
+		parseData(csv, flights);
+		Timetable all = flights.build();
+		Timetable timetable = prune(all);
+		try {
+			Snapshot.write(snapshot, timetable, new CompactGraph(timetable), timetable != all);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		System.out.println("wrote " + timetable.size() + " flights between " + timetable.airportCount() 
+				+ " airports to " + snapshot + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
 			
 
-	private static void parseData(String filename, Set<String> cities, Map<String, Map<String, Integer>> time) {
-		BufferedReader br;
+	/**
+	 * Reads every flight that was not cancelled from the given
+	 * BTS export into flights
+	 * 
+	 * @param filename the CSV file with columns DAY_OF_MONTH, ORIGIN,
+	 * 		  DEST, DEP_TIME and ARR_TIME
+	 * @param flights the builder every flight is added to
+	 * @modifies flights
+	 * @effects adds one connection to flights per flown row
+	 */
+	public static void parseData(String filename, Timetable.Builder flights) {
 		try {
-			br = new BufferedReader(new FileReader(filename));
-			br.readLine();
-
-            String inputLine;
-            while ((inputLine = br.readLine()) != null) {
-            		String[] tokens = inputLine.split(",");
-            		if (!tokens[4].equals("\"\"")) {
-	            		int timestamp = Integer.parseInt(tokens[0]) * 10000 + Integer.parseInt(tokens[4]);
-	            		String orig = tokens[1];
-	            		String dest = tokens[2];
-	            		cities.add(orig);
-	            		cities.add(dest);
-	            		
-	            		if (!time.containsKey(orig))
-	            			time.put(orig, new HashMap<String, Integer>());
-            			if (!time.get(orig).containsKey(dest))
-            				time.get(orig).put(dest, timestamp);
-	            		
-            		}
-            }
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			CsvIngest.read(filename, flights, Runtime.getRuntime().availableProcessors());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		
 	}
 
 
 	/**
-     * Creates nodes and edges from characters and books in the given graph
+	 * Drops the flights no earliest-arrival itinerary needs, unless
+	 * run with -Dflights.prune=false, and reports the cut on standard
+	 * error. Only engines that never see live changes may be given
+	 * the result: a cancellation can make a dropped flight the best
+	 * one again
+	 * 
+	 * @param timetable every flight of the data set
+	 * @return timetable without dominated and duplicate flights, or
+	 * 		   timetable itself if pruning is off
+	 */
+	public static Timetable prune(Timetable timetable) {
+		if (!PRUNE) return timetable;
+		long start = System.nanoTime();
+		int duplicates = timetable.duplicates();
+		Timetable pruned = timetable.pruned();
+		int cut = timetable.size() - pruned.size();
+		System.err.printf("pruned %d of %d flights (%.1f%%): %d duplicate, %d dominated, in %d ms%n", cut, 
+				timetable.size(), 100.0 * cut / Math.max(1, timetable.size()), duplicates, cut - duplicates,
+				(System.nanoTime() - start) / 1000000);
+		return pruned;
+	}
+	
+	/**
+	 * Checks that pruning the given export changes no earliest arrival:
+	 * from every airport, at every hour of every day with flights, the
+	 * arrival at every other airport must be the same with and without
+	 * the pruned flights
+	 * 
+	 * @param csv the BTS export to read
+	 */
+	private static void checkPruning(String csv) {
+		Timetable.Builder flights = new Timetable.Builder();
+		parseData(csv, flights);
+		Timetable all = flights.build();
+		Timetable pruned = prune(all);
+		if (all.size() == 0) return;
+		
+		CompactDijkstra before = new CompactDijkstra(new CompactGraph(all));
+		CompactDijkstra after = new CompactDijkstra(new CompactGraph(pruned));
+		SearchState full = new SearchState(all.airportCount());
+		SearchState kept = new SearchState(all.airportCount());
+		long searches = 0;
+		long mismatches = 0;
+		for (int day = all.departure(0) / 10000; day <= all.departure(all.size() - 1) / 10000; day++) {
+			for (int hour = 0; hour < 24; hour++) {
+				for (int origin = 0; origin < all.airportCount(); origin++) {
+					before.searchAll(origin, Timetable.timestamp(day, hour * 100), full);
+					after.searchAll(origin, Timetable.timestamp(day, hour * 100), kept);
+					for (int to = 0; to < all.airportCount(); to++) {
+						if (full.arrival(to) != kept.arrival(to)) mismatches++;
+					}
+					searches++;
+				}
+			}
+		}
+		System.out.println(searches + " searches from every airport, " + mismatches + " earliest arrival(s) changed");
+	}
+	
+	/**
+     * Creates nodes and edges from the flights in the given timetable
      * 
-     * @requires marvelGraph & characters & books != null 
+     * @requires graph & timetable != null 
      * @param graph Graph to add nodes and edges to
-     * @param cities list in which all character names are stored;
-     *          These become the nodes of the graph
-     * @param time map from titles of comic books to characters that
-     *          appear in them; These become the edges of the graph
-     * @modifies marvelGraph
-     * @effects fills graph with nodes from characters
-     * @effects fills graph with edges from books
+     * @param timetable every flight of the data set; airports become
+     *          the nodes of the graph and each pair of airports with
+     *          at least one flight becomes an edge labeled with the
+     *          earliest arrival along it
+     * @modifies graph
+     * @effects fills graph with nodes from airports
+     * @effects fills graph with edges carrying every flight between 
+     * 			their two airports, sorted by departure
      */
-	public static void buildGraph(Graph<String, Integer> graph, Set<String> cities, Map<String, Map<String, Integer>> time) {
-		for (String city : cities) {
-			graph.addNode(city);
+	public static void buildGraph(Graph<String, Integer> graph, Timetable timetable) {
+		Graph.Builder<String, Integer> builder = new Graph.Builder<>();
+		int airports = timetable.airportCount();
+		for (int i = 0; i < airports; i++) {
+			builder.addNode(timetable.airport(i));
 		}
 		
-		for (String city : time.keySet()) {
-			Map<String, Integer> characterMap = time.get(city);
+		int[] order = timetable.pairOrder();
+		int start = 0;
+		while (start < order.length) {
+			int origin = timetable.origin(order[start]);
+			int destination = timetable.destination(order[start]);
+			int end = start;
+			while (end < order.length && timetable.origin(order[end]) == origin 
+					&& timetable.destination(order[end]) == destination) end++;
 			
-			for (String neighbor : characterMap.keySet()) {
-				int timestamp = characterMap.get(neighbor);
-				graph.connectNodes(city, neighbor, timestamp);
+			int[] departures = new int[end - start];
+			int[] arrivals = new int[end - start];
+			int earliest = Integer.MAX_VALUE;
+			for (int i = start; i < end; i++) {
+				departures[i - start] = timetable.departure(order[i]);
+				arrivals[i - start] = timetable.arrival(order[i]);
+				earliest = Math.min(earliest, arrivals[i - start]);
 			}
+			
+			builder.connectNodes(timetable.airport(origin), timetable.airport(destination),
+					earliest, new Departures(departures, arrivals));
+			start = end;
 		}
+		// one version and one check for the whole timetable
+		graph.addAll(builder);
 	}
 	
 	/**
@@ -135,44 +631,151 @@ public class Program {
 	 * @return a list of neighbors and edges that lead connect node, from
 	 * to node, to. null if no path exists.
 	 */
-	public static Path<String> findPath(Graph<String, Integer> graph, String from, String to) {		
-		Queue<Path<String>> active = new PriorityQueue<>();
-		Set<String> finished = new HashSet<String>();
-		
+	public static Path<String> findPath(Graph<String, Integer> graph, String from, String to) {
+		return findPath(graph, from, to, 0);
+	}
+	
+	/**
+	 * Finds the earliest arriving path between two nodes starting 
+	 * with from and ending with to that leaves no earlier than 
+	 * departure. Returns null if no path exists
+	 * 
+	 * @param graph the graph to search through
+	 * @param from the label of the starting node
+	 * @param to the label of the destination node
+	 * @param departure the earliest encoded time the path may leave
+	 * @return a list of neighbors and edges that lead connect node, from
+	 * to node, to. null if no path exists.
+	 */
+	public static Path<String> findPath(Graph<String, Integer> graph, String from, String to, int departure) {
+		return findPath(graph, from, to, departure, new SearchState(graph.idBound()));
+	}
+	
+	/**
+	 * Finds the earliest arriving path between two nodes starting 
+	 * with from and ending with to that leaves no earlier than 
+	 * departure, keeping its labels in the given search state. 
+	 * Returns null if no path exists
+	 * 
+	 * @param graph the graph to search through
+	 * @param from the label of the starting node
+	 * @param to the label of the destination node
+	 * @param departure the earliest encoded time the path may leave
+	 * @param state the labels to reuse; only one query may use
+	 * 		  a state at a time
+	 * @modifies state
+	 * @return a list of neighbors and edges that lead connect node, from
+	 * to node, to. null if no path exists.
+	 */
+	public static Path<String> findPath(Graph<String, Integer> graph, String from, String to, int departure, 
+			SearchState state) {
+		return findPath(graph, from, to, departure, state, null);
+	}
+	
+	/**
+	 * Finds the earliest arriving path between two nodes starting 
+	 * with from and ending with to that leaves no earlier than 
+	 * departure. With bounds the search runs as A*, settling nodes 
+	 * in order of arrival plus a lower bound on the time left, 
+	 * which finds the same arrival while settling fewer nodes. 
+	 * Returns null if no path exists
+	 * 
+	 * @param graph the graph to search through
+	 * @param from the label of the starting node
+	 * @param to the label of the destination node
+	 * @param departure the earliest encoded time the path may leave
+	 * @param state the labels to reuse; only one query may use
+	 * 		  a state at a time
+	 * @param bounds lower bounds on travel time in graph, null or 
+	 * 		  out of date to search without them
+	 * @modifies state
+	 * @return a list of neighbors and edges that lead connect node, from
+	 * to node, to. null if no path exists.
+	 */
+	public static Path<String> findPath(Graph<String, Integer> graph, String from, String to, int departure, 
+			SearchState state, Landmarks bounds) {
+		// one version throughout, so the search sees the graph as of one moment
+		Graph.Version<String, Integer> version = graph.current();
+		Node<String, Integer> start = version.getNode(from);
+		Node<String, Integer> end = version.getNode(to);
+		if (start == null || end == null) return null;
 		
-		active.add(new Path<>(from, from, null));
+		boolean directed = bounds != null && bounds.isCurrent(version);
+		state.reset(version.idBound());
+		state.reach(start.id(), departure, -1, -1);
+		state.push(start.id());
 		
-		while (!active.isEmpty()) {
-			Path<String> minPath = active.remove();
-			String dest = minPath.destinationLabel();
+		int node;
+		while ((node = state.poll()) >= 0) {
+			if (node == end.id())
+				return buildPath(version, state, start.id(), node);
 			
-			if (dest.equals(to))
-				return minPath;
+			Node<String, Integer> current = version.getNode(node);
+			int ready = state.arrival(node);
 			
-			if (finished.contains(dest))
-				continue;
-			
-			finished.add(dest);
-			
-			List<Edge<String, Integer>> neighbors = graph.getNode(dest).edges();
-			
-			for (Edge<String, Integer> neighbor : neighbors) {
+			for (int i = 0; i < current.edgeCount(); i++) {
+				state.relaxed();
+				Edge<String, Integer> neighbor = current.edge(i);
+				int next = neighbor.toNode().id();
+				if (state.isSettled(next) || version.getNode(next) == null) 
+					continue;
 				
-				if (!finished.contains(neighbor.toLabel())) {
-					List<Edge<String, Integer>> newPathList = minPath.edges();
-					if (newPathList.isEmpty() || 
-							newPathList.get(newPathList.size() - 1).label() < neighbor.label()) {
-						newPathList.add(neighbor);
-						Path<String> newPath = new Path<>(from, neighbor.toLabel(), newPathList);
-						active.add(newPath);
-					}
+				int arrival = nextArrival(neighbor, ready);
+				if (arrival >= state.arrival(next)) continue;
+				if (!directed) {
+					state.reach(next, arrival, node, -1);
+					state.push(next);
+					continue;
 				}
 				
+				int bound = bounds.bound(next, end.id());
+				if (bound == Integer.MAX_VALUE) continue;
+				state.reach(next, arrival, node, -1);
+				state.push(next, Timetable.minutes(arrival) + bound);
 			}
-			
 		}
 		
 		return null;
 	}
 	
+	/**
+	 * Follows the parents recorded in state back from target to
+	 * source and builds the path they form
+	 * 
+	 * @param version the version of the graph that was searched
+	 * @param state the labels of a finished search
+	 * @param source the id of the starting node
+	 * @param target the id of the destination node
+	 * @return the path from source to target, each edge labeled 
+	 * 		   with its arrival
+	 */
+	private static Path<String> buildPath(Graph.Version<String, Integer> version, SearchState state, int source, 
+			int target) {
+		List<Edge<String, Integer>> edges = new ArrayList<>();
+		for (int node = target; node != source; node = state.parent(node)) {
+			edges.add(new Edge<>(state.arrival(node), version.getNode(state.parent(node)), version.getNode(node)));
+		}
+		Collections.reverse(edges);
+		return new Path<>(version.getNode(source).label(), version.getNode(target).label(), edges);
+	}
+	
+	/**
+	 * Returns the earliest arrival along the given edge for a
+	 * traveler ready to leave at time ready. Edges without a
+	 * timetable are treated as one flight landing at their label.
+	 * 
+	 * @param edge the edge to travel along
+	 * @param ready the time the traveler reaches the start of edge
+	 * @return the earliest arrival along edge, Integer.MAX_VALUE if
+	 * 		   no flight can be taken
+	 */
+	private static int nextArrival(Edge<String, Integer> edge, int ready) {
+		Departures flights = edge.flights();
+		if (flights == null) 
+			return ready < edge.label() ? edge.label() : Integer.MAX_VALUE;
+		int flight = flights.earliest(ready);
+		if (flight < 0) return Integer.MAX_VALUE;
+		return flights.arrival(flight);
+	}
+	
 }
@@ -0,0 +1,237 @@
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <b>QueryCache</b> is a bounded cache of answers in front of another
+ * Router, keyed by (from, to, departure). When it is full the least
+ * recently used answer is evicted. Queries that have no itinerary
+ * are cached as well.
+ * <p>
+ * Every answer remembers the version of the graph it was computed
+ * on. Once the graph changes through addNode, removeNode,
+ * connectNodes or disconnectNodes every cached answer is dropped, and
+ * answers computed while the graph was changing are not stored.
+ * <p>
+ * Any number of threads may query the cache at once; lookups are
+ * serialized on one lock, searches run outside it.
+ */
+public class QueryCache implements Router {
+
+	private Router router;
+	private Graph<String, Integer> graph;
+	private int capacity;
+	private LinkedHashMap<Key, Path<String>> entries;
+
+	/** The graph version every entry was computed on */
+	private long version;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	// Abstraction Function:
+	// AF(this) = a map from (from, to, departure) to the answer of router,
+	//			  in order of last use, for the graph as of version
+	// Representation Invariant = entries.size() <= capacity and capacity > 0,
+	//			  guarded by the lock on entries
+
+	/**
+	 * Constructs a new QueryCache
+	 *
+	 * @param router The router to answer misses with
+	 * @param graph The graph whose changes invalidate the cache
+	 * @param capacity The most answers to keep
+	 * @throws IllegalArgumentException if capacity is not positive
+	 * @effects constructs a new, empty QueryCache
+	 */
+	public QueryCache(Router router, Graph<String, Integer> graph, int capacity) {
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+		this.router = router;
+		this.graph = graph;
+		this.capacity = capacity;
+		this.version = graph.version();
+		this.entries = new LinkedHashMap<Key, Path<String>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Path<String>> eldest) {
+				if (size() <= QueryCache.this.capacity) return false;
+				evictions++;
+				return true;
+			}
+		};
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds
+	 */
+	private void checkRep() {
+		assert capacity > 0;
+		assert entries.size() <= capacity;
+	}
+
+	/**
+	 * Returns the cached answer to the given query, asking the
+	 * underlying router and caching its answer on a miss
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state The labels to reuse on a miss
+	 * @modifies this, state
+	 * @return the path found, null if no path exists
+	 */
+	@Override
+	public Path<String> findPath(String from, String to, int departure, SearchState state) {
+		Key key = new Key(from, to, departure);
+		long current = graph.version();
+		synchronized (entries) {
+			if (current > version) {
+				entries.clear();
+				version = current;
+				invalidations++;
+			}
+			if (current == version) {
+				Path<String> path = entries.get(key);
+				if (path != null || entries.containsKey(key)) {
+					hits++;
+					return path;
+				}
+			}
+			misses++;
+		}
+
+		Path<String> path = router.findPath(from, to, departure, state);
+		synchronized (entries) {
+			// drop the answer if the graph changed while it was computed
+			if (current == version && current == graph.version()) {
+				entries.put(key, path);
+				checkRep();
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Drops every cached answer
+	 *
+	 * @modifies this
+	 * @effects this is empty
+	 */
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of answers in the cache
+	 *
+	 * @return the number of cached answers
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * Returns the number of queries answered from the cache
+	 *
+	 * @return the hit count
+	 */
+	public long hits() {
+		synchronized (entries) {
+			return hits;
+		}
+	}
+
+	/**
+	 * Returns the number of queries passed on to the router
+	 *
+	 * @return the miss count
+	 */
+	public long misses() {
+		synchronized (entries) {
+			return misses;
+		}
+	}
+
+	/**
+	 * Returns the number of answers dropped to make room
+	 *
+	 * @return the eviction count
+	 */
+	public long evictions() {
+		synchronized (entries) {
+			return evictions;
+		}
+	}
+
+	/**
+	 * Returns the number of times the cache was emptied because
+	 * the graph changed
+	 *
+	 * @return the invalidation count
+	 */
+	public long invalidations() {
+		synchronized (entries) {
+			return invalidations;
+		}
+	}
+
+	/**
+	 * Returns the counters of this cache
+	 *
+	 * @return the size, hits, misses, hit rate, evictions and
+	 * 		   invalidations of this cache as a String
+	 */
+	@Override
+	public String toString() {
+		synchronized (entries) {
+			long queries = hits + misses;
+			return String.format("cache: %d/%d entries, %d hits, %d misses (%.1f%% hit rate), %d evictions, %d invalidations",
+					entries.size(), capacity, hits, misses, queries == 0 ? 0.0 : 100.0 * hits / queries, evictions,
+					invalidations);
+		}
+	}
+
+	/**
+	 * <b>Key</b> identifies a query.
+	 */
+	private static class Key {
+
+		private final String from;
+		private final String to;
+		private final int departure;
+
+		/**
+		 * Constructs a new Key
+		 *
+		 * @param from The FAA code of the starting airport
+		 * @param to The FAA code of the destination airport
+		 * @param departure The earliest encoded departure
+		 * @effects constructs a new Key
+		 */
+		private Key(String from, String to, int departure) {
+			this.from = from;
+			this.to = to;
+			this.departure = departure;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) return false;
+			Key key = (Key) other;
+			return departure == key.departure && from.equals(key.from) && to.equals(key.to);
+		}
+
+		@Override
+		public int hashCode() {
+			return (from.hashCode() * 31 + to.hashCode()) * 31 + departure;
+		}
+	}
+}
@@ -0,0 +1,218 @@
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * <b>QueryStats</b> instruments the queries answered by another
+ * Router: the wall time of every query goes into a latency
+ * histogram, and the work the search did (airports settled, edges
+ * relaxed, priority queue pushes and pops, Path objects allocated) is
+ * summed over every query. The figures of the last query each thread
+ * ran are kept as well, and everything is readable over JMX.
+ * <p>
+ * The search loops only count when ENABLED, which is fixed at start
+ * up from the system property flights.stats. As a static final it is
+ * folded away by the JIT, so with the property unset the counters
+ * cost nothing.
+ */
+public class QueryStats implements Router, QueryStatsMBean {
+
+	/** True if searches count their work; set with -Dflights.stats=true */
+	public static final boolean ENABLED = Boolean.getBoolean("flights.stats");
+
+	/** The name the MBean is registered under */
+	public static final String OBJECT_NAME = "flights:type=QueryStats";
+
+	/** The number of Path objects each thread has allocated */
+	private static final ThreadLocal<long[]> PATHS = ThreadLocal.withInitial(() -> new long[1]);
+
+	private Router router;
+	private Histogram latencies = new Histogram();
+	private LongAdder settled = new LongAdder();
+	private LongAdder relaxed = new LongAdder();
+	private LongAdder pushes = new LongAdder();
+	private LongAdder pops = new LongAdder();
+	private LongAdder paths = new LongAdder();
+
+	/** nanos, settled, relaxed, pushes, pops, paths of this thread's last query */
+	private ThreadLocal<long[]> last = ThreadLocal.withInitial(() -> new long[6]);
+
+	/**
+	 * Constructs a new QueryStats
+	 *
+	 * @param router The router whose queries are measured
+	 * @effects constructs a new QueryStats with nothing counted
+	 */
+	public QueryStats(Router router) {
+		this.router = router;
+	}
+
+	/**
+	 * Counts one Path allocated by the current thread
+	 *
+	 * @modifies the count of the current thread
+	 */
+	public static void countPath() {
+		PATHS.get()[0]++;
+	}
+
+	/**
+	 * Registers this with the platform MBean server
+	 *
+	 * @throws JMException if it cannot be registered, e.g. because
+	 * 		   another QueryStats already is
+	 */
+	public void register() throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+	}
+
+	/**
+	 * Answers the query with the underlying router and records what
+	 * it cost
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state The labels to reuse
+	 * @modifies this, state
+	 * @return the path found, null if no path exists
+	 */
+	@Override
+	public Path<String> findPath(String from, String to, int departure, SearchState state) {
+		return measure(state, () -> router.findPath(from, to, departure, state));
+	}
+
+	/**
+	 * Runs one query and records what it cost
+	 *
+	 * @param state The labels the query searches with
+	 * @param query The query, e.g. a call to some other method of a
+	 * 		  router such as Raptor.paretoPaths
+	 * @modifies this, state
+	 * @return the answer of query
+	 */
+	public <T> T measure(SearchState state, Supplier<T> query) {
+		long[] allocated = PATHS.get();
+		long settled = state.nodesSettled();
+		long relaxed = state.edgesRelaxed();
+		long pushes = state.pushes();
+		long pops = state.pops();
+		long paths = allocated[0];
+		long start = System.nanoTime();
+
+		T answer = query.get();
+
+		long[] figures = last.get();
+		figures[0] = System.nanoTime() - start;
+		figures[1] = state.nodesSettled() - settled;
+		figures[2] = state.edgesRelaxed() - relaxed;
+		figures[3] = state.pushes() - pushes;
+		figures[4] = state.pops() - pops;
+		figures[5] = allocated[0] - paths;
+		latencies.record(figures[0]);
+		this.settled.add(figures[1]);
+		this.relaxed.add(figures[2]);
+		this.pushes.add(figures[3]);
+		this.pops.add(figures[4]);
+		this.paths.add(figures[5]);
+		return answer;
+	}
+
+	/**
+	 * Returns the figures of the last query the current thread ran
+	 *
+	 * @return the wall time and work of the query as a String
+	 */
+	public String lastQuery() {
+		long[] query = last.get();
+		return String.format("%.1f us, %d settled, %d relaxed, %d pushes, %d pops, %d paths", query[0] / 1000.0,
+				query[1], query[2], query[3], query[4], query[5]);
+	}
+
+	@Override
+	public long getQueries() {
+		return latencies.count();
+	}
+
+	@Override
+	public long getNodesSettled() {
+		return settled.sum();
+	}
+
+	@Override
+	public long getEdgesRelaxed() {
+		return relaxed.sum();
+	}
+
+	@Override
+	public long getQueuePushes() {
+		return pushes.sum();
+	}
+
+	@Override
+	public long getQueuePops() {
+		return pops.sum();
+	}
+
+	@Override
+	public long getPathsAllocated() {
+		return paths.sum();
+	}
+
+	@Override
+	public double getMeanMicros() {
+		return latencies.mean() / 1000;
+	}
+
+	@Override
+	public double getP50Micros() {
+		return latencies.percentile(0.5) / 1000.0;
+	}
+
+	@Override
+	public double getP99Micros() {
+		return latencies.percentile(0.99) / 1000.0;
+	}
+
+	@Override
+	public double getP999Micros() {
+		return latencies.percentile(0.999) / 1000.0;
+	}
+
+	@Override
+	public double getMaxMicros() {
+		return latencies.max() / 1000.0;
+	}
+
+	@Override
+	public void reset() {
+		latencies.reset();
+		settled.reset();
+		relaxed.reset();
+		pushes.reset();
+		pops.reset();
+		paths.reset();
+	}
+
+	/**
+	 * Returns the counters and latency percentiles so far
+	 *
+	 * @return the figures summed over every query and the latency
+	 * 		   percentiles as a String
+	 */
+	@Override
+	public String toString() {
+		long queries = getQueries();
+		double per = Math.max(1, queries);
+		return String.format(
+				"stats: %d queries, per query %.1f settled, %.1f relaxed, %.1f pushes, %.1f pops, %.2f paths; "
+						+ "latency mean %.1f us, p50 %.1f us, p99 %.1f us, p999 %.1f us, max %.1f us%s",
+				queries, getNodesSettled() / per, getEdgesRelaxed() / per, getQueuePushes() / per,
+				getQueuePops() / per, getPathsAllocated() / per, getMeanMicros(), getP50Micros(), getP99Micros(),
+				getP999Micros(), getMaxMicros(), ENABLED ? "" : " (counters off, run with -Dflights.stats=true)");
+	}
+}
@@ -0,0 +1,68 @@
+
+/**
+ * <b>QueryStatsMBean</b> is the management interface of QueryStats,
+ * registered as flights:type=QueryStats. Latencies are in
+ * microseconds.
+ */
+public interface QueryStatsMBean {
+
+	/**
+	 * @return the number of queries answered
+	 */
+	long getQueries();
+
+	/**
+	 * @return the number of airports settled over every query
+	 */
+	long getNodesSettled();
+
+	/**
+	 * @return the number of edges relaxed over every query
+	 */
+	long getEdgesRelaxed();
+
+	/**
+	 * @return the number of priority queue pushes over every query
+	 */
+	long getQueuePushes();
+
+	/**
+	 * @return the number of priority queue pops over every query
+	 */
+	long getQueuePops();
+
+	/**
+	 * @return the number of Path objects allocated over every query
+	 */
+	long getPathsAllocated();
+
+	/**
+	 * @return the mean latency
+	 */
+	double getMeanMicros();
+
+	/**
+	 * @return the median latency
+	 */
+	double getP50Micros();
+
+	/**
+	 * @return the 99th percentile latency
+	 */
+	double getP99Micros();
+
+	/**
+	 * @return the 99.9th percentile latency
+	 */
+	double getP999Micros();
+
+	/**
+	 * @return the largest latency
+	 */
+	double getMaxMicros();
+
+	/**
+	 * Sets every counter back to zero and empties the histogram
+	 */
+	void reset();
+}
@@ -0,0 +1,52 @@
+
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * <b>RangeTask</b> runs a body once for every index of a range on a
+ * fork/join pool, splitting the range in half until it is small
+ * enough for one worker. Idle workers steal the halves left behind,
+ * so uneven work per index still spreads over every worker.
+ */
+public class RangeTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int start;
+	private final int end;
+	private final int grain;
+	private final IntConsumer body;
+
+	/**
+	 * Constructs a new RangeTask
+	 *
+	 * @param start The first index of the range
+	 * @param end One past the last index of the range
+	 * @param grain The most indices a worker runs without splitting further
+	 * @param body Runs a single index
+	 * @effects constructs a new RangeTask over [start..end)
+	 */
+	public RangeTask(int start, int end, int grain, IntConsumer body) {
+		this.start = start;
+		this.end = end;
+		this.grain = Math.max(1, grain);
+		this.body = body;
+	}
+
+	/**
+	 * Runs the body for every index of the range
+	 *
+	 * @effects body has been run for every index in the range
+	 */
+	@Override
+	protected void compute() {
+		if (end - start <= grain) {
+			for (int i = start; i < end; i++) {
+				body.accept(i);
+			}
+			return;
+		}
+		int middle = (start + end) >>> 1;
+		invokeAll(new RangeTask(start, middle, grain, body), new RangeTask(middle, end, grain, body));
+	}
+}
@@ -0,0 +1,277 @@
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <b>Raptor</b> answers queries with a round-based search in the
+ * style of RAPTOR. Round k extends every itinerary found in round
+ * k - 1 by exactly one flight: each airport improved in the previous
+ * round scans its outgoing airport pairs once and takes the earliest
+ * arriving flight it can still catch. There is no priority queue, and
+ * the rounds together give the earliest arrival for every number of
+ * legs, so a single query yields the Pareto set of (arrival, legs).
+ * <p>
+ * Flights in the data set have no trip identity, so every airport
+ * pair acts as a route of one stop; a round is then a scan of the
+ * adjacency of the airports marked in the round before.
+ */
+public class Raptor implements Router {
+
+	private CompactGraph graph;
+	private int maxLegs;
+	private Node<String, Integer>[] nodes;
+	private ThreadLocal<Rounds> rounds;
+
+	/**
+	 * Constructs a new Raptor that runs as many rounds as it takes
+	 *
+	 * @param graph The graph to search through
+	 * @effects constructs a new Raptor over graph
+	 */
+	public Raptor(CompactGraph graph) {
+		this(graph, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructs a new Raptor
+	 *
+	 * @param graph The graph to search through
+	 * @param maxLegs The most flights an itinerary may take
+	 * @throws IllegalArgumentException if maxLegs is not positive
+	 * @effects constructs a new Raptor over graph
+	 */
+	@SuppressWarnings("unchecked")
+	public Raptor(CompactGraph graph, int maxLegs) {
+		if (maxLegs <= 0) throw new IllegalArgumentException("maxLegs must be positive");
+		this.graph = graph;
+		this.maxLegs = maxLegs;
+		this.nodes = (Node<String, Integer>[]) new Node<?, ?>[graph.nodeCount()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new Node<>(graph.label(i));
+		}
+		this.rounds = ThreadLocal.withInitial(Rounds::new);
+	}
+
+	/**
+	 * Finds the itinerary from from to to that leaves no earlier than
+	 * departure and arrives as early as possible. Returns null if no
+	 * itinerary exists
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state The labels to reuse
+	 * @modifies state
+	 * @return the earliest arriving path, null if no path exists
+	 */
+	@Override
+	public Path<String> findPath(String from, String to, int departure, SearchState state) {
+		List<Path<String>> paths = paretoPaths(from, to, departure, state);
+		if (paths.isEmpty()) return null;
+		return paths.get(paths.size() - 1);
+	}
+
+	/**
+	 * Finds every itinerary from from to to that leaves no earlier
+	 * than departure and is not beaten on both arrival and number of
+	 * legs by another itinerary
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itineraries may leave
+	 * @return the Pareto set, see paretoPaths(from, to, departure, state)
+	 */
+	public List<Path<String>> paretoPaths(String from, String to, int departure) {
+		return paretoPaths(from, to, departure, new SearchState(graph.nodeCount()));
+	}
+
+	/**
+	 * Finds every itinerary from from to to that leaves no earlier
+	 * than departure and is not beaten on both arrival and number of
+	 * legs by another itinerary
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itineraries may leave
+	 * @param state The labels to keep the best arrival at every airport in
+	 * @modifies state
+	 * @return the Pareto set ordered by increasing number of legs, and so
+	 * 		   by decreasing arrival; empty if no path exists
+	 */
+	public List<Path<String>> paretoPaths(String from, String to, int departure, SearchState state) {
+		List<Path<String>> paths = new ArrayList<>();
+		int source = graph.id(from);
+		int target = graph.id(to);
+		if (source < 0 || target < 0) return paths;
+		if (source == target) {
+			paths.add(new Path<>(from, to));
+			return paths;
+		}
+
+		Rounds labels = rounds.get();
+		labels.start(graph.nodeCount());
+		state.reset(graph.nodeCount());
+		state.reach(source, departure, -1, -1);
+		labels.round(0).reach(source, departure, -1, -1);
+		labels.mark(source);
+
+		for (int k = 1; k <= maxLegs && labels.nextRound(); k++) {
+			SearchState previous = labels.round(k - 1);
+			SearchState current = labels.round(k);
+			for (int i = 0; i < labels.markedCount(); i++) {
+				int node = labels.marked(i);
+				int time = previous.arrival(node);
+				for (int e = graph.edgesStart(node); e < graph.edgesEnd(node); e++) {
+					state.relaxed();
+					int flight = graph.earliest(e, time);
+					if (flight < 0) continue;
+					int next = graph.target(e);
+					int arrival = graph.arrival(flight);
+					// only keep labels that beat every round so far, here and at the target
+					if (arrival >= state.arrival(next) || arrival >= state.arrival(target)) continue;
+
+					current.reach(next, arrival, node, flight);
+					state.reach(next, arrival, node, flight);
+					labels.mark(next);
+				}
+			}
+			if (current.arrival(target) != Integer.MAX_VALUE)
+				paths.add(buildPath(from, to, target, k, labels));
+		}
+		return paths;
+	}
+
+	/**
+	 * Walks the labels of the rounds back from the target found in
+	 * round legs to the source and turns the flights taken into a path
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param target The id of the destination airport
+	 * @param legs The round the target was reached in
+	 * @param labels The labels of every round so far
+	 * @return the path of legs flights to target
+	 */
+	private Path<String> buildPath(String from, String to, int target, int legs, Rounds labels) {
+		List<Edge<String, Integer>> edges = new ArrayList<>();
+		int node = target;
+		for (int k = legs; k > 0; k--) {
+			SearchState round = labels.round(k);
+			int parent = round.parent(node);
+			edges.add(new Edge<>(round.arrival(node), nodes[parent], nodes[node]));
+			node = parent;
+		}
+		Collections.reverse(edges);
+		return new Path<>(from, to, edges);
+	}
+
+	/**
+	 * <b>Rounds</b> holds the labels of every round of one thread's
+	 * queries along with the airports marked in the current and the
+	 * next round, and reuses them from query to query.
+	 */
+	private static class Rounds {
+
+		private List<SearchState> labels = new ArrayList<>();
+		private int nodes;
+
+		private int[] marked = new int[0];
+		private int markedCount;
+		private int[] next = new int[0];
+		private int nextCount;
+
+		/** The last round whose labels were cleared in the current query */
+		private int round;
+
+		/** inNext[u] == stamp if u is already marked for the next round */
+		private int[] inNext = new int[0];
+		private int stamp;
+
+		/**
+		 * Starts a new query
+		 *
+		 * @param nodes The number of airports
+		 * @modifies this
+		 * @effects no round has labels and nothing is marked
+		 */
+		private void start(int nodes) {
+			this.nodes = nodes;
+			if (marked.length < nodes) {
+				marked = new int[nodes];
+				next = new int[nodes];
+				inNext = new int[nodes];
+				stamp = 0;
+			}
+			round = -1;
+			markedCount = 0;
+			nextCount = 0;
+			stamp++;
+		}
+
+		/**
+		 * Returns the labels of round k, clearing them the first time
+		 * round k is asked for in the current query
+		 *
+		 * @param k The round, at most one more than the last round asked for
+		 * @modifies this
+		 * @return the labels of round k
+		 */
+		private SearchState round(int k) {
+			if (k == labels.size()) labels.add(new SearchState(nodes));
+			if (k > round) {
+				labels.get(k).reset(nodes);
+				round = k;
+			}
+			return labels.get(k);
+		}
+
+		/**
+		 * Marks the given airport for the next round
+		 *
+		 * @param node The id of the airport
+		 * @modifies this
+		 */
+		private void mark(int node) {
+			if (inNext[node] == stamp) return;
+			inNext[node] = stamp;
+			next[nextCount++] = node;
+		}
+
+		/**
+		 * Makes the airports marked for the next round the marked
+		 * airports of the current one
+		 *
+		 * @modifies this
+		 * @return true if any airport is marked
+		 */
+		private boolean nextRound() {
+			int[] swap = marked;
+			marked = next;
+			next = swap;
+			markedCount = nextCount;
+			nextCount = 0;
+			stamp++;
+			return markedCount > 0;
+		}
+
+		/**
+		 * Returns the number of airports marked in the current round
+		 *
+		 * @return the number of marked airports
+		 */
+		private int markedCount() {
+			return markedCount;
+		}
+
+		/**
+		 * Returns a marked airport of the current round
+		 *
+		 * @param i The position of the airport, below markedCount()
+		 * @return the id of the airport
+		 */
+		private int marked(int i) {
+			return marked[i];
+		}
+	}
+}
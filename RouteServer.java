@@ -0,0 +1,349 @@
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * <b>RouteServer</b> answers queries over HTTP with the JDK's built-in
+ * server. Every request is answered by the same router, which is only
+ * ever read, so one loaded graph serves every connection; each worker
+ * thread keeps a SearchState of its own.
+ * <p>
+ * Queries are GET requests with the airports and an optional
+ * departure in DAY:HHMM form:
+ * <pre>
+ *   GET /route?from=JFK&amp;to=SEA&amp;after=13:0800
+ * </pre>
+ * and are answered with JSON written by hand, no reflection:
+ * <pre>
+ *   {"from":"JFK","to":"SEA","after":"13:0800","arrival":"13:1402",
+ *    "legs":[{"from":"JFK","to":"ORD","arrival":"13:1015"}, ...]}
+ * </pre>
+ * Malformed queries, times of day past 2359 and unknown airports get
+ * 400, queries with no itinerary 404, and queries the engine fails on,
+ * such as a day partition that cannot be read, 500; each with
+ * {"error":"..."}.
+ * <p>
+ * A search is a short burst of CPU with no blocking, so requests run
+ * on a fixed pool of one thread per core: more threads would only
+ * take turns on the same cores.
+ */
+public class RouteServer {
+
+	/** The port served on by default */
+	public static final int PORT = 8080;
+
+	/** The number of connections the operating system may queue */
+	private static final int BACKLOG = 1024;
+
+	private HttpServer server;
+	private ExecutorService workers;
+	private Router router;
+	private Timetable timetable;
+	private ThreadLocal<SearchState> states;
+	private LongAdder requests = new LongAdder();
+
+	/**
+	 * Constructs a new RouteServer; it does not accept connections
+	 * until started
+	 *
+	 * @param router The engine every query is answered by; it must be
+	 * 		  safe to use from several threads with separate states
+	 * @param timetable The timetable queries are checked against
+	 * @param port The port to listen on, 0 for any free port
+	 * @param threads The number of worker threads
+	 * @throws IOException if the port cannot be bound
+	 * @effects constructs a new RouteServer bound to port
+	 */
+	public RouteServer(Router router, Timetable timetable, int port, int threads) throws IOException {
+		this.router = router;
+		this.timetable = timetable;
+		this.states = ThreadLocal.withInitial(() -> new SearchState(timetable.airportCount()));
+		this.workers = Executors.newFixedThreadPool(Math.max(1, threads));
+		this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+		server.createContext("/route", this::route);
+		server.setExecutor(workers);
+	}
+
+	/**
+	 * Starts accepting connections
+	 *
+	 * @modifies this
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops accepting connections and stops the workers once the
+	 * requests in progress are answered
+	 *
+	 * @modifies this
+	 */
+	public void stop() {
+		server.stop(0);
+		workers.shutdown();
+	}
+
+	/**
+	 * Returns the port this server listens on
+	 *
+	 * @return the bound port
+	 */
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Returns the number of requests answered so far
+	 *
+	 * @return the request count
+	 */
+	public long requests() {
+		return requests.sum();
+	}
+
+	/**
+	 * Answers one request to /route
+	 *
+	 * @param exchange The request and its response
+	 * @throws IOException if the response cannot be written
+	 */
+	private void route(HttpExchange exchange) throws IOException {
+		try {
+			StringBuilder json = new StringBuilder(256);
+			int status;
+			if (!exchange.getRequestMethod().equals("GET")) {
+				status = 405;
+				error(json, "only GET is supported");
+			} else {
+				try {
+					status = answer(parameters(exchange.getRequestURI().getRawQuery()), json);
+				} catch (RuntimeException e) {
+					// answered rather than dropping the connection, and the
+					// worker goes on to the next request
+					e.printStackTrace();
+					json.setLength(0);
+					status = 500;
+					error(json, "search failed: " + e);
+				}
+			}
+			byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(status, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body);
+			}
+			requests.increment();
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Answers a query and writes the answer as JSON
+	 *
+	 * @param parameters The parameters of the query
+	 * @param json Receives the answer
+	 * @modifies json
+	 * @return the HTTP status of the answer
+	 * @throws RuntimeException if the router fails
+	 */
+	private int answer(Map<String, String> parameters, StringBuilder json) {
+		String from = parameters.get("from");
+		String to = parameters.get("to");
+		String after = parameters.get("after");
+		if (from == null || to == null) {
+			error(json, "from and to are required");
+			return 400;
+		}
+		int departure;
+		try {
+			departure = after != null ? Timetable.parseTime(after) : 0;
+		} catch (NumberFormatException e) {
+			error(json, "after: " + e.getMessage());
+			return 400;
+		}
+		for (String airport : new String[] { from, to }) {
+			if (timetable.id(airport) < 0) {
+				error(json, "unknown airport " + airport);
+				return 400;
+			}
+		}
+
+		Path<String> path = router.findPath(from, to, departure, states.get());
+		if (path == null) {
+			error(json, "no path found");
+			return 404;
+		}
+		json.append("{\"from\":");
+		string(json, from);
+		json.append(",\"to\":");
+		string(json, to);
+		json.append(",\"after\":\"").append(Timetable.formatTime(departure)).append("\",\"arrival\":");
+		if (path.edges().isEmpty()) json.append("null");
+		else json.append('"').append(Timetable.formatTime(path.time())).append('"');
+		json.append(",\"legs\":[");
+		boolean first = true;
+		for (Edge<String, Integer> edge : path.edges()) {
+			if (!first) json.append(',');
+			first = false;
+			json.append("{\"from\":");
+			string(json, edge.fromLabel());
+			json.append(",\"to\":");
+			string(json, edge.toLabel());
+			json.append(",\"arrival\":\"").append(Timetable.formatTime(edge.label())).append("\"}");
+		}
+		json.append("]}");
+		return 200;
+	}
+
+	/**
+	 * Writes an error as JSON
+	 *
+	 * @param json Receives the error
+	 * @param message The error message
+	 * @modifies json
+	 */
+	private static void error(StringBuilder json, String message) {
+		json.append("{\"error\":");
+		string(json, message);
+		json.append('}');
+	}
+
+	/**
+	 * Writes a JSON string, escaping what JSON requires
+	 *
+	 * @param json Receives the string
+	 * @param text The text of the string
+	 * @modifies json
+	 */
+	private static void string(StringBuilder json, String text) {
+		json.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '"' || c == '\\') json.append('\\').append(c);
+			else if (c < 0x20) json.append(String.format("\\u%04x", (int) c));
+			else json.append(c);
+		}
+		json.append('"');
+	}
+
+	/**
+	 * Splits a query string into its parameters
+	 *
+	 * @param query The raw query string, may be null
+	 * @return the decoded value of every parameter by name; the last
+	 * 		   value wins if a name repeats
+	 */
+	private static Map<String, String> parameters(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		if (query == null) return parameters;
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals <= 0) continue;
+			try {
+				parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+			} catch (IllegalArgumentException e) {
+				// skips parameters that are not valid percent-encoding
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Serves results.csv on a free port and measures the throughput of
+	 * clients that each send their next random query as soon as the
+	 * last one is answered
+	 *
+	 * @param args Optional engine name, dijkstra by default, number of
+	 * 		  seconds, 5 by default, and number of clients, 64 by default
+	 * @throws IOException if the server cannot be started
+	 * @throws InterruptedException if interrupted while waiting for clients
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String engine = args.length > 0 ? args[0] : "dijkstra";
+		long seconds = args.length > 1 ? Long.parseLong(args[1]) : 5;
+		int clients = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		Timetable.Builder builder = new Timetable.Builder();
+		Program.parseData("results.csv", builder);
+		Timetable all = builder.build();
+		// the same data Program serves: every flight in the graph, only
+		// the others in the timetable of the static engines
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, all);
+		Timetable timetable = Program.prune(all);
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		RouteServer server = new RouteServer(Program.engine(engine, graph, timetable), timetable, 0, threads);
+		server.start();
+		String base = "http://localhost:" + server.port() + "/route";
+		HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+		Histogram latencies = new Histogram();
+		LongAdder errors = new LongAdder();
+		AtomicBoolean done = new AtomicBoolean();
+		List<Thread> running = new ArrayList<>();
+		for (int c = 0; c < clients; c++) {
+			Random random = new Random(c);
+			Thread thread = new Thread(() -> {
+				while (!done.get()) {
+					String from = timetable.airport(random.nextInt(timetable.airportCount()));
+					String to = timetable.airport(random.nextInt(timetable.airportCount()));
+					int departure = Timetable.timestamp(12 + random.nextInt(6), random.nextInt(24) * 100);
+					HttpRequest request = HttpRequest.newBuilder(URI.create(base + "?from=" + from + "&to=" + to
+							+ "&after=" + Timetable.formatTime(departure))).build();
+					long start = System.nanoTime();
+					try {
+						int status = client.send(request, HttpResponse.BodyHandlers.ofByteArray()).statusCode();
+						if (status != 200 && status != 404) errors.increment();
+					} catch (IOException e) {
+						errors.increment();
+					} catch (InterruptedException e) {
+						return;
+					}
+					latencies.record(System.nanoTime() - start);
+				}
+			});
+			thread.start();
+			running.add(thread);
+		}
+
+		// measure only once every client is up to speed
+		Thread.sleep(1000);
+		long before = server.requests();
+		long start = System.nanoTime();
+		latencies.reset();
+		Thread.sleep(seconds * 1000);
+		long answered = server.requests() - before;
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		done.set(true);
+		for (Thread thread : running) {
+			thread.join();
+		}
+		server.stop();
+
+		System.out.printf("%s: %d clients, %d server threads, %,.0f requests/s, p50 %d us, p99 %d us, p999 %d us, "
+				+ "%d errors%n", engine, clients, threads, answered / elapsed, latencies.percentile(0.5) / 1000,
+				latencies.percentile(0.99) / 1000, latencies.percentile(0.999) / 1000, errors.sum());
+	}
+}
@@ -0,0 +1,43 @@
+
+/**
+ * A <b>Router</b> answers earliest-arrival queries between two
+ * airports. Implementations differ only in the search technique
+ * they use, so that engines can be swapped and compared on the
+ * same data.
+ * <p>
+ * Times are encoded as DAY_OF_MONTH * 10000 + HHMM, the same
+ * encoding used for the edge labels of the flight graph.
+ */
+public interface Router {
+
+	/**
+	 * Finds an itinerary from the airport labeled from to the
+	 * airport labeled to that leaves no earlier than departure.
+	 * Returns null if no such itinerary exists.
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @return the path found, null if no path exists
+	 */
+	default Path<String> findPath(String from, String to, int departure) {
+		return findPath(from, to, departure, new SearchState(0));
+	}
+
+	/**
+	 * Finds an itinerary from the airport labeled from to the
+	 * airport labeled to that leaves no earlier than departure,
+	 * keeping the labels of the search in state. Routers are
+	 * read-only, so one router may serve many threads as long as
+	 * each thread brings its own state.
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state The labels to reuse; only one query may use a
+	 * 		  state at a time
+	 * @modifies state
+	 * @return the path found, null if no path exists
+	 */
+	Path<String> findPath(String from, String to, int departure, SearchState state);
+}
@@ -0,0 +1,264 @@
+
+import java.util.Arrays;
+
+/**
+ * <b>SearchState</b> holds the per-airport labels of one
+ * earliest-arrival search: the best known arrival, the airport it
+ * was reached from and an engine-specific payload such as the flight
+ * taken. It also holds the search frontier as an IndexedHeap of
+ * airports, where the priority is the arrival unless the search
+ * pushes the airport with a priority of its own. Pushing an airport
+ * that is already on the frontier changes its priority in place.
+ * <p>
+ * A state is reused across queries by a single thread. Starting a
+ * new query does not clear the arrays; labels are instead tagged with
+ * the query they were written by, so reset costs O(1) unless the
+ * graph has grown.
+ * <p>
+ * While QueryStats.ENABLED the state also counts the work done with
+ * it across every query: airports settled, edges relaxed and heap
+ * pushes and pops.
+ */
+public class SearchState {
+
+	private int[] arrival;
+	private int[] parent;
+	private int[] via;
+
+	/** reached[u] == query if arrival[u] was written by the current query */
+	private int[] reached;
+
+	/** settled[u] == query if u has been polled by the current query */
+	private int[] settled;
+	private int query;
+	private int settledCount;
+
+	private IndexedHeap frontier;
+
+	/** Totals over every query, only counted while QueryStats.ENABLED */
+	private long nodesSettled;
+	private long edgesRelaxed;
+	private long pushes;
+	private long pops;
+
+	// AF(this) = airport u is reached at arrival[u] from parent[u] via via[u]
+	//			  if reached[u] == query, unreached otherwise
+	// Representation Invariant = arrival, parent, via, reached, settled
+	//		have the same length, the frontier holds ids below that length
+
+	/**
+	 * Constructs a new SearchState for graphs with up to nodes airports
+	 *
+	 * @param nodes The number of airports to size the labels for
+	 * @effects constructs a new SearchState with no query started
+	 */
+	public SearchState(int nodes) {
+		this.arrival = new int[nodes];
+		this.parent = new int[nodes];
+		this.via = new int[nodes];
+		this.reached = new int[nodes];
+		this.settled = new int[nodes];
+		this.query = 0;
+		this.frontier = new IndexedHeap(nodes);
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds (if any).
+	 */
+	private void checkRep() {
+		assert (parent.length == arrival.length && via.length == arrival.length
+				&& reached.length == arrival.length && settled.length == arrival.length);
+	}
+
+	/**
+	 * Starts a new query over a graph with up to nodes airports
+	 *
+	 * @param nodes The number of airports of the graph to search
+	 * @modifies this
+	 * @effects forgets every label and empties the frontier
+	 */
+	public void reset(int nodes) {
+		if (nodes > arrival.length) {
+			arrival = new int[nodes];
+			parent = new int[nodes];
+			via = new int[nodes];
+			reached = new int[nodes];
+			settled = new int[nodes];
+			query = 0;
+			frontier.ensureCapacity(nodes);
+		}
+		if (++query == 0) {
+			Arrays.fill(reached, 0);
+			Arrays.fill(settled, 0);
+			query = 1;
+		}
+		frontier.clear();
+		settledCount = 0;
+	}
+
+	/**
+	 * Returns the best known arrival at the given airport
+	 *
+	 * @param node The id of the airport
+	 * @return the best known arrival, Integer.MAX_VALUE if the
+	 * 		   airport has not been reached
+	 */
+	public int arrival(int node) {
+		if (reached[node] != query) return Integer.MAX_VALUE;
+		return arrival[node];
+	}
+
+	/**
+	 * Returns the airport the given airport was reached from
+	 *
+	 * @param node The id of a reached airport
+	 * @return the id of its predecessor, -1 for the source
+	 */
+	public int parent(int node) {
+		return parent[node];
+	}
+
+	/**
+	 * Returns the payload recorded when the given airport was reached
+	 *
+	 * @param node The id of a reached airport
+	 * @return the payload, e.g. the flight taken into node
+	 */
+	public int via(int node) {
+		return via[node];
+	}
+
+	/**
+	 * Records a new best arrival at the given airport
+	 *
+	 * @param node The id of the airport
+	 * @param time The encoded arrival
+	 * @param from The id of the predecessor, -1 for the source
+	 * @param payload The engine-specific payload, e.g. a flight
+	 * @modifies this
+	 * @effects labels node with time, from and payload
+	 */
+	public void reach(int node, int time, int from, int payload) {
+		arrival[node] = time;
+		parent[node] = from;
+		via[node] = payload;
+		reached[node] = query;
+	}
+
+	/**
+	 * Returns true if the given airport has been polled
+	 *
+	 * @param node The id of the airport
+	 * @return true if node has been settled by this query
+	 */
+	public boolean isSettled(int node) {
+		return settled[node] == query;
+	}
+
+	/**
+	 * Returns the number of airports settled by this query
+	 *
+	 * @return the number of successful polls since reset
+	 */
+	public int settledCount() {
+		return settledCount;
+	}
+
+	/**
+	 * Counts one edge relaxed by the search using this state
+	 *
+	 * @modifies this
+	 * @effects increments edgesRelaxed() if QueryStats.ENABLED
+	 */
+	public void relaxed() {
+		if (QueryStats.ENABLED) edgesRelaxed++;
+	}
+
+	/**
+	 * Returns the number of airports settled with this state over every
+	 * query, 0 unless QueryStats.ENABLED
+	 *
+	 * @return the total number of airports settled
+	 */
+	public long nodesSettled() {
+		return nodesSettled;
+	}
+
+	/**
+	 * Returns the number of edges relaxed with this state over every
+	 * query, 0 unless QueryStats.ENABLED
+	 *
+	 * @return the total number of edges relaxed
+	 */
+	public long edgesRelaxed() {
+		return edgesRelaxed;
+	}
+
+	/**
+	 * Returns the number of pushes and priority changes on the frontier
+	 * over every query, 0 unless QueryStats.ENABLED
+	 *
+	 * @return the total number of pushes
+	 */
+	public long pushes() {
+		return pushes;
+	}
+
+	/**
+	 * Returns the number of airports removed from the frontier over
+	 * every query; 0 unless QueryStats.ENABLED
+	 *
+	 * @return the total number of pops
+	 */
+	public long pops() {
+		return pops;
+	}
+
+	/**
+	 * Adds the given airport to the frontier at its current arrival
+	 *
+	 * @param node The id of a reached airport
+	 * @modifies this
+	 * @effects adds node to the frontier
+	 */
+	public void push(int node) {
+		push(node, arrival[node]);
+	}
+
+	/**
+	 * Adds the given airport to the frontier with the given priority,
+	 * or changes its priority if it is on the frontier already
+	 *
+	 * @param node The id of a reached airport
+	 * @param key The priority; smaller is polled first
+	 * @modifies this
+	 * @effects node is on the frontier with priority key
+	 */
+	public void push(int node, int key) {
+		if (QueryStats.ENABLED) pushes++;
+		frontier.push(node, key);
+	}
+
+	/**
+	 * Removes and settles the unsettled airport with the smallest
+	 * priority on the frontier. Airports pushed again after they
+	 * were settled are skipped.
+	 *
+	 * @modifies this
+	 * @effects removes airports from the frontier, settles the result
+	 * @return the id of the settled airport, -1 if the frontier is empty
+	 */
+	public int poll() {
+		int node;
+		while ((node = frontier.poll()) >= 0) {
+			if (QueryStats.ENABLED) pops++;
+			if (settled[node] == query) continue;
+			settled[node] = query;
+			settledCount++;
+			if (QueryStats.ENABLED) nodesSettled++;
+			return node;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,249 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <b>Snapshot</b> is a precompiled binary form of a timetable and
+ * its compact graph. It is written once and then memory-mapped on
+ * start-up: the connection and adjacency columns are used in place,
+ * straight from the mapping, so loading costs the same no matter
+ * how many flights the snapshot holds.
+ * <p>
+ * Layout, all ints little-endian:
+ * <pre>
+ *   MAGIC, VERSION, airports, connections, edges, FLAGS
+ *   airport name offsets (airports + 1), airport name bytes padded to 4
+ *   departures, arrivals, origins, destinations (connections each)
+ *   edge offsets (airports + 1), targets, weights (edges each),
+ *   flight offsets (edges + 1), departures, arrivals, earliest (connections each)
+ * </pre>
+ * FLAGS records how the timetable was prepared: PRUNED if dominated
+ * and duplicate flights were left out, in which case live changes
+ * cannot be applied to it faithfully.
+ */
+public class Snapshot {
+
+	/** "FSPS" */
+	private static final int MAGIC = 0x46535053;
+
+	/** Bumped whenever the layout changes */
+	private static final int VERSION = 2;
+
+	private static final int HEADER_INTS = 6;
+
+	/** Set in FLAGS if the timetable went through Timetable.pruned() */
+	private static final int PRUNED = 1;
+
+	private Timetable timetable;
+	private CompactGraph graph;
+	private boolean pruned;
+
+	/**
+	 * Constructs a new Snapshot
+	 *
+	 * @param timetable The timetable held by the snapshot
+	 * @param graph The compact graph held by the snapshot
+	 * @param pruned True if dominated flights were left out of timetable
+	 * @effects constructs a new Snapshot
+	 */
+	private Snapshot(Timetable timetable, CompactGraph graph, boolean pruned) {
+		this.timetable = timetable;
+		this.graph = graph;
+		this.pruned = pruned;
+	}
+
+	/**
+	 * Returns the timetable held by this snapshot
+	 *
+	 * @return the timetable
+	 */
+	public Timetable timetable() {
+		return timetable;
+	}
+
+	/**
+	 * Returns the compact graph held by this snapshot
+	 *
+	 * @return the compact graph
+	 */
+	public CompactGraph graph() {
+		return graph;
+	}
+
+	/**
+	 * Returns true if dominated and duplicate flights were left out of
+	 * the timetable of this snapshot, which then no longer holds the
+	 * flights a cancellation may make useful again
+	 *
+	 * @return true if the snapshot was written pruned
+	 */
+	public boolean pruned() {
+		return pruned;
+	}
+
+	/**
+	 * Writes the given timetable and graph to file
+	 *
+	 * @requires graph was built from timetable
+	 * @param filename The file to write, replaced if it exists
+	 * @param timetable The timetable to write
+	 * @param graph The compact graph to write
+	 * @param pruned True if timetable went through Timetable.pruned()
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(String filename, Timetable timetable, CompactGraph graph, boolean pruned)
+			throws IOException {
+		byte[][] names = new byte[timetable.airportCount()][];
+		int nameBytes = 0;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = timetable.airport(i).getBytes(StandardCharsets.UTF_8);
+			nameBytes += names[i].length;
+		}
+
+		try (FileChannel out = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(timetable.airportCount())
+					.putInt(timetable.size()).putInt(graph.edgeCount()).putInt(pruned ? PRUNED : 0);
+
+			int offset = 0;
+			for (int i = 0; i <= names.length; i++) {
+				buffer = ensure(out, buffer, 4);
+				buffer.putInt(offset);
+				if (i < names.length) offset += names[i].length;
+			}
+			for (byte[] name : names) {
+				buffer = ensure(out, buffer, name.length);
+				buffer.put(name);
+			}
+			for (int pad = nameBytes; pad % 4 != 0; pad++) {
+				buffer = ensure(out, buffer, 1);
+				buffer.put((byte) 0);
+			}
+
+			for (IntBuffer column : timetable.columns()) {
+				buffer = write(out, buffer, column);
+			}
+			for (IntBuffer column : graph.columns()) {
+				buffer = write(out, buffer, column);
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) out.write(buffer);
+		}
+	}
+
+	/**
+	 * Appends every int of column to the file through buffer
+	 *
+	 * @param out The file being written
+	 * @param buffer The write buffer
+	 * @param column The ints to append
+	 * @return the write buffer
+	 * @throws IOException if the file cannot be written
+	 */
+	private static ByteBuffer write(FileChannel out, ByteBuffer buffer, IntBuffer column) throws IOException {
+		for (int i = 0; i < column.limit(); i++) {
+			buffer = ensure(out, buffer, 4);
+			buffer.putInt(column.get(i));
+		}
+		return buffer;
+	}
+
+	/**
+	 * Flushes buffer to the file if it has less than bytes left
+	 *
+	 * @param out The file being written
+	 * @param buffer The write buffer
+	 * @param bytes The number of bytes about to be put
+	 * @return the write buffer, ready for bytes more bytes
+	 * @throws IOException if the file cannot be written
+	 */
+	private static ByteBuffer ensure(FileChannel out, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() >= bytes) return buffer;
+		buffer.flip();
+		while (buffer.hasRemaining()) out.write(buffer);
+		buffer.clear();
+		if (buffer.remaining() < bytes)
+			buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * Maps the given snapshot into memory. Only the airport table is
+	 * decoded; every other column is read from the mapping on use.
+	 *
+	 * @param filename The snapshot to load
+	 * @return the mapped snapshot
+	 * @throws IOException if the file cannot be read, was written by
+	 * 		   another version or is too large to map
+	 */
+	public static Snapshot load(String filename) throws IOException {
+		MappedByteBuffer map;
+		try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			if (in.size() > Integer.MAX_VALUE)
+				throw new IOException("snapshot larger than 2 GB: " + filename);
+			map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer ints = map.asIntBuffer();
+		if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC)
+			throw new IOException("not a snapshot: " + filename);
+		if (ints.get(1) != VERSION)
+			throw new IOException("snapshot version " + ints.get(1) + " but expected " + VERSION + ": " + filename);
+
+		int airports = ints.get(2);
+		int connections = ints.get(3);
+		int edges = ints.get(4);
+		boolean pruned = (ints.get(5) & PRUNED) != 0;
+
+		int position = HEADER_INTS;
+		String[] names = new String[airports];
+		int bytesStart = (position + airports + 1) * 4;
+		for (int i = 0; i < airports; i++) {
+			int start = ints.get(position + i);
+			byte[] name = new byte[ints.get(position + i + 1) - start];
+			map.get(bytesStart + start, name);
+			names[i] = new String(name, StandardCharsets.UTF_8);
+		}
+		position += airports + 1 + (ints.get(position + airports) + 3) / 4;
+
+		IntBuffer[] columns = new IntBuffer[4];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = slice(ints, position, connections);
+			position += connections;
+		}
+		Timetable timetable = new Timetable(names, columns[0], columns[1], columns[2], columns[3]);
+
+		int[] lengths = { airports + 1, edges, edges, edges + 1, connections, connections, connections };
+		IntBuffer[] graph = new IntBuffer[lengths.length];
+		for (int i = 0; i < graph.length; i++) {
+			graph[i] = slice(ints, position, lengths[i]);
+			position += lengths[i];
+		}
+		if (position != ints.limit())
+			throw new IOException("truncated or corrupt snapshot: " + filename);
+		return new Snapshot(timetable, new CompactGraph(timetable, graph), pruned);
+	}
+
+	/**
+	 * Returns a view of length ints of buffer starting at position
+	 *
+	 * @param buffer The buffer to slice
+	 * @param position The first int of the view
+	 * @param length The number of ints in the view
+	 * @return the view
+	 * @throws IOException if the view runs past the end of buffer
+	 */
+	private static IntBuffer slice(IntBuffer buffer, int position, int length) throws IOException {
+		if (position + length > buffer.limit())
+			throw new IOException("snapshot column runs past end of file");
+		return buffer.slice(position, length);
+	}
+}
@@ -0,0 +1,523 @@
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <b>Timetable</b> holds every flight of a data set as a connection:
+ * an origin, a destination, a departure and an arrival. Connections
+ * are stored in primitive arrays sorted by departure so that they can
+ * be scanned front to back without touching any objects.
+ * <p>
+ * Times are encoded as DAY * 10000 + HHMM, where DAY is the day of
+ * the month for exports of a single month and the number of days
+ * since 1970-01-01 for exports that name the YEAR and MONTH of each
+ * flight. Airports are interned to dense int ids in the range
+ * [0, airportCount()).
+ */
+public class Timetable {
+
+	/**
+	 * The last day parseTime accepts. Exports that span months count
+	 * days from 1970, so this is centuries past any data set, yet keeps
+	 * the encoded times of arrivals days later far from overflowing
+	 */
+	public static final int LAST_DAY = 99999;
+
+	private String[] airports;
+	private Map<String, Integer> ids;
+
+	/**
+	 * Connection columns, all sorted by departure. They wrap heap
+	 * arrays when built from a file and mapped memory when loaded
+	 * from a snapshot.
+	 */
+	private IntBuffer departures;
+	private IntBuffer arrivals;
+	private IntBuffer origins;
+	private IntBuffer destinations;
+
+	// AF(this) = connection i leaves airports[origins[i]] at departures[i]
+	//			  and lands at airports[destinations[i]] at arrivals[i]
+	// Representation Invariant = all columns have the same length,
+	//		departures is sorted ascending, departures[i] <= arrivals[i],
+	//		ids.get(airports[k]) == k for every airport k
+
+	/**
+	 * Constructs a new Timetable from already sorted columns, either
+	 * wrapped arrays or views into a mapped snapshot
+	 *
+	 * @param airports The FAA codes indexed by airport id
+	 * @param departures The departure of each connection
+	 * @param arrivals The arrival of each connection
+	 * @param origins The origin id of each connection
+	 * @param destinations The destination id of each connection
+	 * @effects constructs a new Timetable
+	 */
+	Timetable(String[] airports, IntBuffer departures, IntBuffer arrivals, IntBuffer origins, IntBuffer destinations) {
+		this.airports = airports;
+		this.ids = new HashMap<String, Integer>();
+		for (int i = 0; i < airports.length; i++) {
+			ids.put(airports[i], i);
+		}
+		this.departures = departures;
+		this.arrivals = arrivals;
+		this.origins = origins;
+		this.destinations = destinations;
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds (if any).
+	 */
+	private void checkRep() {
+		assert (departures.limit() == arrivals.limit() && origins.limit() == departures.limit()
+				&& destinations.limit() == departures.limit()) : "columns must have the same length";
+		for (int i = 0; i < departures.limit(); i++) {
+			assert (i == 0 || departures.get(i - 1) <= departures.get(i)) : "connections must be sorted by departure";
+			assert (departures.get(i) <= arrivals.get(i)) : "connections cannot arrive before they leave";
+		}
+	}
+
+	/**
+	 * Encodes a day of month and a time of day
+	 *
+	 * @param day The day of the month
+	 * @param hhmm The time of day as HHMM
+	 * @return the encoded time
+	 */
+	public static int timestamp(int day, int hhmm) {
+		return day * 10000 + hhmm;
+	}
+
+	/**
+	 * Parses a time written as DAY:HHMM, e.g. 13:0800
+	 *
+	 * @param text The time to parse
+	 * @return the encoded time
+	 * @throws NumberFormatException if text is not of the form DAY:HHMM
+	 * 		   with four digits of HHMM from 0000 to 2359 and DAY from 0
+	 * 		   to LAST_DAY
+	 */
+	public static int parseTime(String text) {
+		int colon = text.indexOf(':');
+		if (colon < 0 || text.length() - colon != 5) throw new NumberFormatException("expected DAY:HHMM but was " + text);
+		for (int i = colon + 1; i < text.length(); i++) {
+			if (text.charAt(i) < '0' || text.charAt(i) > '9')
+				throw new NumberFormatException("expected DAY:HHMM but was " + text);
+		}
+		int day = Integer.parseInt(text.substring(0, colon));
+		int hhmm = Integer.parseInt(text.substring(colon + 1));
+		if (day < 0 || day > LAST_DAY || hhmm / 100 > 23 || hhmm % 100 > 59)
+			throw new NumberFormatException("expected DAY from 0 to " + LAST_DAY + " and HHMM from 0000 to 2359 but was "
+					+ text);
+		return timestamp(day, hhmm);
+	}
+
+	/**
+	 * Writes an encoded time as DAY:HHMM, the form parseTime reads
+	 *
+	 * @param time The encoded time
+	 * @return the time as text, e.g. 13:0800
+	 */
+	public static String formatTime(int time) {
+		return time / 10000 + ":" + String.format("%04d", time % 10000);
+	}
+
+	/**
+	 * Converts an encoded time to minutes since day 0
+	 *
+	 * @param time The encoded time
+	 * @return the number of minutes since day 0 at 0000
+	 */
+	public static int minutes(int time) {
+		int hhmm = time % 10000;
+		return (time / 10000) * 1440 + (hhmm / 100) * 60 + hhmm % 100;
+	}
+
+	/**
+	 * Converts minutes since day 0 to an encoded time
+	 *
+	 * @param minutes The number of minutes since day 0 at 0000
+	 * @return the encoded time
+	 */
+	public static int fromMinutes(int minutes) {
+		int hhmm = minutes % 1440;
+		return timestamp(minutes / 1440, (hhmm / 60) * 100 + hhmm % 60);
+	}
+
+	/**
+	 * Returns the number of airports in this timetable
+	 *
+	 * @return the number of airports
+	 */
+	public int airportCount() {
+		return airports.length;
+	}
+
+	/**
+	 * Returns the id of the airport with the given FAA code
+	 *
+	 * @param label The FAA code of the airport
+	 * @return the id of the airport, -1 if it is not in the timetable
+	 */
+	public int id(String label) {
+		Integer id = ids.get(label);
+		if (id == null) return -1;
+		return id;
+	}
+
+	/**
+	 * Returns the FAA code of the airport with the given id
+	 *
+	 * @param id The id of the airport
+	 * @return the FAA code of the airport
+	 */
+	public String airport(int id) {
+		return airports[id];
+	}
+
+	/**
+	 * Returns the number of connections in this timetable
+	 *
+	 * @return the number of connections
+	 */
+	public int size() {
+		return departures.limit();
+	}
+
+	/**
+	 * Returns the encoded departure time of the given connection
+	 *
+	 * @param connection The index of the connection
+	 * @return the encoded departure time of the connection
+	 */
+	public int departure(int connection) {
+		return departures.get(connection);
+	}
+
+	/**
+	 * Returns the encoded arrival time of the given connection
+	 *
+	 * @param connection The index of the connection
+	 * @return the encoded arrival time of the connection
+	 */
+	public int arrival(int connection) {
+		return arrivals.get(connection);
+	}
+
+	/**
+	 * Returns the id of the departure airport of the given connection
+	 *
+	 * @param connection The index of the connection
+	 * @return the id of the departure airport of the connection
+	 */
+	public int origin(int connection) {
+		return origins.get(connection);
+	}
+
+	/**
+	 * Returns the id of the arrival airport of the given connection
+	 *
+	 * @param connection The index of the connection
+	 * @return the id of the arrival airport of the connection
+	 */
+	public int destination(int connection) {
+		return destinations.get(connection);
+	}
+
+	/**
+	 * Returns the index of the first connection that leaves
+	 * at or after the given time
+	 *
+	 * @param time The encoded time
+	 * @return the index of the first connection leaving at or after
+	 * 		   time, size() if there is none
+	 */
+	public int firstDeparture(int time) {
+		int low = 0;
+		int high = departures.limit();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (departures.get(mid) < time) low = mid + 1;
+			else high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the connection columns in the order departures,
+	 * arrivals, origins, destinations, for writing a snapshot
+	 *
+	 * @return read-only views of the four columns
+	 */
+	IntBuffer[] columns() {
+		return new IntBuffer[] { departures.asReadOnlyBuffer(), arrivals.asReadOnlyBuffer(),
+				origins.asReadOnlyBuffer(), destinations.asReadOnlyBuffer() };
+	}
+
+	/**
+	 * Returns the order in which the first size connections of the
+	 * given columns are stored: by departure, ties broken by arrival
+	 * so that a connection landing at the minute another one leaves
+	 * is scanned first, then by index
+	 *
+	 * @param departures The encoded departure of each connection
+	 * @param arrivals The encoded arrival of each connection
+	 * @param size The number of connections
+	 * @return the connection indices in departure order
+	 * @throws IllegalStateException if the connections span too many
+	 * 		   days to be sorted with a single key
+	 */
+	static int[] departureOrder(int[] departures, int[] arrivals, int size) {
+		int first = Integer.MAX_VALUE;
+		int last = 0;
+		int longest = 0;
+		for (int i = 0; i < size; i++) {
+			first = Math.min(first, departures[i]);
+			last = Math.max(last, departures[i]);
+			longest = Math.max(longest, arrivals[i] - departures[i]);
+		}
+
+		// departure, duration and index are packed into one long using
+		// only as many bits as each needs, so that a year of flights
+		// numbered from 1970 still sorts as primitives
+		int indexBits = 32 - Integer.numberOfLeadingZeros(size);
+		int durationBits = 32 - Integer.numberOfLeadingZeros(longest);
+		int departureBits = size == 0 ? 0 : 32 - Integer.numberOfLeadingZeros(last - first);
+		if (indexBits + durationBits + departureBits > 63)
+			throw new IllegalStateException("too many days of flights to sort at once");
+
+		long[] order = new long[size];
+		for (int i = 0; i < size; i++) {
+			long duration = arrivals[i] - departures[i];
+			order[i] = ((long) (departures[i] - first) << (durationBits + indexBits)) | (duration << indexBits) | i;
+		}
+		Arrays.sort(order);
+
+		int[] connections = new int[size];
+		long mask = (1L << indexBits) - 1;
+		for (int i = 0; i < size; i++) {
+			connections[i] = (int) (order[i] & mask);
+		}
+		return connections;
+	}
+
+	/**
+	 * Returns the indices of all connections grouped by airport
+	 * pair, ordered by origin, then destination, then departure
+	 *
+	 * @return the connection indices in pair order
+	 */
+	public int[] pairOrder() {
+		// connections are already sorted by departure, so sorting their
+		// indices by pair keeps each pair's flights in departure order
+		long[] order = new long[size()];
+		for (int c = 0; c < order.length; c++) {
+			long pair = (long) origins.get(c) * airports.length + destinations.get(c);
+			order[c] = (pair << 32) | c;
+		}
+		Arrays.sort(order);
+
+		int[] connections = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			connections[i] = (int) order[i];
+		}
+		return connections;
+	}
+
+	/**
+	 * Returns a timetable without the connections that cannot be part
+	 * of an earliest-arrival itinerary: those for which another
+	 * connection between the same two airports leaves no earlier and
+	 * lands no later. Of connections that are exact duplicates, one is
+	 * kept. Every earliest arrival is the same in both timetables.
+	 *
+	 * @return a new Timetable with the undominated connections, in
+	 * 		   the same order and with the same airport ids
+	 */
+	public Timetable pruned() {
+		boolean[] kept = new boolean[size()];
+		int[] order = pairOrder();
+		int end = order.length;
+		while (end > 0) {
+			int origin = origins.get(order[end - 1]);
+			int destination = destinations.get(order[end - 1]);
+			int start = end;
+			while (start > 0 && origins.get(order[start - 1]) == origin
+					&& destinations.get(order[start - 1]) == destination) start--;
+
+			// from the last departure back, a connection is kept only if it
+			// lands before every connection leaving later; of those leaving
+			// at the same minute, which are stored earliest landing first,
+			// only the first can be
+			int landing = Integer.MAX_VALUE;
+			for (int i = end - 1; i >= start; i--) {
+				if (i > start && departures.get(order[i - 1]) == departures.get(order[i])) continue;
+				if (arrivals.get(order[i]) < landing) {
+					kept[order[i]] = true;
+					landing = arrivals.get(order[i]);
+				}
+			}
+			end = start;
+		}
+
+		int size = 0;
+		for (boolean keep : kept) {
+			if (keep) size++;
+		}
+		int[] dep = new int[size];
+		int[] arr = new int[size];
+		int[] orig = new int[size];
+		int[] dest = new int[size];
+		int next = 0;
+		for (int c = 0; c < kept.length; c++) {
+			if (!kept[c]) continue;
+			dep[next] = departures.get(c);
+			arr[next] = arrivals.get(c);
+			orig[next] = origins.get(c);
+			dest[next] = destinations.get(c);
+			next++;
+		}
+		return new Timetable(airports, IntBuffer.wrap(dep), IntBuffer.wrap(arr), IntBuffer.wrap(orig),
+				IntBuffer.wrap(dest));
+	}
+
+	/**
+	 * Returns the number of connections that repeat an earlier one:
+	 * the same two airports at the same departure and arrival
+	 *
+	 * @return the number of exact duplicates
+	 */
+	public int duplicates() {
+		int[] order = pairOrder();
+		int duplicates = 0;
+		for (int i = 1; i < order.length; i++) {
+			int a = order[i - 1];
+			int b = order[i];
+			if (origins.get(a) == origins.get(b) && destinations.get(a) == destinations.get(b)
+					&& departures.get(a) == departures.get(b) && arrivals.get(a) == arrivals.get(b)) duplicates++;
+		}
+		return duplicates;
+	}
+
+	/**
+	 * <b>Builder</b> collects connections in any order and sorts
+	 * them by departure once, when the timetable is built.
+	 */
+	public static class Builder implements CsvIngest.Sink {
+
+		private Map<String, Integer> ids = new HashMap<String, Integer>();
+		private String[] airports = new String[64];
+		private int[] departures = new int[1024];
+		private int[] arrivals = new int[1024];
+		private int[] origins = new int[1024];
+		private int[] destinations = new int[1024];
+		private int size = 0;
+
+		/**
+		 * Adds a connection to the timetable being built
+		 *
+		 * @param origin The FAA code of the departure airport
+		 * @param destination The FAA code of the arrival airport
+		 * @param departure The encoded departure time
+		 * @param arrival The encoded arrival time
+		 * @modifies this
+		 * @effects adds a connection from origin to destination
+		 */
+		public void add(String origin, String destination, int departure, int arrival) {
+			grow(size + 1);
+			departures[size] = departure;
+			arrivals[size] = arrival;
+			origins[size] = intern(origin);
+			destinations[size] = intern(destination);
+			size++;
+		}
+
+		/**
+		 * Adds count connections given as columns whose airport ids
+		 * index into names rather than into this builder
+		 *
+		 * @param names The FAA codes indexed by the ids used in the columns
+		 * @param departures The encoded departure of each connection
+		 * @param arrivals The encoded arrival of each connection
+		 * @param origins The origin id of each connection
+		 * @param destinations The destination id of each connection
+		 * @param count The number of connections to add
+		 * @modifies this
+		 * @effects adds count connections
+		 */
+		@Override
+		public void addAll(String[] names, int[] departures, int[] arrivals, int[] origins, int[] destinations,
+				int count) {
+			int[] local = new int[names.length];
+			for (int i = 0; i < names.length; i++) {
+				local[i] = names[i] == null ? -1 : intern(names[i]);
+			}
+			grow(size + count);
+			for (int i = 0; i < count; i++) {
+				this.departures[size] = departures[i];
+				this.arrivals[size] = arrivals[i];
+				this.origins[size] = local[origins[i]];
+				this.destinations[size] = local[destinations[i]];
+				size++;
+			}
+		}
+
+		/**
+		 * Makes room for at least capacity connections
+		 *
+		 * @param capacity The number of connections to hold
+		 * @modifies this
+		 */
+		private void grow(int capacity) {
+			if (capacity <= departures.length) return;
+			int length = Math.max(capacity, departures.length * 2);
+			departures = Arrays.copyOf(departures, length);
+			arrivals = Arrays.copyOf(arrivals, length);
+			origins = Arrays.copyOf(origins, length);
+			destinations = Arrays.copyOf(destinations, length);
+		}
+
+		/**
+		 * Returns the id of the given airport, assigning the
+		 * next free id if it has not been seen yet
+		 *
+		 * @param airport The FAA code of the airport
+		 * @return the id of the airport
+		 */
+		private int intern(String airport) {
+			Integer id = ids.get(airport);
+			if (id != null) return id;
+			if (ids.size() == airports.length)
+				airports = Arrays.copyOf(airports, airports.length * 2);
+			airports[ids.size()] = airport;
+			ids.put(airport, ids.size());
+			return ids.size() - 1;
+		}
+
+		/**
+		 * Sorts the collected connections by departure and
+		 * returns them as a timetable
+		 *
+		 * @return a new Timetable holding every added connection
+		 */
+		public Timetable build() {
+			int[] order = departureOrder(departures, arrivals, size);
+			int[] dep = new int[size];
+			int[] arr = new int[size];
+			int[] orig = new int[size];
+			int[] dest = new int[size];
+			for (int i = 0; i < size; i++) {
+				int c = order[i];
+				dep[i] = departures[c];
+				arr[i] = arrivals[c];
+				orig[i] = origins[c];
+				dest[i] = destinations[c];
+			}
+			return new Timetable(Arrays.copyOf(airports, ids.size()), IntBuffer.wrap(dep), IntBuffer.wrap(arr),
+					IntBuffer.wrap(orig), IntBuffer.wrap(dest));
+		}
+	}
+}
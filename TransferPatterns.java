@@ -0,0 +1,455 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <b>TransferPatterns</b> answers queries from precomputed transfer
+ * patterns: for every pair of airports, the few sequences of airports
+ * that some optimal itinerary between them passes through, whatever
+ * the departure. A query evaluates each pattern of its pair by
+ * looking up the earliest arriving flight along one airport pair at a
+ * time, in the per-pair flight tables of a CompactGraph, and keeps the
+ * earliest arrival. No graph search runs at query time.
+ * <p>
+ * The earliest arrivals from an origin only change at the times
+ * flights leave it, so the precompute runs one search to every airport
+ * per origin and departure time, in parallel across origins, and keeps
+ * the airport sequence of every path found. The patterns can be saved
+ * to disk and mapped back in place, like a Snapshot.
+ * <p>
+ * Layout, all ints little-endian:
+ * <pre>
+ *   MAGIC, VERSION, airports, connections, pattern ints
+ *   offsets (airports * airports + 1)
+ *   patterns (pattern ints): legs, then the airports after the origin
+ * </pre>
+ */
+public class TransferPatterns implements Router {
+
+	/** "FSTP" */
+	private static final int MAGIC = 0x46535450;
+
+	/** Bumped whenever the layout changes */
+	private static final int VERSION = 1;
+
+	private static final int HEADER_INTS = 5;
+
+	private CompactGraph graph;
+	private IntBuffer offsets;
+	private IntBuffer patterns;
+	private Node<String, Integer>[] nodes;
+
+	// Abstraction Function:
+	// AF(this) = the patterns from o to t are the entries of patterns from
+	//			  offsets[o * n + t] up to offsets[o * n + t + 1]; each entry is
+	//			  its number of legs k followed by the k airports after o, the
+	//			  last of which is t; where n = graph.nodeCount()
+	// Representation Invariant = offsets holds n * n + 1 non-decreasing
+	//			  ints ending at patterns.limit()
+
+	/**
+	 * Constructs a new TransferPatterns
+	 *
+	 * @param graph The graph the patterns were computed over
+	 * @param offsets The start of the patterns of every pair
+	 * @param patterns The patterns
+	 * @effects constructs a new TransferPatterns
+	 */
+	@SuppressWarnings("unchecked")
+	private TransferPatterns(CompactGraph graph, IntBuffer offsets, IntBuffer patterns) {
+		this.graph = graph;
+		this.offsets = offsets;
+		this.patterns = patterns;
+		this.nodes = (Node<String, Integer>[]) new Node<?, ?>[graph.nodeCount()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = new Node<>(graph.label(i));
+		}
+		checkRep();
+	}
+
+	/**
+	 * Checks that the representation invariant holds
+	 */
+	private void checkRep() {
+		int n = graph.nodeCount();
+		assert offsets.limit() == n * n + 1 : "one offset per pair";
+		assert offsets.get(n * n) == patterns.limit() : "offsets must end at the last pattern";
+	}
+
+	/**
+	 * Computes the transfer patterns of every pair of airports
+	 *
+	 * @param graph The graph to search through
+	 * @param threads The number of threads to search with
+	 * @return the patterns of graph
+	 */
+	public static TransferPatterns compute(CompactGraph graph, int threads) {
+		int n = graph.nodeCount();
+		int[][] perOrigin = new int[n][];
+		int[][] perOriginOffsets = new int[n][];
+		CompactDijkstra search = new CompactDijkstra(graph);
+		ThreadLocal<SearchState> states = ThreadLocal.withInitial(() -> new SearchState(n));
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+		try {
+			pool.invoke(new RangeTask(0, n, 1, origin -> {
+				Trie trie = origin(graph, search, states.get(), origin);
+				perOriginOffsets[origin] = new int[n + 1];
+				perOrigin[origin] = trie.flatten(n, perOriginOffsets[origin]);
+			}));
+		} finally {
+			pool.shutdown();
+		}
+
+		int total = 0;
+		for (int[] flat : perOrigin) total += flat.length;
+		int[] offsets = new int[n * n + 1];
+		int[] patterns = new int[total];
+		int position = 0;
+		for (int origin = 0; origin < n; origin++) {
+			for (int target = 0; target < n; target++) {
+				offsets[origin * n + target] = position + perOriginOffsets[origin][target];
+			}
+			System.arraycopy(perOrigin[origin], 0, patterns, position, perOrigin[origin].length);
+			position += perOrigin[origin].length;
+		}
+		offsets[n * n] = position;
+		return new TransferPatterns(graph, IntBuffer.wrap(offsets), IntBuffer.wrap(patterns));
+	}
+
+	/**
+	 * Collects the patterns of every path found from origin at every
+	 * time a flight leaves it
+	 *
+	 * @param graph The graph to search through
+	 * @param search The search to run
+	 * @param state The labels to search with
+	 * @param origin The id of the origin
+	 * @modifies state
+	 * @return the patterns from origin as a trie
+	 */
+	private static Trie origin(CompactGraph graph, CompactDijkstra search, SearchState state, int origin) {
+		List<Integer> times = new ArrayList<>();
+		for (int e = graph.edgesStart(origin); e < graph.edgesEnd(origin); e++) {
+			for (int f = graph.flightsStart(e); f < graph.flightsEnd(e); f++) {
+				times.add(graph.departure(f));
+			}
+		}
+		Collections.sort(times);
+
+		int n = graph.nodeCount();
+		Trie trie = new Trie(origin);
+		int[] pattern = new int[n];
+		int[] stamp = new int[n];
+		int[] stack = new int[n];
+		int query = 0;
+		int last = -1;
+		for (int time : times) {
+			if (time == last) continue;
+			last = time;
+			search.searchAll(origin, time, state);
+			query++;
+			stamp[origin] = query;
+			pattern[origin] = 0;
+			for (int target = 0; target < n; target++) {
+				if (stamp[target] == query || state.arrival(target) == Integer.MAX_VALUE) continue;
+				// climb to an airport whose pattern is known, then come back down
+				int depth = 0;
+				int node = target;
+				while (stamp[node] != query) {
+					stack[depth++] = node;
+					node = state.parent(node);
+				}
+				while (depth > 0) {
+					int child = stack[--depth];
+					pattern[child] = trie.child(pattern[node], child);
+					stamp[child] = query;
+					node = child;
+				}
+			}
+		}
+		return trie;
+	}
+
+	/**
+	 * Returns the number of patterns over every pair
+	 *
+	 * @return the number of patterns
+	 */
+	public int patternCount() {
+		int count = 0;
+		for (int i = 0; i < patterns.limit(); i += patterns.get(i) + 1) count++;
+		return count;
+	}
+
+	/**
+	 * Finds the itinerary from from to to that leaves no earlier than
+	 * departure and arrives as early as possible, by evaluating every
+	 * pattern of the pair. Returns null if no itinerary exists
+	 *
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The earliest encoded time the itinerary may leave
+	 * @param state Unused; no search runs
+	 * @return the earliest arriving path, null if no path exists
+	 */
+	@Override
+	public Path<String> findPath(String from, String to, int departure, SearchState state) {
+		int source = graph.id(from);
+		int target = graph.id(to);
+		if (source < 0 || target < 0) return null;
+		if (source == target) return new Path<>(from, to);
+
+		int pair = source * graph.nodeCount() + target;
+		int best = Integer.MAX_VALUE;
+		int bestPattern = -1;
+		for (int i = offsets.get(pair); i < offsets.get(pair + 1); i += patterns.get(i) + 1) {
+			int arrival = evaluate(source, i, departure, null);
+			if (arrival < best) {
+				best = arrival;
+				bestPattern = i;
+			}
+		}
+		if (bestPattern < 0) return null;
+
+		List<Edge<String, Integer>> edges = new ArrayList<>();
+		evaluate(source, bestPattern, departure, edges);
+		return new Path<>(from, to, edges);
+	}
+
+	/**
+	 * Follows a pattern taking the earliest arriving flight of each leg
+	 *
+	 * @param source The id of the origin
+	 * @param pattern The index of the pattern in patterns
+	 * @param departure The earliest encoded time the first leg may leave
+	 * @param edges Receives one edge per leg if not null
+	 * @modifies edges
+	 * @return the arrival at the end of the pattern, Integer.MAX_VALUE if
+	 * 		   some leg has no flight left
+	 */
+	private int evaluate(int source, int pattern, int departure, List<Edge<String, Integer>> edges) {
+		int time = departure;
+		int node = source;
+		int legs = patterns.get(pattern);
+		for (int j = 1; j <= legs; j++) {
+			int next = patterns.get(pattern + j);
+			int flight = graph.earliest(graph.edge(node, next), time);
+			if (flight < 0) return Integer.MAX_VALUE;
+			time = graph.arrival(flight);
+			if (edges != null) edges.add(new Edge<>(time, nodes[node], nodes[next]));
+			node = next;
+		}
+		return time;
+	}
+
+	/**
+	 * Writes these patterns to file
+	 *
+	 * @param filename The file to write, replaced if it exists
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(String filename) throws IOException {
+		try (FileChannel out = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(graph.nodeCount()).putInt(graph.flightCount())
+					.putInt(patterns.limit());
+			for (IntBuffer column : new IntBuffer[] { offsets, patterns }) {
+				for (int i = 0; i < column.limit(); i++) {
+					if (buffer.remaining() < 4) {
+						buffer.flip();
+						while (buffer.hasRemaining()) out.write(buffer);
+						buffer.clear();
+					}
+					buffer.putInt(column.get(i));
+				}
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) out.write(buffer);
+		}
+	}
+
+	/**
+	 * Maps patterns written by save back into memory
+	 *
+	 * @param filename The patterns to load
+	 * @param graph The graph the patterns were computed over
+	 * @return the mapped patterns
+	 * @throws IOException if the file cannot be read, was written by
+	 * 		   another version or for another timetable
+	 */
+	public static TransferPatterns load(String filename, CompactGraph graph) throws IOException {
+		MappedByteBuffer map;
+		try (FileChannel in = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			if (in.size() > Integer.MAX_VALUE)
+				throw new IOException("patterns larger than 2 GB: " + filename);
+			map = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+		}
+		map.order(ByteOrder.LITTLE_ENDIAN);
+		IntBuffer ints = map.asIntBuffer();
+		if (ints.limit() < HEADER_INTS || ints.get(0) != MAGIC)
+			throw new IOException("not a transfer pattern file: " + filename);
+		if (ints.get(1) != VERSION)
+			throw new IOException("patterns version " + ints.get(1) + " but expected " + VERSION + ": " + filename);
+		if (ints.get(2) != graph.nodeCount() || ints.get(3) != graph.flightCount())
+			throw new IOException("patterns were computed for another timetable: " + filename);
+
+		int pairs = graph.nodeCount() * graph.nodeCount() + 1;
+		int size = ints.get(4);
+		if ((long) HEADER_INTS + pairs + size != ints.limit())
+			throw new IOException("truncated or corrupt patterns: " + filename);
+		return new TransferPatterns(graph, ints.slice(HEADER_INTS, pairs), ints.slice(HEADER_INTS + pairs, size));
+	}
+
+	/**
+	 * Computes the patterns of a snapshot, saves them and checks them
+	 * against a search on random queries
+	 *
+	 * @param args The snapshot to read, results.snap by default, and the
+	 * 		  patterns to write, results.patterns by default
+	 * @throws IOException if a file cannot be read or written
+	 */
+	public static void main(String[] args) throws IOException {
+		Snapshot snapshot = Snapshot.load(args.length > 0 ? args[0] : "results.snap");
+		String filename = args.length > 1 ? args[1] : "results.patterns";
+		CompactGraph graph = snapshot.graph();
+
+		long start = System.nanoTime();
+		TransferPatterns patterns = compute(graph, Runtime.getRuntime().availableProcessors());
+		patterns.save(filename);
+		System.out.println("wrote " + patterns.patternCount() + " patterns to " + filename + " in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+
+		TransferPatterns loaded = load(filename, graph);
+		CompactDijkstra search = new CompactDijkstra(graph);
+		SearchState state = new SearchState(graph.nodeCount());
+		Random random = new Random(20010911);
+		int queries = 20000;
+		int mismatches = 0;
+		long searched = 0;
+		long looked = 0;
+		for (int q = 0; q < queries; q++) {
+			String from = graph.label(random.nextInt(graph.nodeCount()));
+			String to = graph.label(random.nextInt(graph.nodeCount()));
+			int departure = Timetable.timestamp(12 + random.nextInt(6), random.nextInt(24) * 100 + random.nextInt(60));
+			long t0 = System.nanoTime();
+			Path<String> expected = search.findPath(from, to, departure, state);
+			long t1 = System.nanoTime();
+			Path<String> actual = loaded.findPath(from, to, departure, state);
+			looked += System.nanoTime() - t1;
+			searched += t1 - t0;
+			Integer a = expected == null ? null : expected.time();
+			Integer b = actual == null ? null : actual.time();
+			if (a == null ? b != null : !a.equals(b)) mismatches++;
+		}
+		System.out.printf("%d mismatches in %d queries; search %.1f us, patterns %.1f us per query%n", mismatches,
+				queries, searched / 1000.0 / queries, looked / 1000.0 / queries);
+	}
+
+	/**
+	 * <b>Trie</b> holds the patterns from one origin as a tree of
+	 * airports rooted at the origin. Every node of the tree is the
+	 * pattern of an optimal path to its airport.
+	 */
+	private static class Trie {
+
+		private int[] parents = new int[64];
+		private int[] airports = new int[64];
+		private int size = 1;
+
+		/** Maps (parent << 32 | airport) to the child node */
+		private Map<Long, Integer> children = new HashMap<>();
+
+		/**
+		 * Constructs a new Trie holding only its root
+		 *
+		 * @param origin The id of the origin
+		 * @effects constructs a new Trie
+		 */
+		private Trie(int origin) {
+			parents[0] = -1;
+			airports[0] = origin;
+		}
+
+		/**
+		 * Returns the child of the given node for the given airport,
+		 * adding it if it does not exist
+		 *
+		 * @param parent The node to extend
+		 * @param airport The id of the airport of the child
+		 * @modifies this
+		 * @return the child node
+		 */
+		private int child(int parent, int airport) {
+			Long key = ((long) parent << 32) | airport;
+			Integer child = children.get(key);
+			if (child != null) return child;
+			if (size == parents.length) {
+				parents = Arrays.copyOf(parents, size * 2);
+				airports = Arrays.copyOf(airports, size * 2);
+			}
+			parents[size] = parent;
+			airports[size] = airport;
+			children.put(key, size);
+			return size++;
+		}
+
+		/**
+		 * Returns every pattern of this trie grouped by target, fewest
+		 * legs first within each target
+		 *
+		 * @param n The number of airports
+		 * @param offsets Receives, for every target, the start of its
+		 * 		  patterns in the result, and the length of the result last
+		 * @modifies offsets
+		 * @return the patterns, each as its number of legs followed by
+		 * 		   the airports after the origin
+		 */
+		private int[] flatten(int n, int[] offsets) {
+			int[] depths = new int[size];
+			int total = 0;
+			int[] perTarget = new int[n];
+			for (int node = 1; node < size; node++) {
+				// parents are always added before their children
+				depths[node] = depths[parents[node]] + 1;
+				total += depths[node] + 1;
+				perTarget[airports[node]] += depths[node] + 1;
+			}
+			for (int target = 0; target < n; target++) {
+				offsets[target + 1] = offsets[target] + perTarget[target];
+			}
+
+			Integer[] order = new Integer[size - 1];
+			for (int i = 0; i < order.length; i++) order[i] = i + 1;
+			Arrays.sort(order, (a, b) -> airports[a] != airports[b]
+					? Integer.compare(airports[a], airports[b]) : Integer.compare(depths[a], depths[b]));
+
+			int[] flat = new int[total];
+			int position = 0;
+			for (int node : order) {
+				int depth = depths[node];
+				flat[position] = depth;
+				for (int at = node, j = depth; j > 0; at = parents[at], j--) {
+					flat[position + j] = airports[at];
+				}
+				position += depth + 1;
+			}
+			return flat;
+		}
+	}
+}
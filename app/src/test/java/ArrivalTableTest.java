@@ -0,0 +1,72 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests ArrivalTable on results.csv: lookups at its slots must give the
+ * arrivals of a search, and tables too large for an array are refused
+ * before anything is allocated.
+ */
+public class ArrivalTableTest {
+
+	private static Timetable timetable;
+	private static CompactGraph graph;
+
+	/**
+	 * Reads results.csv once for every test
+	 *
+	 * @throws IOException if results.csv cannot be read
+	 */
+	@BeforeAll
+	public static void load() throws IOException {
+		Timetable.Builder builder = new Timetable.Builder();
+		CsvIngest.read("results.csv", builder, Runtime.getRuntime().availableProcessors());
+		timetable = builder.build();
+		graph = new CompactGraph(timetable);
+	}
+
+	@Test
+	public void testMatchesSearch() {
+		int[] slots = ArrivalTable.midnights(timetable);
+		ArrivalTable table = ArrivalTable.build(graph, slots, 2);
+		Router search = new CompactDijkstra(graph);
+		Random random = new Random(20010911);
+		SearchState state = new SearchState(0);
+		for (int q = 0; q < 2000; q++) {
+			String from = timetable.airport(random.nextInt(timetable.airportCount()));
+			String to = timetable.airport(random.nextInt(timetable.airportCount()));
+			int departure = slots[random.nextInt(slots.length)];
+			assertEquals(arrival(search.findPath(from, to, departure, state)),
+					arrival(table.findPath(from, to, departure, state)),
+					from + " " + to + " " + Timetable.formatTime(departure));
+		}
+	}
+
+	@Test
+	public void testTooManyCellsThrows() {
+		int n = graph.nodeCount();
+		// one slot more than an int[] of n * n cells per slot can hold
+		int[] slots = new int[Integer.MAX_VALUE / (n * n) + 1];
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = i;
+		}
+		assertThrows(IllegalArgumentException.class, () -> ArrivalTable.build(graph, slots, 1));
+	}
+
+	/**
+	 * Returns the arrival of a path
+	 *
+	 * @param path The path, may be null
+	 * @return the encoded arrival, null if there is no path or it has
+	 * 		   no legs
+	 */
+	private static Integer arrival(Path<String> path) {
+		return path == null ? null : path.time();
+	}
+}
@@ -0,0 +1,189 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests DayPartitions against ConnectionScan on results.csv: both scan
+ * the same connections, so every earliest arrival must be the same,
+ * however few partitions fit the budget and however many threads
+ * search at once.
+ */
+public class DayPartitionsTest {
+
+	private static final int THREADS = 4;
+	private static final int QUERIES = 20000;
+
+	/** Small enough that partitions are evicted and read again */
+	private static final long BUDGET = 256 << 10;
+
+	private static Timetable timetable;
+	private static Router csa;
+
+	/**
+	 * Reads results.csv once for every test
+	 *
+	 * @throws IOException if results.csv cannot be read
+	 */
+	@BeforeAll
+	public static void load() throws IOException {
+		Timetable.Builder builder = new Timetable.Builder();
+		CsvIngest.read("results.csv", builder, Runtime.getRuntime().availableProcessors());
+		timetable = builder.build();
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, timetable);
+		csa = new ConnectionScan(graph, timetable);
+	}
+
+	@Test
+	public void testMatchesConnectionScan(@TempDir File directory) throws IOException {
+		DayPartitions.write(timetable, directory.getPath());
+		DayPartitions partitions = DayPartitions.open(directory.getPath(), BUDGET);
+		assertEquals(timetable.size(), partitions.size());
+
+		Random random = new Random(20010911);
+		SearchState state = new SearchState(0);
+		SearchState check = new SearchState(0);
+		for (int q = 0; q < QUERIES; q++) {
+			String from = timetable.airport(random.nextInt(timetable.airportCount()));
+			String to = timetable.airport(random.nextInt(timetable.airportCount()));
+			int departure = Timetable.timestamp(12 + random.nextInt(7), random.nextInt(24) * 100);
+			assertEquals(arrival(csa.findPath(from, to, departure, check)),
+					arrival(partitions.findPath(from, to, departure, state)),
+					from + " " + to + " " + Timetable.formatTime(departure));
+		}
+		assertTrue(partitions.evictions() > 0, "no partition was evicted");
+		assertTrue(partitions.residentBytes() <= BUDGET || partitions.residentDays() == 1);
+	}
+
+	@Test
+	public void testThreadsMatchConnectionScan() throws InterruptedException {
+		DayPartitions partitions = DayPartitions.temporary(timetable, BUDGET);
+		ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			Random random = new Random(t);
+			Thread thread = new Thread(() -> {
+				SearchState state = new SearchState(0);
+				SearchState check = new SearchState(0);
+				try {
+					for (int q = 0; q < QUERIES / THREADS; q++) {
+						String from = timetable.airport(random.nextInt(timetable.airportCount()));
+						String to = timetable.airport(random.nextInt(timetable.airportCount()));
+						int departure = Timetable.timestamp(12 + random.nextInt(7), random.nextInt(24) * 100);
+						assertEquals(arrival(csa.findPath(from, to, departure, check)),
+								arrival(partitions.findPath(from, to, departure, state)),
+								from + " " + to + " " + Timetable.formatTime(departure));
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(failures.isEmpty(), () -> "thread failed: " + failures.peek());
+	}
+
+	@Test
+	public void testLateArrivalIsFound() {
+		Timetable.Builder builder = new Timetable.Builder();
+		builder.add("AAA", "BBB", Timetable.timestamp(1, 800), Timetable.timestamp(1, 900));
+		builder.add("BBB", "CCC", Timetable.timestamp(25, 800), Timetable.timestamp(25, 900));
+		DayPartitions partitions = DayPartitions.temporary(builder.build(), BUDGET);
+
+		assertEquals(Integer.valueOf(Timetable.timestamp(25, 900)),
+				arrival(partitions.findPath("AAA", "CCC", Timetable.timestamp(1, 0))));
+	}
+
+	@Test
+	public void testUnreachableReadsNoPartition() {
+		Timetable.Builder builder = new Timetable.Builder();
+		builder.add("AAA", "BBB", Timetable.timestamp(1, 800), Timetable.timestamp(1, 900));
+		builder.add("CCC", "AAA", Timetable.timestamp(2, 800), Timetable.timestamp(2, 900));
+		DayPartitions partitions = DayPartitions.temporary(builder.build(), BUDGET);
+
+		assertNull(partitions.findPath("AAA", "CCC", Timetable.timestamp(1, 0)));
+		assertNull(partitions.findPath("BBB", "AAA", Timetable.timestamp(1, 0)));
+		assertEquals(0, partitions.loads());
+	}
+
+	@Test
+	public void testManyDaysFromCsv(@TempDir File directory) throws IOException {
+		// a hundred days in turn, so that every row goes to another day
+		// than the one before and spill files are closed and reopened
+		StringBuilder csv = new StringBuilder("YEAR,MONTH,DAY_OF_MONTH,ORIGIN,DEST,DEP_TIME,ARR_TIME\n");
+		String[] airports = { "AAA", "BBB", "CCC", "DDD" };
+		Random random = new Random(20010911);
+		for (int row = 0; row < 5000; row++) {
+			int day = row % 100;
+			int leaves = 600 + random.nextInt(12) * 100;
+			csv.append(2001).append(',').append(1 + day / 28).append(',').append(1 + day % 28).append(',')
+					.append(airports[random.nextInt(4)]).append(',').append(airports[random.nextInt(4)]).append(',')
+					.append(String.format("%04d,%04d%n", leaves, leaves + 100 + random.nextInt(5) * 10));
+		}
+		File file = new File(directory, "year.csv");
+		Files.write(file.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+		Timetable.Builder builder = new Timetable.Builder();
+		CsvIngest.read(file.getPath(), builder, 1);
+		Timetable flights = builder.build();
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, flights);
+		Router expected = new ConnectionScan(graph, flights);
+
+		File days = new File(directory, "days");
+		DayPartitions.write(file.getPath(), days.getPath(), 2);
+		DayPartitions partitions = DayPartitions.open(days.getPath(), BUDGET);
+		assertEquals(100, partitions.dayCount());
+		assertEquals(flights.size(), partitions.size());
+		SearchState state = new SearchState(0);
+		SearchState check = new SearchState(0);
+		for (int q = 0; q < 1000; q++) {
+			String from = airports[random.nextInt(4)];
+			String to = airports[random.nextInt(4)];
+			int departure = flights.departure(random.nextInt(flights.size()));
+			assertEquals(arrival(expected.findPath(from, to, departure, check)),
+					arrival(partitions.findPath(from, to, departure, state)),
+					from + " " + to + " " + Timetable.formatTime(departure));
+		}
+	}
+
+	@Test
+	public void testOldIndexIsRejected(@TempDir File directory) throws IOException {
+		DayPartitions.write(timetable, directory.getPath());
+		File index = new File(directory, "index");
+		byte[] bytes = Files.readAllBytes(index.toPath());
+		bytes[4] = 1;
+		Files.write(index.toPath(), bytes);
+
+		assertThrows(IOException.class, () -> DayPartitions.open(directory.getPath(), BUDGET));
+	}
+
+	/**
+	 * Returns the arrival of a path
+	 *
+	 * @param path The path, may be null
+	 * @return the encoded arrival, null if there is no path or it has
+	 * 		   no legs
+	 */
+	private static Integer arrival(Path<String> path) {
+		return path == null ? null : path.time();
+	}
+}
@@ -0,0 +1,300 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests FlightUpdates on results.csv: searches that run while changes
+ * are applied must see a consistent graph, and once the changes are in
+ * the graph must answer like a graph the same changes were applied to
+ * on a single thread.
+ */
+public class FlightUpdatesTest {
+
+	private static final int READERS = 4;
+	private static final int CHANGES = 5000;
+	private static final int QUERIES = 3000;
+
+	private static Timetable timetable;
+
+	/**
+	 * Reads results.csv once for every test
+	 *
+	 * @throws IOException if results.csv cannot be read
+	 */
+	@BeforeAll
+	public static void load() throws IOException {
+		Timetable.Builder builder = new Timetable.Builder();
+		CsvIngest.read("results.csv", builder, Runtime.getRuntime().availableProcessors());
+		timetable = builder.build();
+	}
+
+	@Test
+	public void testCancelRemovesOneFlight() {
+		Graph<String, Integer> graph = graph();
+		FlightUpdates updates = new FlightUpdates(graph);
+		String from = timetable.airport(timetable.origin(0));
+		String to = timetable.airport(timetable.destination(0));
+		int departure = timetable.departure(0);
+		int flights = graph.getNode(from).departures(to).size();
+
+		assertTrue(updates.cancel(from, to, departure));
+		assertEquals(flights - 1, graph.getNode(from).departures(to).size());
+		assertEquals(1, updates.applied());
+	}
+
+	@Test
+	public void testLabelIsEarliestArrival() {
+		Graph<String, Integer> graph = graph();
+		FlightUpdates updates = new FlightUpdates(graph);
+		String from = null;
+		String to = null;
+		for (int c = 0; c < timetable.size() && to == null; c++) {
+			String origin = timetable.airport(timetable.origin(c));
+			String destination = timetable.airport(timetable.destination(c));
+			if (graph.getNode(origin).departures(destination).size() > 1) {
+				from = origin;
+				to = destination;
+			}
+		}
+		Departures flights = graph.getNode(from).departures(to);
+		int first = flights.earliest(Integer.MIN_VALUE);
+		assertEquals(Integer.valueOf(flights.arrival(first)), graph.getEdgeLabel(from, to));
+
+		// cancelling the earliest arrival moves the label to the next one
+		assertTrue(updates.cancel(from, to, flights.departure(first)));
+		Departures left = graph.getNode(from).departures(to);
+		int next = left.arrival(left.earliest(Integer.MIN_VALUE));
+		assertEquals(Integer.valueOf(next), graph.getEdgeLabel(from, to));
+
+		// a flight landing before every other one becomes the label
+		int arrival = flights.arrival(first) - 1;
+		updates.add(from, to, arrival - 100, arrival);
+		assertEquals(Integer.valueOf(arrival), graph.getEdgeLabel(from, to));
+
+		// retiming it to land later gives the label back to the others
+		assertTrue(updates.retime(from, to, arrival - 100, next, next + 100));
+		assertEquals(Integer.valueOf(next), graph.getEdgeLabel(from, to));
+	}
+
+	@Test
+	public void testMissingFlightChangesNothing() {
+		Graph<String, Integer> graph = graph();
+		FlightUpdates updates = new FlightUpdates(graph);
+		long version = graph.version();
+
+		assertFalse(updates.apply("cancel " + timetable.airport(0) + " " + timetable.airport(1) + " 99:0000"));
+		assertEquals(version, graph.version());
+		assertEquals(0, updates.applied());
+	}
+
+	@Test
+	public void testUnknownAirportThrows() {
+		FlightUpdates updates = new FlightUpdates(graph());
+		assertThrows(IllegalArgumentException.class, () -> updates.add("XXX", timetable.airport(0),
+				Timetable.timestamp(12, 800), Timetable.timestamp(12, 900)));
+	}
+
+	@Test
+	public void testArrivalBeforeDepartureThrows() {
+		FlightUpdates updates = new FlightUpdates(graph());
+		assertThrows(IllegalArgumentException.class, () -> updates.add(timetable.airport(0), timetable.airport(1),
+				Timetable.timestamp(12, 900), Timetable.timestamp(12, 800)));
+	}
+
+	@Test
+	public void testMalformedChangeThrows() {
+		FlightUpdates updates = new FlightUpdates(graph());
+		assertThrows(IllegalArgumentException.class, () -> updates.apply("cancel JFK"));
+		assertThrows(IllegalArgumentException.class, () -> updates.apply("delay JFK SEA 12:0800"));
+	}
+
+	@Test
+	public void testAddConnectsAirports() {
+		Graph<String, Integer> graph = graph();
+		FlightUpdates updates = new FlightUpdates(graph);
+		String from = null;
+		String to = null;
+		for (int a = 0; a < timetable.airportCount() && to == null; a++) {
+			for (int b = 0; b < timetable.airportCount() && to == null; b++) {
+				if (a != b && graph.getNode(timetable.airport(a)).departures(timetable.airport(b)) == null) {
+					from = timetable.airport(a);
+					to = timetable.airport(b);
+				}
+			}
+		}
+		int departure = Timetable.timestamp(12, 800);
+		int arrival = Timetable.timestamp(12, 900);
+
+		updates.add(from, to, departure, arrival);
+		Path<String> path = Program.findPath(graph, from, to, departure);
+		assertEquals(Integer.valueOf(arrival), path.time());
+	}
+
+	@Test
+	public void testReadersDuringChangesMatchSingleThreaded() throws InterruptedException {
+		List<String> changes = changes(new Random(20010911));
+		Graph<String, Integer> live = graph();
+		FlightUpdates updates = new FlightUpdates(live);
+
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicLong searches = new AtomicLong();
+		ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		List<Thread> readers = new ArrayList<>();
+		for (int r = 0; r < READERS; r++) {
+			Random random = new Random(r);
+			Thread reader = new Thread(() -> {
+				SearchState state = new SearchState(0);
+				try {
+					while (!done.get()) {
+						String from = timetable.airport(random.nextInt(timetable.airportCount()));
+						String to = timetable.airport(random.nextInt(timetable.airportCount()));
+						int departure = departure(random);
+						check(Program.findPath(live, from, to, departure, state), from, to, departure);
+						searches.incrementAndGet();
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			});
+			readers.add(reader);
+			reader.start();
+		}
+
+		int found = 0;
+		for (String change : changes) {
+			if (updates.apply(change)) found++;
+		}
+		// let every reader search the final graph too
+		long seen = searches.get();
+		while (searches.get() < seen + READERS && failures.isEmpty()) Thread.sleep(1);
+		done.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		assertTrue(failures.isEmpty(), () -> "reader failed: " + failures.peek());
+
+		Graph<String, Integer> fresh = graph();
+		FlightUpdates replayed = new FlightUpdates(fresh);
+		int replayedFound = 0;
+		for (String change : changes) {
+			if (replayed.apply(change)) replayedFound++;
+		}
+		assertEquals(replayedFound, found);
+		assertEquals(replayed.applied(), updates.applied());
+
+		Graph<String, Integer> unchanged = graph();
+		Random random = new Random(42);
+		SearchState state = new SearchState(0);
+		int moved = 0;
+		for (int q = 0; q < QUERIES; q++) {
+			String from = timetable.airport(random.nextInt(timetable.airportCount()));
+			String to = timetable.airport(random.nextInt(timetable.airportCount()));
+			int departure = departure(random);
+			Integer expected = arrival(Program.findPath(fresh, from, to, departure, state));
+			assertEquals(expected, arrival(Program.findPath(live, from, to, departure, state)),
+					from + " " + to + " " + Timetable.formatTime(departure));
+			if (!Objects.equals(expected, arrival(Program.findPath(unchanged, from, to, departure, state)))) moved++;
+		}
+		assertTrue(moved > 0, "no answer was changed by the changes");
+	}
+
+	/**
+	 * Returns a new graph of every flight of results.csv
+	 *
+	 * @return the graph
+	 */
+	private static Graph<String, Integer> graph() {
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, timetable);
+		return graph;
+	}
+
+	/**
+	 * Returns random cancellations, retimings and additions of flights
+	 * of the timetable, as text
+	 *
+	 * @param random The source of randomness
+	 * @return CHANGES changes, see FlightUpdates
+	 */
+	private static List<String> changes(Random random) {
+		List<String> changes = new ArrayList<>();
+		for (int i = 0; i < CHANGES; i++) {
+			int c = random.nextInt(timetable.size());
+			String flight = timetable.airport(timetable.origin(c)) + " " + timetable.airport(timetable.destination(c));
+			int delay = random.nextInt(120);
+			String departure = Timetable.formatTime(timetable.departure(c));
+			String moved = Timetable.formatTime(Timetable.fromMinutes(Timetable.minutes(timetable.departure(c)) + delay));
+			String landed = Timetable.formatTime(Timetable.fromMinutes(Timetable.minutes(timetable.arrival(c)) + delay));
+			switch (random.nextInt(3)) {
+			case 0:
+				changes.add("cancel " + flight + " " + departure);
+				break;
+			case 1:
+				changes.add("retime " + flight + " " + departure + " " + moved + " " + landed);
+				break;
+			default:
+				changes.add("add " + flight + " " + moved + " " + landed);
+				break;
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Returns a random departure on a day of results.csv
+	 *
+	 * @param random The source of randomness
+	 * @return the encoded departure
+	 */
+	private static int departure(Random random) {
+		return Timetable.timestamp(12 + random.nextInt(7), random.nextInt(24) * 100);
+	}
+
+	/**
+	 * Checks that a path found on a changing graph is an itinerary
+	 * from from to to that leaves after departure
+	 *
+	 * @param path The path found, may be null
+	 * @param from The FAA code of the starting airport
+	 * @param to The FAA code of the destination airport
+	 * @param departure The encoded departure searched from
+	 */
+	private static void check(Path<String> path, String from, String to, int departure) {
+		if (path == null) return;
+		assertEquals(to, path.destinationLabel());
+		String at = from;
+		int time = departure;
+		for (Edge<String, Integer> edge : path.edges()) {
+			assertEquals(at, edge.fromLabel());
+			assertTrue(edge.label() >= time, "legs out of order");
+			at = edge.toLabel();
+			time = edge.label();
+		}
+		assertEquals(to, at);
+	}
+
+	/**
+	 * Returns the arrival of a path
+	 *
+	 * @param path The path, may be null
+	 * @return the encoded arrival, null if there is no path or it has
+	 * 		   no legs
+	 */
+	private static Integer arrival(Path<String> path) {
+		return path == null ? null : path.time();
+	}
+}
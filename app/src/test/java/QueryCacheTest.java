@@ -0,0 +1,162 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests QueryCache in front of findPath on results.csv: cached answers,
+ * from one thread or many, must be the answers of the router behind
+ * the cache, also after the graph changes.
+ */
+public class QueryCacheTest {
+
+	private static final int THREADS = 4;
+	private static final int QUERIES = 20000;
+
+	/** Fewer distinct queries than QUERIES, so that most are hits */
+	private static final int DISTINCT = 500;
+
+	private static Timetable timetable;
+
+	/**
+	 * Reads results.csv once for every test
+	 *
+	 * @throws IOException if results.csv cannot be read
+	 */
+	@BeforeAll
+	public static void load() throws IOException {
+		Timetable.Builder builder = new Timetable.Builder();
+		CsvIngest.read("results.csv", builder, Runtime.getRuntime().availableProcessors());
+		timetable = builder.build();
+	}
+
+	@Test
+	public void testCapacityMustBePositive() {
+		Graph<String, Integer> graph = graph();
+		assertThrows(IllegalArgumentException.class, () -> new QueryCache(Program.engine("dijkstra", graph, timetable),
+				graph, 0));
+	}
+
+	@Test
+	public void testRepeatedQueryIsHit() {
+		Graph<String, Integer> graph = graph();
+		QueryCache cache = new QueryCache(Program.engine("dijkstra", graph, timetable), graph, 10);
+		Path<String> first = cache.findPath("JFK", "SEA", Timetable.timestamp(15, 1200));
+
+		assertSame(first, cache.findPath("JFK", "SEA", Timetable.timestamp(15, 1200)));
+		assertEquals(1, cache.hits());
+		assertEquals(1, cache.misses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		Graph<String, Integer> graph = graph();
+		QueryCache cache = new QueryCache(Program.engine("dijkstra", graph, timetable), graph, 2);
+		cache.findPath("JFK", "SEA", Timetable.timestamp(15, 1200));
+		cache.findPath("JFK", "LAX", Timetable.timestamp(15, 1200));
+		cache.findPath("JFK", "SEA", Timetable.timestamp(15, 1200));
+		cache.findPath("JFK", "ORD", Timetable.timestamp(15, 1200));
+
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.evictions());
+		cache.findPath("JFK", "SEA", Timetable.timestamp(15, 1200));
+		assertEquals(2, cache.hits());
+	}
+
+	@Test
+	public void testChangeInvalidates() {
+		Graph<String, Integer> graph = graph();
+		Router uncached = Program.engine("dijkstra", graph, timetable);
+		QueryCache cache = new QueryCache(uncached, graph, 10);
+		int departure = Timetable.timestamp(15, 1200);
+		Path<String> before = cache.findPath("JFK", "SEA", departure);
+
+		// cancel the first leg of the answer so that it no longer holds
+		Edge<String, Integer> leg = before.edges().get(0);
+		Departures flights = graph.getNode(leg.fromLabel()).departures(leg.toLabel());
+		int flight = flights.next(departure);
+		assertTrue(new FlightUpdates(graph).cancel(leg.fromLabel(), leg.toLabel(), flights.departure(flight)));
+
+		assertEquals(arrival(uncached.findPath("JFK", "SEA", departure)),
+				arrival(cache.findPath("JFK", "SEA", departure)));
+		assertEquals(1, cache.invalidations());
+	}
+
+	@Test
+	public void testThreadsMatchUncachedRouter() throws InterruptedException {
+		Graph<String, Integer> graph = graph();
+		Router uncached = Program.engine("dijkstra", graph, timetable);
+		QueryCache cache = new QueryCache(uncached, graph, DISTINCT / 2);
+		String[] from = new String[DISTINCT];
+		String[] to = new String[DISTINCT];
+		int[] departures = new int[DISTINCT];
+		Random random = new Random(20010911);
+		for (int q = 0; q < DISTINCT; q++) {
+			from[q] = timetable.airport(random.nextInt(timetable.airportCount()));
+			to[q] = timetable.airport(random.nextInt(timetable.airportCount()));
+			departures[q] = Timetable.timestamp(12 + random.nextInt(7), random.nextInt(24) * 100);
+		}
+
+		ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < THREADS; t++) {
+			Random queries = new Random(t);
+			Thread thread = new Thread(() -> {
+				SearchState state = new SearchState(0);
+				SearchState check = new SearchState(0);
+				try {
+					for (int i = 0; i < QUERIES / THREADS; i++) {
+						int q = queries.nextInt(DISTINCT);
+						assertEquals(arrival(uncached.findPath(from[q], to[q], departures[q], check)),
+								arrival(cache.findPath(from[q], to[q], departures[q], state)),
+								from[q] + " " + to[q] + " " + Timetable.formatTime(departures[q]));
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.isEmpty(), () -> "thread failed: " + failures.peek());
+		assertEquals(QUERIES, cache.hits() + cache.misses());
+		assertTrue(cache.hits() > 0, "no query was a hit");
+		assertTrue(cache.evictions() > 0, "no answer was evicted");
+	}
+
+	/**
+	 * Returns a new graph of every flight of results.csv
+	 *
+	 * @return the graph
+	 */
+	private static Graph<String, Integer> graph() {
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, timetable);
+		return graph;
+	}
+
+	/**
+	 * Returns the arrival of a path
+	 *
+	 * @param path The path, may be null
+	 * @return the encoded arrival, null if there is no path or it has
+	 * 		   no legs
+	 */
+	private static Integer arrival(Path<String> path) {
+		return path == null ? null : path.time();
+	}
+}
@@ -0,0 +1,116 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the statuses RouteServer answers with, over a two-flight
+ * timetable.
+ */
+public class RouteServerTest {
+
+	private Timetable timetable;
+	private RouteServer server;
+	private HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+	/**
+	 * Builds the timetable the servers of every test check queries
+	 * against
+	 */
+	@BeforeEach
+	public void setUp() {
+		Timetable.Builder builder = new Timetable.Builder();
+		builder.add("JFK", "ORD", Timetable.timestamp(13, 800), Timetable.timestamp(13, 1015));
+		builder.add("ORD", "SEA", Timetable.timestamp(13, 1100), Timetable.timestamp(13, 1402));
+		timetable = builder.build();
+	}
+
+	/**
+	 * Stops the server of the test, if it started one
+	 */
+	@AfterEach
+	public void tearDown() {
+		if (server != null) server.stop();
+	}
+
+	@Test
+	public void testItinerary() throws Exception {
+		start(Program.engine("csa", graph(), timetable));
+		HttpResponse<String> response = get("from=JFK&to=SEA&after=13:0700");
+		assertEquals(200, response.statusCode());
+		assertTrue(response.body().contains("\"arrival\":\"13:1402\""), response.body());
+	}
+
+	@Test
+	public void testNoItinerary() throws Exception {
+		start(Program.engine("csa", graph(), timetable));
+		assertEquals(404, get("from=SEA&to=JFK&after=13:0700").statusCode());
+	}
+
+	@Test
+	public void testMalformedQueries() throws Exception {
+		start(Program.engine("csa", graph(), timetable));
+		for (String query : new String[] { "from=JFK", "from=JFK&to=XXX", "from=JFK&to=SEA&after=0800",
+				"from=JFK&to=SEA&after=13:2400", "from=JFK&to=SEA&after=13:0860", "from=JFK&to=SEA&after=-1:0800",
+				"from=JFK&to=SEA&after=300000:0000", "from=JFK&to=SEA&after=13:0800:00" }) {
+			assertEquals(400, get(query).statusCode(), query);
+		}
+	}
+
+	@Test
+	public void testFailingRouter() throws Exception {
+		start((from, to, departure, state) -> {
+			throw new UncheckedIOException(new IOException("partition unreadable"));
+		});
+		HttpResponse<String> response = get("from=JFK&to=SEA&after=13:0700");
+		assertEquals(500, response.statusCode());
+		assertTrue(response.body().contains("partition unreadable"), response.body());
+		// the worker survives to answer the next request
+		assertEquals(500, get("from=JFK&to=SEA").statusCode());
+	}
+
+	/**
+	 * Returns a new graph of the flights of the timetable
+	 *
+	 * @return the graph
+	 */
+	private Graph<String, Integer> graph() {
+		Graph<String, Integer> graph = new Graph<>();
+		Program.buildGraph(graph, timetable);
+		return graph;
+	}
+
+	/**
+	 * Starts a server on a free port with one worker
+	 *
+	 * @param router The engine to answer with
+	 * @throws IOException if the server cannot be started
+	 */
+	private void start(Router router) throws IOException {
+		server = new RouteServer(router, timetable, 0, 1);
+		server.start();
+	}
+
+	/**
+	 * Sends a query to the server
+	 *
+	 * @param query The query string
+	 * @return the response
+	 * @throws Exception if the request cannot be sent
+	 */
+	private HttpResponse<String> get(String query) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/route?" + query))
+				.build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+}
@@ -0,0 +1,33 @@
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the DAY:HHMM times Timetable reads and writes.
+ */
+public class TimetableTest {
+
+	@Test
+	public void testParseTime() {
+		assertEquals(130800, Timetable.parseTime("13:0800"));
+		assertEquals(0, Timetable.parseTime("0:0000"));
+		assertEquals(Timetable.timestamp(Timetable.LAST_DAY, 2359), Timetable.parseTime(Timetable.LAST_DAY + ":2359"));
+	}
+
+	@Test
+	public void testFormatTimeIsParsed() {
+		for (int time : new int[] { 130800, 10005, 312359 }) {
+			assertEquals(time, Timetable.parseTime(Timetable.formatTime(time)));
+		}
+	}
+
+	@Test
+	public void testMalformedTimesThrow() {
+		for (String text : new String[] { "", "0800", "13:08", "13:08000", "x", "x:0800", "13:x800", "13:-005",
+				"13:+005", "13:2400", "13:0875", "-1:0800", "300000:0000", "99999999999:0000" }) {
+			assertThrows(NumberFormatException.class, () -> Timetable.parseTime(text), text);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+
+import java.util.Random;
+
+import benchmarks.Workload;
+
+/**
+ * <b>ProgramWorkload</b> runs the benchmarked operations against the
+ * program's classes. Queries are drawn from the flights themselves, so
+ * busy airports are queried as often as they are flown from and to.
+ */
+public class ProgramWorkload implements Workload {
+
+	private String csv;
+	private Timetable timetable;
+	private Graph<String, Integer> graph;
+	private Router router;
+
+	/**
+	 * The labels every query reuses, as Program's threads do, so that
+	 * allocation rates measure the engine; workloads are per thread
+	 */
+	private SearchState state;
+
+	/** Query i goes from from[i] to to[i], leaving at departures[i] */
+	private String[] from;
+	private String[] to;
+	private int[] departures;
+
+	/** Flight i flies from edgeFrom[i] to edgeTo[i] */
+	private String[] edgeFrom;
+	private String[] edgeTo;
+
+	@Override
+	public void load(String csv, String engine, int pairs, long seed) {
+		this.csv = csv;
+		Timetable.Builder flights = new Timetable.Builder();
+		Program.parseData(csv, flights);
+		this.timetable = flights.build();
+		this.graph = new Graph<>();
+		Program.buildGraph(graph, timetable);
+		// as in Program, only the engines that never see live changes
+		// read the pruned timetable
+		this.router = Program.engine(engine, graph, Program.prune(timetable));
+		this.state = new SearchState(Math.max(graph.idBound(), timetable.airportCount()));
+
+		Random random = new Random(seed);
+		this.from = new String[pairs];
+		this.to = new String[pairs];
+		this.departures = new int[pairs];
+		this.edgeFrom = new String[pairs];
+		this.edgeTo = new String[pairs];
+		for (int i = 0; i < pairs; i++) {
+			int leave = random.nextInt(timetable.size());
+			int land = random.nextInt(timetable.size());
+			from[i] = timetable.airport(timetable.origin(leave));
+			to[i] = timetable.airport(timetable.destination(land));
+			departures[i] = timetable.departure(leave);
+			edgeFrom[i] = from[i];
+			edgeTo[i] = timetable.airport(timetable.destination(leave));
+		}
+	}
+
+	@Override
+	public Object parseData() {
+		Timetable.Builder flights = new Timetable.Builder();
+		Program.parseData(csv, flights);
+		return flights;
+	}
+
+	@Override
+	public Object buildGraph() {
+		Graph<String, Integer> built = new Graph<>();
+		Program.buildGraph(built, timetable);
+		return built;
+	}
+
+	@Override
+	public Object findPath(int pair) {
+		return router.findPath(from[pair], to[pair], departures[pair], state);
+	}
+
+	@Override
+	public Object getNeighbors(int pair) {
+		return graph.getNeighbors(edgeFrom[pair]);
+	}
+
+	@Override
+	public Object getEdgeLabel(int pair) {
+		return graph.getEdgeLabel(edgeFrom[pair], edgeTo[pair]);
+	}
+
+	@Override
+	public int edgeCount() {
+		return graph.edgeCount();
+	}
+
+	@Override
+	public int pairs() {
+		return from.length;
+	}
+}
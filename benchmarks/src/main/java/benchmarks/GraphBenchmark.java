@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the Graph accessors on flights drawn from the data set:
+ * getNeighbors on their origin, getEdgeLabel on their airport pair,
+ * and edgeCount on the whole graph.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmark {
+
+	@Param("results.csv")
+	public String csv;
+
+	@Param("1000")
+	public int pairs;
+
+	@Param("20010911")
+	public long seed;
+
+	private Workload workload;
+	private int next;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		workload = Workload.create();
+		workload.load(csv, "dijkstra", pairs, seed);
+		next = 0;
+	}
+
+	@Benchmark
+	public Object getNeighbors() {
+		Object neighbors = workload.getNeighbors(next);
+		if (++next == pairs) next = 0;
+		return neighbors;
+	}
+
+	@Benchmark
+	public Object getEdgeLabel() {
+		Object label = workload.getEdgeLabel(next);
+		if (++next == pairs) next = 0;
+		return label;
+	}
+
+	@Benchmark
+	public int edgeCount() {
+		return workload.edgeCount();
+	}
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading a data set: Program.parseData on the CSV file and
+ * Program.buildGraph on the parsed timetable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+	@Param("results.csv")
+	public String csv;
+
+	private Workload workload;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		workload = Workload.create();
+		workload.load(csv, "dijkstra", 0, 0);
+	}
+
+	@Benchmark
+	public Object parseData() {
+		return workload.parseData();
+	}
+
+	@Benchmark
+	public Object buildGraph() {
+		return workload.buildGraph();
+	}
+}
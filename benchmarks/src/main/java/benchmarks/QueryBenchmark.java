@@ -0,0 +1,59 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures one earliest-arrival query per invocation, cycling through
+ * a fixed, seeded set of origin/destination pairs drawn from the
+ * data set. The engine parameter compares every Program.engine on the
+ * same queries.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+	@Param("results.csv")
+	public String csv;
+
+	@Param({ "dijkstra", "alt", "csa", "csr", "raptor" })
+	public String engine;
+
+	@Param("1000")
+	public int pairs;
+
+	@Param("20010911")
+	public long seed;
+
+	private Workload workload;
+	private int next;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		workload = Workload.create();
+		workload.load(csv, engine, pairs, seed);
+		next = 0;
+	}
+
+	@Benchmark
+	public Object findPath() {
+		Object path = workload.findPath(next);
+		if (++next == pairs) next = 0;
+		return path;
+	}
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+/**
+ * <b>Workload</b> is the set of program operations the benchmarks
+ * measure. JMH only accepts benchmark classes in a named package,
+ * while the program lives in the default package, which named
+ * packages cannot refer to. ProgramWorkload, in the default package,
+ * implements this interface and is loaded by name once per trial, so
+ * the measured calls are plain interface calls.
+ */
+public interface Workload {
+
+	/**
+	 * Loads the data set, builds the graph and the named engine, and
+	 * draws a fixed set of queries
+	 *
+	 * @param csv The BTS export to load
+	 * @param engine The name of the engine findPath runs on
+	 * @param pairs The number of origin/destination pairs to draw
+	 * @param seed The seed the pairs are drawn with
+	 */
+	void load(String csv, String engine, int pairs, long seed);
+
+	/**
+	 * Runs Program.parseData on the data set
+	 *
+	 * @return the filled builder
+	 */
+	Object parseData();
+
+	/**
+	 * Runs Program.buildGraph on the loaded timetable
+	 *
+	 * @return the new graph
+	 */
+	Object buildGraph();
+
+	/**
+	 * Answers the query drawn at the given position
+	 *
+	 * @param pair The position of the query, between 0 and pairs() - 1
+	 * @return the path found, null if there is none
+	 */
+	Object findPath(int pair);
+
+	/**
+	 * Runs Graph.getNeighbors on the origin of the given flight
+	 *
+	 * @param pair The position of the flight drawn
+	 * @return the neighbors of its origin
+	 */
+	Object getNeighbors(int pair);
+
+	/**
+	 * Runs Graph.getEdgeLabel on the airports of the given flight
+	 *
+	 * @param pair The position of the flight drawn
+	 * @return the label of the edge it flies along
+	 */
+	Object getEdgeLabel(int pair);
+
+	/**
+	 * Runs Graph.edgeCount on the loaded graph
+	 *
+	 * @return the number of edges
+	 */
+	int edgeCount();
+
+	/**
+	 * Returns the number of pairs drawn
+	 *
+	 * @return the number of pairs
+	 */
+	int pairs();
+
+	/**
+	 * Returns a new instance of the default-package implementation
+	 *
+	 * @return a new ProgramWorkload
+	 * @throws ReflectiveOperationException if it cannot be loaded
+	 */
+	static Workload create() throws ReflectiveOperationException {
+		return (Workload) Class.forName("ProgramWorkload").getDeclaredConstructor().newInstance();
+	}
+}